@@ -73,6 +73,7 @@ public class MetaService
         cnx.runUpdate("jdprm_delete_all");
         cnx.runUpdate("node_delete_all");
         cnx.runUpdate("jd_delete_all");
+        cnx.runUpdate("qv_delete_all");
         cnx.runUpdate("q_delete_all");
         cnx.runUpdate("jndiprm_delete_all");
         cnx.runUpdate("jndi_delete_all");
@@ -447,6 +448,7 @@ public class MetaService
             res.setTracingEnabled(rs.getBoolean(colShift + 5));
             res.setPersistent(rs.getBoolean(colShift + 6));
             res.setAllowedRunners(rs.getString(colShift + 7));
+            res.setRecycledRuns(rs.getInt(colShift + 8));
             return res;
         }
         catch (SQLException e)
@@ -507,12 +509,12 @@ public class MetaService
             if (dto.getId() != null)
             {
                 cnx.runUpdate("cl_update_all_fields_by_id", dto.getName(), dto.isChildFirst(), dto.getHiddenClasses(),
-                        dto.isTracingEnabled(), dto.isPersistent(), dto.getAllowedRunners(), dto.getId());
+                        dto.isTracingEnabled(), dto.isPersistent(), dto.getAllowedRunners(), dto.getRecycledRuns(), dto.getId());
             }
             else
             {
                 Cl.create(cnx, dto.getName(), dto.isChildFirst(), dto.getHiddenClasses(), dto.isTracingEnabled(), dto.isPersistent(),
-                        dto.getAllowedRunners());
+                        dto.getAllowedRunners(), dto.getRecycledRuns());
 
             }
         }
@@ -1051,6 +1053,7 @@ public class MetaService
         }
 
         cnx.runUpdate("dp_delete_for_queue", id);
+        cnx.runUpdate("qv_delete_by_id", id);
         QueryResult qr = cnx.runUpdate("q_delete_by_id", id);
         if (qr.nbUpdated != 1)
         {
@@ -24,6 +24,7 @@ public class ClDto implements Serializable
     private boolean tracingEnabled;
     private boolean persistent;
     private String allowedRunners;
+    private int recycledRuns;
 
     @XmlElementWrapper(name = "handlers")
     @XmlElement(name = "handler")
@@ -99,6 +100,16 @@ public class ClDto implements Serializable
         this.allowedRunners = allowedRunners;
     }
 
+    public int getRecycledRuns()
+    {
+        return recycledRuns;
+    }
+
+    public void setRecycledRuns(int recycledRuns)
+    {
+        this.recycledRuns = recycledRuns;
+    }
+
     public List<ClHandlerDto> getHandlers()
     {
         return handlers;
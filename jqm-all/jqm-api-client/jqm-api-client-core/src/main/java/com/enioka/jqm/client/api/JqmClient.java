@@ -69,6 +69,26 @@ public interface JqmClient
      */
     JobRequest newJobRequest(String applicationName, String user);
 
+    /**
+     * Create many job instances at once. This is much faster than calling {@link JobRequest#enqueue()} on each request when there are
+     * many of them: job definition and queue lookups are only done once, parameters are inserted by batches, and commits happen every
+     * <code>enqueueBatchCommitSize</code> (a global parameter) job instances.<br>
+     * Requests are processed in order. The requests which create or use a schedule, as well as requests for highlander job definitions,
+     * are processed exactly as with {@link JobRequest#enqueue()}.<br>
+     * The job definitions, schedules and queues named by the requests are all checked before the first job instance is created, so an
+     * invalid request creates nothing. But an error happening later (a database failure, an invalid recurrence...) stops the batch
+     * without removing the job instances already committed.
+     *
+     * @param requests
+     *            requests created by {@link #newJobRequest(String, String)} on any client.
+     * @return the IDs of the new job instances, in the same order as the requests.
+     * @throws JqmInvalidRequestException
+     *             when input data is invalid.
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     */
+    List<Long> enqueueBatch(List<JobRequest> requests);
+
     // /////////////////////////////////////////////////////////////////////
     // Job destruction
     // /////////////////////////////////////////////////////////////////////
@@ -418,7 +438,7 @@ public interface JqmClient
 
     /**
      * Return one file created by a job instance. The stream is not open: opening and closing it is the caller's responsibility.<br>
-     * <strong>The underlying temporary files are deleted at stream closure</strong>. <br>
+     * <strong>The content is read from the node while it is transferred - the stream must be closed to release the connection</strong>. <br>
      * <strong>In some implementations, this client method may require a direct TCP connection to the engine that has run the instance. In
      * all implementations, the engine that has run the instance must be up.</strong>
      *
@@ -432,7 +452,7 @@ public interface JqmClient
 
     /**
      * Return one file created by a job instance. The stream is not open: opening and closing it is the caller's responsibility.<br>
-     * <strong>The underlying temporary files are deleted at stream closure</strong>. <br>
+     * <strong>The content is read from the node while it is transferred - the stream must be closed to release the connection</strong>. <br>
      * <strong>In some implementations, this client method may require a direct TCP connection to the engine that has run the instance. In
      * all implementations, the engine that has run the instance must be up.</strong>
      *
@@ -481,6 +501,69 @@ public interface JqmClient
      */
     InputStream getJobLogStdErr(long jobId);
 
+    /**
+     * Returns a part of the standard output flow of a job instance, which may still be running. Only the requested bytes are transferred,
+     * so this is the way to display the end of a huge log.<br>
+     * <strong>In some implementations, this client method may require a direct TCP connection to the engine that has run the instance. In
+     * all implementations, the engine that has run the instance must be up.</strong>
+     *
+     * @param jobId
+     *            the job instance
+     * @param offset
+     *            first byte to return. If negative, counted from the end of the file: -65536 returns the last 64KB.
+     * @param length
+     *            maximum number of bytes to return. Zero or negative means until the end of the file. Ignored when offset is negative.
+     * @return a stream, empty if offset is beyond the end of the file.
+     * @throws JqmInvalidRequestException
+     *             when input data is invalid (job instance does not exist)
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     * @see #getJobLogStdOut(long)
+     */
+    InputStream getJobLogStdOut(long jobId, long offset, long length);
+
+    /**
+     * Same as {@link #getJobLogStdOut(long, long, long)} for the standard error flow.
+     *
+     * @throws JqmInvalidRequestException
+     *             when input data is invalid (job instance does not exist)
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     * @see #getJobLogStdErr(long)
+     */
+    InputStream getJobLogStdErr(long jobId, long offset, long length);
+
+    /**
+     * Follows the standard output flow of a job instance while it runs, like <code>tail -f</code>: reading the returned stream gives the
+     * bytes of the log as they are written by the job instance (reads block while waiting for new output), and the stream only ends once
+     * the job instance has ended and its whole log was transmitted. The log is never transmitted twice, so this is the way to watch a
+     * running job instance instead of calling {@link #getJobLogStdOut(long)} again and again.<br>
+     * <strong>In some implementations, this client method may require a direct TCP connection to the engine that runs the instance. In all
+     * implementations, the engine that runs the instance must be up. The job instance must already have been attributed to an
+     * engine.</strong><br>
+     * <strong>The responsibility to close the returned stream lies on the API user.</strong>
+     *
+     * @param jobId
+     *            the job instance
+     * @param offset
+     *            first byte to return. If negative, counted from the end of the file at the time of the call: -4096 begins with the last 4KB.
+     * @throws JqmInvalidRequestException
+     *             when input data is invalid (job instance does not exist)
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     */
+    InputStream followJobLogStdOut(long jobId, long offset);
+
+    /**
+     * Same as {@link #followJobLogStdOut(long, long)} for the standard error flow.
+     *
+     * @throws JqmInvalidRequestException
+     *             when input data is invalid (job instance does not exist)
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     */
+    InputStream followJobLogStdErr(long jobId, long offset);
+
     // /////////////////////////////////////////////////////////////////////
     // File input management
     // /////////////////////////////////////////////////////////////////////
@@ -0,0 +1,118 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.client.shared;
+
+/**
+ * <strong>Not part of any API - this an internal JQM class and may change without notice.</strong> <br>
+ *
+ * A single HTTP byte range (RFC 7233), as used to retrieve only a part of a log file. Translates between the offset/length convention of
+ * the client API and the <code>Range</code> header.
+ */
+public final class ByteRange
+{
+    /**
+     * First byte. If negative, counted from the end of the file.
+     */
+    public final long offset;
+
+    /**
+     * Maximum number of bytes. Zero or negative means until the end of the file. Ignored when {@link #offset} is negative.
+     */
+    public final long length;
+
+    public ByteRange(long offset, long length)
+    {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return the value of the Range header for this range.
+     */
+    public String toHeader()
+    {
+        if (offset < 0)
+        {
+            return "bytes=" + offset; // suffix range: bytes=-n
+        }
+        if (length <= 0)
+        {
+            return "bytes=" + offset + "-";
+        }
+        return "bytes=" + offset + "-" + (offset + length - 1);
+    }
+
+    /**
+     * Parse a Range header. Only single byte ranges are supported.
+     *
+     * @return the range, or null if there is no header or if it cannot be used (in which case the whole file should be sent).
+     */
+    public static ByteRange fromHeader(String header)
+    {
+        if (header == null || !header.trim().startsWith("bytes=") || header.contains(","))
+        {
+            return null;
+        }
+        String spec = header.trim().substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+        {
+            return null;
+        }
+
+        try
+        {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty())
+            {
+                long suffix = Long.parseLong(last);
+                return suffix > 0 ? new ByteRange(-suffix, 0) : null;
+            }
+
+            long start = Long.parseLong(first);
+            if (last.isEmpty())
+            {
+                return new ByteRange(start, 0);
+            }
+            long end = Long.parseLong(last);
+            return end >= start ? new ByteRange(start, end - start + 1) : null;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * The actual bytes to send for a file of the given size.
+     *
+     * @return first and last (inclusive) byte positions, or null if the range cannot be satisfied.
+     */
+    public long[] resolve(long size)
+    {
+        if (offset < 0)
+        {
+            return size == 0 ? null : new long[] { Math.max(size + offset, 0), size - 1 };
+        }
+        if (offset >= size)
+        {
+            return null;
+        }
+        long end = length <= 0 ? size - 1 : Math.min(offset + length - 1, size - 1);
+        return new long[] { offset, end };
+    }
+}
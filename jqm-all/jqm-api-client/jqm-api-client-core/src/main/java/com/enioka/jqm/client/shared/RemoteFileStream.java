@@ -15,40 +15,29 @@
  */
 package com.enioka.jqm.client.shared;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import java.io.FilterInputStream;
+import java.io.InputStream;
 
 /**
  * <strong>Not part of any API - this an internal JQM class and may change without notice.</strong> <br>
  *
- * A file input stream overload which deletes the underlying file when the stream is closed.
+ * A stream on a file served by a JQM node, read while it is transferred (there is no local copy). Closing it closes the underlying
+ * connection.
  */
-public class SelfDestructFileStream extends FileInputStream
+public class RemoteFileStream extends FilterInputStream
 {
-    File f = null;
+    /**
+     * The file name given by the node, if any.
+     */
     public String nameHint = null;
 
-    public SelfDestructFileStream(File file) throws FileNotFoundException
-    {
-        super(file);
-        this.f = file;
-    }
+    /**
+     * The Content-Range header given by the node when only a part of the file was requested, null otherwise.
+     */
+    public String contentRange = null;
 
-    @Override
-    public void close() throws IOException
+    public RemoteFileStream(InputStream in)
     {
-        super.close();
-
-        try
-        {
-            f.delete();
-        }
-        catch (Exception e)
-        {
-            // Nothing
-        }
-        f = null;
+        super(in);
     }
 }
@@ -42,6 +42,7 @@ import com.enioka.jqm.client.api.Query.SortOrder;
 import com.enioka.jqm.client.api.Query.SortSpec;
 import com.enioka.jqm.client.api.QueueStatus;
 import com.enioka.jqm.client.api.Schedule;
+import com.enioka.jqm.client.shared.ByteRange;
 import com.enioka.jqm.client.shared.JobRequestBaseImpl;
 import com.enioka.jqm.client.shared.JqmClientEnqueueCallback;
 import com.enioka.jqm.client.shared.JqmClientQuerySubmitCallback;
@@ -64,6 +65,7 @@ import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.Message;
 import com.enioka.jqm.model.Node;
 import com.enioka.jqm.model.Queue;
+import com.enioka.jqm.model.QueueEvents;
 import com.enioka.jqm.model.RuntimeParameter;
 import com.enioka.jqm.model.ScheduledJob;
 import com.enioka.jqm.model.State;
@@ -169,7 +171,16 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
     public Long enqueue(JobRequestBaseImpl runRequest)
     {
         jqmlogger.trace("BEGINING ENQUEUE - request is for application name " + runRequest.getApplicationName());
+        validate(runRequest);
 
+        try (DbConn cnx = getDbSession())
+        {
+            return enqueueWithCnx(runRequest, cnx);
+        }
+    }
+
+    private void validate(JobRequestBaseImpl runRequest)
+    {
         // Form validity.
         if ((runRequest.getApplicationName() == null || runRequest.getApplicationName().trim().isEmpty())
                 && runRequest.getScheduleId() == null)
@@ -177,10 +188,185 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
             throw new JqmClientException("Invalid execution request: applicationName is empty");
         }
         runRequest.setParameters(runRequest.getParameters()); // This will validate parameters.
+    }
 
+    @Override
+    public List<Long> enqueueBatch(List<JobRequest> requests)
+    {
+        jqmlogger.trace("BEGINING BATCH ENQUEUE - {} requests", requests.size());
+
+        // Validate everything before creating anything.
+        List<JobRequestBaseImpl> runRequests = new ArrayList<>(requests.size());
+        for (JobRequest jr : requests)
+        {
+            if (!(jr instanceof JobRequestBaseImpl))
+            {
+                throw new JqmInvalidRequestException("Invalid execution request: it was not created by a JQM client");
+            }
+            validate((JobRequestBaseImpl) jr);
+            runRequests.add((JobRequestBaseImpl) jr);
+        }
+
+        List<Long> res = new ArrayList<>(runRequests.size());
         try (DbConn cnx = getDbSession())
         {
-            return enqueueWithCnx(runRequest, cnx);
+            int commitSize = Math.max(Integer.parseInt(GlobalParameter.getParameter(cnx, "enqueueBatchCommitSize", "1000")), 1);
+            EnqueueBatch batch = new EnqueueBatch(cnx);
+
+            // Resolve all the referenced metadata before creating anything, so that an invalid request does not leave half a batch.
+            for (JobRequestBaseImpl runRequest : runRequests)
+            {
+                if (runRequest.getScheduleId() != null)
+                {
+                    if (ScheduledJob.select(cnx, "sj_select_by_id", runRequest.getScheduleId()).isEmpty())
+                    {
+                        throw new JqmInvalidRequestException("Invalid job request: no schedule with ID " + runRequest.getScheduleId());
+                    }
+                }
+                else if (!batch.jobDefs.containsKey(runRequest.getApplicationName()))
+                {
+                    batch.jobDefs.put(runRequest.getApplicationName(), selectJobDef(cnx, runRequest.getApplicationName()));
+                }
+                if (runRequest.getQueueName() != null)
+                {
+                    selectQueueId(cnx, runRequest.getQueueName(), batch.queues);
+                }
+            }
+
+            for (JobRequestBaseImpl runRequest : runRequests)
+            {
+                JobDef jobDef = null;
+                boolean scheduled = runRequest.getScheduleId() != null
+                        || (runRequest.getRecurrence() != null && !runRequest.getRecurrence().trim().isEmpty());
+                if (!scheduled)
+                {
+                    jobDef = batch.jobDefs.get(runRequest.getApplicationName());
+                }
+                if (jobDef == null || jobDef.isHighlander())
+                {
+                    // Schedules and highlander need their own transactions. Keep the requests order.
+                    batch.commit();
+                    res.add(enqueueWithCnx(runRequest, cnx));
+                    continue;
+                }
+
+                res.add(batch.add(runRequest, jobDef));
+                if (batch.size >= commitSize)
+                {
+                    batch.commit();
+                }
+            }
+            batch.commit();
+        }
+        catch (JqmException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new JqmClientException("Could not create new JobInstances", e);
+        }
+
+        jqmlogger.trace("Batch enqueue has created {} job instances", res.size());
+        return res;
+    }
+
+    /**
+     * Tells the nodes polling the queues which have just received new job instances that they should poll at once. Must be called inside
+     * the submission transaction, right before its commit: the signal is only visible with the job instances, and the signal row (if the
+     * database uses one) is only locked during the commit. Queues are signaled in ID order, so that concurrent submissions never wait for
+     * each other in a cycle.
+     */
+    private static void signalQueues(DbConn cnx, Collection<Long> queueIds)
+    {
+        for (Long queueId : new TreeSet<>(queueIds))
+        {
+            cnx.signalQueue(queueId);
+        }
+    }
+
+    /**
+     * Wakes up the pollers of this JVM directly. Must be called after the submission transaction is committed.
+     */
+    private static void wakeUpLocalPollers(Collection<Long> queueIds)
+    {
+        for (Long queueId : queueIds)
+        {
+            QueueEvents.jobInstancesSubmitted(queueId);
+        }
+    }
+
+    /**
+     * The current chunk of a batch enqueue, with the lookups which are kept for the whole batch.
+     */
+    private static class EnqueueBatch
+    {
+        private DbConn cnx;
+        private Map<String, JobDef> jobDefs = new HashMap<>();
+        private Map<Long, Map<String, String>> jobDefParameters = new HashMap<>();
+        private Map<String, Long> queues = new HashMap<>();
+
+        private int size = 0;
+        private List<Object[]> parameters = new ArrayList<>();
+        private Set<Long> submittedQueues = new HashSet<>();
+
+        private EnqueueBatch(DbConn cnx)
+        {
+            this.cnx = cnx;
+        }
+
+        private long add(JobRequestBaseImpl runRequest, JobDef jobDef)
+        {
+            // Parameters are both from the JobDef and the execution request.
+            Map<String, String> jdPrms = jobDefParameters.get(jobDef.getId());
+            if (jdPrms == null)
+            {
+                jdPrms = JobDefParameter.select_map(cnx, "jdprm_select_all_for_jd", jobDef.getId());
+                jobDefParameters.put(jobDef.getId(), jdPrms);
+            }
+            Map<String, String> prms = new HashMap<>(jdPrms);
+            prms.putAll(runRequest.getParameters());
+
+            Long queueId = resolveQueue(cnx, runRequest, null, jobDef, queues);
+            Integer priority = resolvePriority(runRequest, null, jobDef);
+            State startingState = resolveStartingState(runRequest);
+
+            // The JI itself needs its generated ID, so only its parameters are batched.
+            long id = JobInstance.enqueue(cnx, startingState, queueId, jobDef.getId(), runRequest.getApplication(),
+                    runRequest.getParentID(), runRequest.getModule(), runRequest.getKeyword1(), runRequest.getKeyword2(),
+                    runRequest.getKeyword3(), runRequest.getSessionID(), runRequest.getUser(), runRequest.getEmail(), false,
+                    runRequest.getRunAfter() != null, runRequest.getRunAfter(), priority, Instruction.RUN, null);
+            for (Map.Entry<String, String> prm : prms.entrySet())
+            {
+                parameters.add(new Object[] { id, prm.getKey(), prm.getValue() });
+            }
+            if (startingState == State.SUBMITTED)
+            {
+                submittedQueues.add(queueId);
+            }
+            size++;
+            return id;
+        }
+
+        private void commit()
+        {
+            if (size == 0)
+            {
+                return;
+            }
+
+            if (!parameters.isEmpty())
+            {
+                cnx.runBatchUpdate("jiprm_insert", parameters);
+            }
+            signalQueues(cnx, submittedQueues);
+            cnx.commit();
+            wakeUpLocalPollers(submittedQueues);
+            jqmlogger.trace("Batch enqueue has committed {} job instances", size);
+
+            size = 0;
+            parameters.clear();
+            submittedQueues.clear();
         }
     }
 
@@ -217,21 +403,7 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         if (sj == null)
         {
             // Standard case: execution by applicationName.
-            try
-            {
-                jobDef = JobDef.select_key(cnx, runRequest.getApplicationName());
-            }
-            catch (NonUniqueResultException ex)
-            {
-                jqmlogger.error(
-                        "There are multiple Job definition named " + runRequest.getApplicationName() + ". Inconsistent configuration.");
-                throw new JqmInvalidRequestException("There are multiple Job definition named " + runRequest.getApplicationName());
-            }
-            catch (NoResultException ex)
-            {
-                jqmlogger.error("Job definition named " + runRequest.getApplicationName() + " does not exist");
-                throw new JqmInvalidRequestException("no job definition named " + runRequest.getApplicationName());
-            }
+            jobDef = selectJobDef(cnx, runRequest.getApplicationName());
         }
         else
         {
@@ -273,32 +445,93 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         }
         prms.putAll(runRequest.getParameters());
 
-        // On which queue?
         Long queue_id = null;
-        if (runRequest.getQueueName() != null)
+        try
         {
-            // use requested key if given.
-            try
+            queue_id = resolveQueue(cnx, runRequest, sj, jobDef, null);
+        }
+        catch (JqmInvalidRequestException e)
+        {
+            cnx.closeQuietly(highlanderRs);
+            throw e;
+        }
+        Integer priority = resolvePriority(runRequest, sj, jobDef);
+        State startingState = resolveStartingState(runRequest);
+
+        // Now create the JI
+        try
+        {
+            Long id = JobInstance.enqueue(cnx, startingState, queue_id, jobDef.getId(), runRequest.getApplication(),
+                    runRequest.getParentID(), runRequest.getModule(), runRequest.getKeyword1(), runRequest.getKeyword2(),
+                    runRequest.getKeyword3(), runRequest.getSessionID(), runRequest.getUser(), runRequest.getEmail(), jobDef.isHighlander(),
+                    sj != null || runRequest.getRunAfter() != null, runRequest.getRunAfter(), priority, Instruction.RUN, prms);
+
+            jqmlogger.trace("JI just created: " + id);
+            if (startingState == State.SUBMITTED)
             {
-                queue_id = cnx.runSelectSingle("q_select_by_key", 1, Long.class, runRequest.getQueueName());
+                signalQueues(cnx, Collections.singleton(queue_id));
             }
-            catch (NoResultException e)
+            cnx.commit();
+            if (startingState == State.SUBMITTED)
             {
-                cnx.closeQuietly(highlanderRs);
-                throw new JqmInvalidRequestException("Requested queue " + runRequest.getQueueName() + " does not exist", e);
+                wakeUpLocalPollers(Collections.singleton(queue_id));
             }
+            return id;
         }
-        else if (sj != null && sj.getQueue() != null)
+        catch (NoResultException e)
         {
-            queue_id = sj.getQueue();
+            throw new JqmInvalidRequestException("An entity specified in the execution request does not exist", e);
         }
-        else
+        catch (Exception e)
         {
-            // use default queue otherwise
-            queue_id = jobDef.getQueue();
+            throw new JqmClientException("Could not create new JobInstance", e);
         }
+    }
+
+    /**
+     * The queue of a new job instance: the requested one if any, else the one of the schedule if any, else the one of the job definition.
+     *
+     * @param queues
+     *            the queues already looked up by name. Can be null.
+     */
+    private static Long resolveQueue(DbConn cnx, JobRequestBaseImpl runRequest, ScheduledJob sj, JobDef jobDef, Map<String, Long> queues)
+    {
+        if (runRequest.getQueueName() != null)
+        {
+            return selectQueueId(cnx, runRequest.getQueueName(), queues);
+        }
+        if (sj != null && sj.getQueue() != null)
+        {
+            return sj.getQueue();
+        }
+        return jobDef.getQueue();
+    }
 
-        // Priority can come from schedule, JD, request. (in order of ascending priority)
+    // Helper. The result is added to the queues cache if given.
+    private static Long selectQueueId(DbConn cnx, String queueName, Map<String, Long> queues)
+    {
+        Long res = queues == null ? null : queues.get(queueName);
+        if (res == null)
+        {
+            try
+            {
+                res = cnx.runSelectSingle("q_select_by_key", 1, Long.class, queueName);
+            }
+            catch (NoResultException e)
+            {
+                throw new JqmInvalidRequestException("Requested queue " + queueName + " does not exist", e);
+            }
+            if (queues != null)
+            {
+                queues.put(queueName, res);
+            }
+        }
+        return res;
+    }
+
+    // Priority can come from schedule, JD, request. (in order of ascending priority)
+    private static Integer resolvePriority(JobRequestBaseImpl runRequest, ScheduledJob sj, JobDef jobDef)
+    {
         Integer priority = null;
         if (sj != null)
         {
@@ -312,38 +545,20 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         {
             priority = runRequest.getPriority();
         }
+        return priority;
+    }
 
-        // Decide what the starting state should be.
-        State startingState = State.SUBMITTED; // The default.
+    private static State resolveStartingState(JobRequestBaseImpl runRequest)
+    {
         if (runRequest.getRunAfter() != null)
         {
-            startingState = State.SCHEDULED;
+            return State.SCHEDULED;
         }
-        else if (runRequest.getStartState() != null)
+        if (runRequest.getStartState() != null)
         {
-            startingState = State.valueOf(runRequest.getStartState().toString());
-        }
-
-        // Now create the JI
-        try
-        {
-            Long id = JobInstance.enqueue(cnx, startingState, queue_id, jobDef.getId(), runRequest.getApplication(),
-                    runRequest.getParentID(), runRequest.getModule(), runRequest.getKeyword1(), runRequest.getKeyword2(),
-                    runRequest.getKeyword3(), runRequest.getSessionID(), runRequest.getUser(), runRequest.getEmail(), jobDef.isHighlander(),
-                    sj != null || runRequest.getRunAfter() != null, runRequest.getRunAfter(), priority, Instruction.RUN, prms);
-
-            jqmlogger.trace("JI just created: " + id);
-            cnx.commit();
-            return id;
-        }
-        catch (NoResultException e)
-        {
-            throw new JqmInvalidRequestException("An entity specified in the execution request does not exist", e);
-        }
-        catch (Exception e)
-        {
-            throw new JqmClientException("Could not create new JobInstance", e);
+            return State.valueOf(runRequest.getStartState().toString());
         }
+        return State.SUBMITTED; // The default.
     }
 
     @Override
@@ -366,6 +581,24 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
     }
 
     // Helper. Current transaction is committed in some cases.
+    private static JobDef selectJobDef(DbConn cnx, String applicationName)
+    {
+        try
+        {
+            return JobDef.select_key(cnx, applicationName);
+        }
+        catch (NonUniqueResultException ex)
+        {
+            jqmlogger.error("There are multiple Job definition named " + applicationName + ". Inconsistent configuration.");
+            throw new JqmInvalidRequestException("There are multiple Job definition named " + applicationName);
+        }
+        catch (NoResultException ex)
+        {
+            jqmlogger.error("Job definition named " + applicationName + " does not exist");
+            throw new JqmInvalidRequestException("no job definition named " + applicationName);
+        }
+    }
+
     private Object highlanderMode(JobDef jd, DbConn cnx)
     {
         if (!jd.isHighlander())
@@ -1607,23 +1840,52 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
     }
 
     private InputStream getFile(String url)
+    {
+        return getFile(url, null);
+    }
+
+    private InputStream getFile(String url, ByteRange range)
     {
         try (var cnx = getDbSession())
         {
-            return httpClient.getFile(cnx, url);
+            return httpClient.getFile(cnx, url, range);
         }
     }
 
     @Override
     public InputStream getJobLogStdOut(long jobId)
     {
-        return getJobLog(jobId, ".stdout", "stdout");
+        return getJobLog(jobId, "stdout", null);
     }
 
     @Override
     public InputStream getJobLogStdErr(long jobId)
     {
-        return getJobLog(jobId, ".stderr", "stderr");
+        return getJobLog(jobId, "stderr", null);
+    }
+
+    @Override
+    public InputStream getJobLogStdOut(long jobId, long offset, long length)
+    {
+        return getJobLog(jobId, "stdout", new ByteRange(offset, length));
+    }
+
+    @Override
+    public InputStream getJobLogStdErr(long jobId, long offset, long length)
+    {
+        return getJobLog(jobId, "stderr", new ByteRange(offset, length));
+    }
+
+    @Override
+    public InputStream followJobLogStdOut(long jobId, long offset)
+    {
+        return followJobLog(jobId, "stdout", offset);
+    }
+
+    @Override
+    public InputStream followJobLogStdErr(long jobId, long offset)
+    {
+        return followJobLog(jobId, "stderr", offset);
     }
 
     private String getHostForLaunch(Long launchId)
@@ -1678,7 +1940,7 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         }
     }
 
-    private InputStream getJobLog(Long jobId, String extension, String param)
+    private InputStream getJobLog(Long jobId, String param, ByteRange range)
     {
         // 1: retrieve node to address
         String uriStart = getHostForLaunch(jobId);
@@ -1695,6 +1957,27 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
             throw new JqmClientException("URL is not valid " + url, e);
         }
 
+        return getFile(url.toString(), range);
+    }
+
+    private InputStream followJobLog(Long jobId, String param, long offset)
+    {
+        // 1: retrieve node to address
+        String uriStart = getHostForLaunch(jobId);
+
+        // 2: build URL
+        URL url = null;
+        try
+        {
+            url = new URL(uriStart + "/ws/simple/" + param + "/follow?id=" + jobId + "&offset=" + offset);
+            jqmlogger.trace("URL: " + url.toString());
+        }
+        catch (MalformedURLException e)
+        {
+            throw new JqmClientException("URL is not valid " + url, e);
+        }
+
+        // The stream is read while the node sends it, so this returns as soon as the node has answered.
         return getFile(url.toString());
     }
 
@@ -1763,6 +2046,7 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         {
             cnx.runUpdate("dp_update_enable_by_queue_id", Boolean.FALSE, q.getId());
             cnx.commit();
+            QueueEvents.configurationChanged();
             jqmlogger.info("Queue {} has been paused", q.getId());
         }
         catch (Exception e)
@@ -1778,6 +2062,7 @@ final class JdbcClient implements JqmClient, JqmClientEnqueueCallback, JqmClient
         {
             cnx.runUpdate("dp_update_enable_by_queue_id", Boolean.TRUE, q.getId());
             cnx.commit();
+            QueueEvents.configurationChanged();
             jqmlogger.info("Queue {} has been resumed", q.getId());
         }
         catch (Exception e)
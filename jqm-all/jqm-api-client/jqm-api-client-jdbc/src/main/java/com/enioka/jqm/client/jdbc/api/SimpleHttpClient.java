@@ -1,6 +1,5 @@
 package com.enioka.jqm.client.jdbc.api;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -13,14 +12,12 @@ import java.net.http.HttpResponse;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Path;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.Properties;
-import java.util.UUID;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
@@ -30,7 +27,8 @@ import org.slf4j.LoggerFactory;
 
 import com.enioka.jqm.client.api.JqmClientException;
 import com.enioka.jqm.client.api.JqmInvalidRequestException;
-import com.enioka.jqm.client.shared.SelfDestructFileStream;
+import com.enioka.jqm.client.shared.ByteRange;
+import com.enioka.jqm.client.shared.RemoteFileStream;
 import com.enioka.jqm.client.shared.SimpleApiSecurity;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.NoResultException;
@@ -57,7 +55,17 @@ class SimpleHttpClient
 
     InputStream getFile(DbConn cnx, String url)
     {
-        File file = null;
+        return getFile(cnx, url, null);
+    }
+
+    /**
+     * Retrieve a file from a node. The returned stream reads the response body directly - nothing is copied locally.
+     *
+     * @param range
+     *            the part of the file to retrieve, or null for the whole file.
+     */
+    InputStream getFile(DbConn cnx, String url, ByteRange range)
+    {
         String nameHint = null;
 
         // Init the client if needed. (not threadsafe, not an issue as duplicate clients are cheap)
@@ -74,15 +82,6 @@ class SimpleHttpClient
             throw new JqmInvalidRequestException("Invalid URL " + url, e);
         }
 
-        // We will download the file to a temporary location
-        File destDir = new File(System.getProperty("java.io.tmpdir"));
-        if (!destDir.isDirectory() && !destDir.mkdir())
-        {
-            throw new JqmClientException("could not create temp directory " + destDir.getAbsolutePath());
-        }
-        file = new File(destDir + "/" + UUID.randomUUID().toString());
-        jqmlogger.trace("File will be copied into {} as {}", destDir, file.getName());
-
         // Auth stuff
         var authData = SimpleApiSecurity.getId(cnx);
         String encodedAuth = null;
@@ -92,13 +91,18 @@ class SimpleHttpClient
         }
 
         // Create request
-        var rq = HttpRequest.newBuilder().uri(uri).header("Authorization", "Basic " + encodedAuth).GET().build();
+        var rqb = HttpRequest.newBuilder().uri(uri).header("Authorization", "Basic " + encodedAuth).GET();
+        if (range != null)
+        {
+            rqb.header("Range", range.toHeader());
+        }
+        var rq = rqb.build();
 
         // Run
-        HttpResponse<Path> rs;
+        HttpResponse<InputStream> rs;
         try
         {
-            rs = client.send(rq, BodyHandlers.ofFile(file.toPath()));
+            rs = client.send(rq, BodyHandlers.ofInputStream());
         }
         catch (IOException e)
         {
@@ -112,8 +116,17 @@ class SimpleHttpClient
         }
 
         // Manage result.
-        if (rs.statusCode() != 200)
+        if (rs.statusCode() == 416)
         {
+            // Requested part is beyond the end of the file: nothing to return.
+            closeQuietly(rs.body());
+            RemoteFileStream empty = new RemoteFileStream(InputStream.nullInputStream());
+            empty.contentRange = rs.headers().firstValue("Content-Range").orElse(null); // "bytes */size"
+            return empty;
+        }
+        if (rs.statusCode() != 200 && rs.statusCode() != 206)
+        {
+            closeQuietly(rs.body());
             throw new JqmClientException(
                     "Could not retrieve file from JQM node. The file may have been purged, or the node may be unreachable. HTTP code was: "
                             + rs.statusCode());
@@ -131,17 +144,22 @@ class SimpleHttpClient
         }
 
         // Return the result as a stream
-        SelfDestructFileStream res;
+        RemoteFileStream res = new RemoteFileStream(rs.body());
+        res.nameHint = nameHint;
+        res.contentRange = rs.statusCode() == 206 ? rs.headers().firstValue("Content-Range").orElse(null) : null;
+        return res;
+    }
+
+    private static void closeQuietly(InputStream is)
+    {
         try
         {
-            res = new SelfDestructFileStream(file);
+            is.close();
         }
-        catch (FileNotFoundException e)
+        catch (IOException e)
         {
-            throw new JqmClientException("Could not open temporary file downloaded from URL", e);
+            // Nothing to do.
         }
-        res.nameHint = nameHint;
-        return res;
     }
 
     public String uploadFile(DbConn cnx, InputStream file, String targetUrl)
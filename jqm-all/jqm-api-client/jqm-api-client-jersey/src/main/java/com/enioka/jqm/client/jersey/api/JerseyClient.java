@@ -31,10 +31,12 @@ import java.util.Map;
 import java.util.Properties;
 
 import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.ClientErrorException;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.WebTarget;
+import jakarta.ws.rs.core.GenericEntity;
 import jakarta.ws.rs.core.GenericType;
 import jakarta.ws.rs.core.MediaType;
 
@@ -48,6 +50,7 @@ import com.enioka.jqm.client.api.JqmInvalidRequestException;
 import com.enioka.jqm.client.api.Query;
 import com.enioka.jqm.client.api.Queue;
 import com.enioka.jqm.client.api.QueueStatus;
+import com.enioka.jqm.client.shared.ByteRange;
 import com.enioka.jqm.client.shared.JobRequestBaseImpl;
 import com.enioka.jqm.client.shared.JqmClientEnqueueCallback;
 import com.enioka.jqm.client.shared.JqmClientQuerySubmitCallback;
@@ -288,6 +291,44 @@ final class JerseyClient implements JqmClient, JqmClientQuerySubmitCallback, Jqm
         }
     }
 
+    @Override
+    public List<Long> enqueueBatch(List<JobRequest> requests)
+    {
+        List<JobRequestBaseImpl> body = new ArrayList<>(requests.size());
+        for (JobRequest jr : requests)
+        {
+            if (!(jr instanceof JobRequestBaseImpl))
+            {
+                throw new JqmInvalidRequestException("Invalid execution request: it was not created by a JQM client");
+            }
+            body.add((JobRequestBaseImpl) jr);
+        }
+
+        try
+        {
+            List<JobInstance> jis = target.path("ji/batch").request()
+                    .post(Entity.entity(new GenericEntity<List<JobRequestBaseImpl>>(body)
+                    {
+                    }, MediaType.APPLICATION_XML), new GenericType<List<JobInstance>>()
+                    {
+                    });
+            List<Long> res = new ArrayList<>(jis.size());
+            for (JobInstance ji : jis)
+            {
+                res.add(ji.getId());
+            }
+            return res;
+        }
+        catch (BadRequestException e)
+        {
+            throw new JqmInvalidRequestException(e.getResponse().readEntity(String.class), e);
+        }
+        catch (Exception e)
+        {
+            throw new JqmClientException(e);
+        }
+    }
+
     @Override
     public long enqueue(String applicationName, String userName)
     {
@@ -868,6 +909,71 @@ final class JerseyClient implements JqmClient, JqmClientQuerySubmitCallback, Jqm
         }
     }
 
+    @Override
+    public InputStream getJobLogStdOut(long jobId, long offset, long length)
+    {
+        return getJobLogPart(jobId, "stdout", new ByteRange(offset, length));
+    }
+
+    @Override
+    public InputStream getJobLogStdErr(long jobId, long offset, long length)
+    {
+        return getJobLogPart(jobId, "stderr", new ByteRange(offset, length));
+    }
+
+    @Override
+    public InputStream followJobLogStdOut(long jobId, long offset)
+    {
+        return followJobLog(jobId, "stdout", offset);
+    }
+
+    @Override
+    public InputStream followJobLogStdErr(long jobId, long offset)
+    {
+        return followJobLog(jobId, "stderr", offset);
+    }
+
+    private InputStream followJobLog(long jobId, String flow, long offset)
+    {
+        try
+        {
+            return target.path("ji/" + jobId + "/" + flow + "/follow").queryParam("offset", offset).request().get(InputStream.class);
+        }
+        catch (BadRequestException e)
+        {
+            throw new JqmInvalidRequestException(e.getResponse().readEntity(String.class), e);
+        }
+        catch (Exception e)
+        {
+            throw new JqmClientException(e);
+        }
+    }
+
+    private InputStream getJobLogPart(long jobId, String flow, ByteRange range)
+    {
+        try
+        {
+            return target.path("ji/" + jobId + "/" + flow).request().header("Range", range.toHeader()).get(InputStream.class);
+        }
+        catch (BadRequestException e)
+        {
+            throw new JqmInvalidRequestException(e.getResponse().readEntity(String.class), e);
+        }
+        catch (ClientErrorException e)
+        {
+            if (e.getResponse().getStatus() == 416)
+            {
+                // Requested part is beyond the end of the file.
+                return InputStream.nullInputStream();
+            }
+            throw new JqmClientException(e);
+        }
+        catch (Exception e)
+        {
+            throw new JqmClientException(e);
+        }
+    }
+
     // /////////////////////////////////////////////////////////////////////
     // File input management
     // /////////////////////////////////////////////////////////////////////
@@ -12,7 +12,10 @@ import org.kohsuke.MetaInfServices;
 
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbAdapter;
+import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.QueryPreparation;
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.Queue;
 
 @MetaInfServices(DbAdapter.class)
 public class DbImplDb2 extends DbAdapter
@@ -27,6 +30,14 @@ public class DbImplDb2 extends DbAdapter
                 "UPDATE __T__JOB_INSTANCE j1 SET NODE=?, STATUS='ATTRIBUTED', DATE_ATTRIBUTION=CURRENT_TIMESTAMP WHERE j1.STATUS='SUBMITTED' AND j1.ID IN "
                         + "(SELECT j2.ID FROM __T__JOB_INSTANCE j2 WHERE j2.STATUS='SUBMITTED' AND j2.QUEUE=? "
                         + "AND (j2.HIGHLANDER=0 OR (j2.HIGHLANDER=1 AND (SELECT COUNT(1) FROM __T__JOB_INSTANCE j3 WHERE j3.STATUS IN('ATTRIBUTED', 'RUNNING') AND j3.JOBDEF=j2.JOBDEF)=0 )) ORDER BY PRIORITY DESC, INTERNAL_POSITION FETCH FIRST ? ROWS ONLY)"));
+
+        // Only fetch the head of the queue. Its rows are locked until the poller transaction ends, and rows locked by other nodes (i.e. JI
+        // being attributed right now) are skipped instead of waited for. The join with queues and job definitions makes the full query
+        // read-only (no FOR UPDATE) and would lock these shared rows too, so the head is locked on the JI table alone, then loaded by ID.
+        queries.put("ji_select_poll_lock", this.adaptSql("SELECT ID FROM __T__JOB_INSTANCE WHERE QUEUE=? AND STATUS='SUBMITTED' "
+                + "ORDER BY PRIORITY DESC, INTERNAL_POSITION FETCH FIRST ? ROWS ONLY WITH RS USE AND KEEP UPDATE LOCKS SKIP LOCKED DATA"));
+        queries.put("ji_select_poll", queries.get("ji_select_all") + this.adaptSql(" WHERE ji.ID IN(UNNEST(?)) AND ji.STATUS='SUBMITTED' "
+                + "ORDER BY ji.PRIORITY DESC, ji.INTERNAL_POSITION"));
     }
 
     @Override
@@ -52,6 +63,11 @@ public class DbImplDb2 extends DbAdapter
             q.sqlText = q.sqlText.replace("FETCH FIRST ? ROWS ONLY", "FETCH FIRST " + q.parameters.get(2) + " ROWS ONLY");
             q.parameters.remove(2);
         }
+        if (q.isKey("ji_select_poll_lock"))
+        {
+            q.sqlText = q.sqlText.replace("FETCH FIRST ? ROWS ONLY", "FETCH FIRST " + q.parameters.get(1) + " ROWS ONLY");
+            q.parameters.remove(1);
+        }
 
         // There is no (clean) way to do parameterized IN(?) queries with DB2 so we must rewrite these queries as IN(?, ?, ?...)
         // This cannot be done at startup, as the ? count may be different for each call.
@@ -131,4 +147,15 @@ public class DbImplDb2 extends DbAdapter
 
         return sql;
     }
+
+    @Override
+    public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
+    {
+        List<Long> head = cnx.runSelectColumn("ji_select_poll_lock", Long.class, queue.getId(), headSize);
+        if (head.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        return JobInstance.select(cnx, "ji_select_poll", head);
+    }
 }
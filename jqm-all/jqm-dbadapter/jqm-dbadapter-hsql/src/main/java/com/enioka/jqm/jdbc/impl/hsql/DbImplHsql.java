@@ -23,6 +23,7 @@ public class DbImplHsql extends DbAdapter
         super.prepare(p, cnx);
 
         // We do NOT want to use paginateQuery on each poll query as we want polling to be as painless as possible, so we pre-paginate it.
+        // HSQLDB has no SKIP LOCKED equivalent, so concurrent pollers will simply race on the JI status update.
         queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ?");
     }
 
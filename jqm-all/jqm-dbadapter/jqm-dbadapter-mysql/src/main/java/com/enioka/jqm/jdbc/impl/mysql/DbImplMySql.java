@@ -30,6 +30,7 @@ public class DbImplMySql extends DbAdapter
         super.prepare(p, cnx);
 
         // We do NOT want to use paginateQuery on each poll query as we want polling to be as painless as possible, so we pre-paginate it.
+        // These versions have no SKIP LOCKED, so concurrent pollers will simply race on the JI status update.
         queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ?");
 
         sequenceSqlRetrieval = adaptSql("SELECT next FROM __T__JQM_SEQUENCE WHERE name = ?");
@@ -125,8 +126,8 @@ public class DbImplMySql extends DbAdapter
             }
         }
 
-        // Manually generate a new ID for INSERT orders. (with one exception - history inserts do not need a generated ID)
-        if (!q.sqlText.startsWith("INSERT INTO") || q.queryKey.startsWith("history_insert"))
+        // Manually generate a new ID for INSERT orders. (with two exceptions - history and queue version inserts do not need a generated ID)
+        if (!q.sqlText.startsWith("INSERT INTO") || q.queryKey.startsWith("history_insert") || q.isKey("qv_insert"))
         {
             return;
         }
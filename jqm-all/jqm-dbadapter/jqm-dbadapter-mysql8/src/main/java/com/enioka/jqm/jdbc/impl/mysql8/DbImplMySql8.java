@@ -29,7 +29,18 @@ public class DbImplMySql8 extends DbAdapter
         super.prepare(p, cnx);
 
         // We do NOT want to use paginateQuery on each poll query as we want polling to be as painless as possible, so we pre-paginate it.
-        queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ?");
+        // On MySQL, the head is also locked so that concurrent nodes get disjoint heads. Only the JI rows must be locked, otherwise the
+        // (shared) queue and job definition rows would make other nodes skip everything. MariaDB has no "OF" clause, so no locking there.
+        boolean skipLocked = false;
+        try
+        {
+            skipLocked = cnx.getMetaData().getDatabaseProductName().contains("MySQL");
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+        queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ?" + (skipLocked ? " FOR UPDATE OF ji SKIP LOCKED" : ""));
     }
 
     @Override
@@ -35,8 +35,9 @@ public class DbImplOracle extends DbAdapter
         System.setProperty("oracle.jdbc.Trace", "false");
 
         // See poll method for everything which is wrong with Oracle and queues.
-        queries.put("ji_select_poll",
-                String.format("SELECT /*+ FIRST_ROWS */ a.* FROM (%s) a WHERE ROWNUM < ?", queries.get("ji_select_poll")));
+        // No ROWNUM here: it would be applied before SKIP LOCKED, and rows locked by other nodes would eat the head. The head size is
+        // enforced by the poll method, which stops fetching.
+        queries.put("ji_select_poll", queries.get("ji_select_poll") + " FOR UPDATE OF ji.ID SKIP LOCKED");
 
         // Sad: Oracle needs this inside the SQL text in addition to standard JDBC flags...
         queries.put("jd_select_by_id_lock", queries.get("jd_select_by_id_lock") + " FOR UPDATE");
@@ -131,10 +132,12 @@ public class DbImplOracle extends DbAdapter
     // We may want to evaluate that framework one day. For now, we actually cannot use a message broker since we use many filters like
     // the Highlander filter. So it will have to wait for a new H handling mode.
     // There is no - to our knowledge - way of polling a table in a single UPDATE on this db.
+    // The closest thing is SKIP LOCKED: rows of the head already locked by another node are simply not returned. As rows are only locked
+    // when fetched, the head is limited by fetching headSize rows and closing the cursor - not by the query itself.
 
     @Override
     public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
     {
-        return JobInstance.select(cnx, "ji_select_poll", queue.getId(), headSize);
+        return JobInstance.selectHead(cnx, headSize, "ji_select_poll", queue.getId());
     }
 }
@@ -1,22 +1,56 @@
 package com.enioka.jqm.jdbc.impl.pg;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.kohsuke.MetaInfServices;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
 
+import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbAdapter;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.Queue;
 
 @MetaInfServices(DbAdapter.class)
 public class DbImplPg extends DbAdapter
 {
+    private static final String QUEUE_CHANNEL = "jqm_queue";
+
+    /**
+     * The sessions which currently LISTEN to the queue channel. The listen is kept between waits.
+     */
+    private final Set<PGConnection> listening = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
     public DbImplPg()
     {
         this.IDS[0] = "id";
     }
 
+    @Override
+    public void prepare(Properties p, Connection cnx)
+    {
+        super.prepare(p, cnx);
+
+        // Only fetch the head of the queue, and lock it so that other nodes polling the same queue at the same time get the next JI
+        // instead of racing on the same ones. Only the JI rows are locked (the other tables are on the nullable side of outer joins).
+        queries.put("ji_select_poll", queries.get("ji_select_poll") + " LIMIT ? FOR UPDATE OF ji SKIP LOCKED");
+
+        // Queue signals use the native notification system instead of the QUEUE_VERSION table.
+        queries.put("qv_notify", "SELECT pg_notify('" + QUEUE_CHANNEL + "', ?)");
+    }
+
     @Override
     public String adaptSql(String sql)
     {
@@ -48,4 +82,66 @@ public class DbImplPg extends DbAdapter
         prms.add(start);
         return sql;
     }
+
+    @Override
+    public List<JobInstance> poll(DbConn cnx, Queue queue, int headSize)
+    {
+        return JobInstance.select(cnx, "ji_select_poll", queue.getId(), headSize);
+    }
+
+    @Override
+    public void signalQueue(DbConn cnx, long queueId)
+    {
+        // Notifications are only sent on commit.
+        try (ResultSet rs = cnx.runSelect("qv_notify", String.valueOf(queueId)))
+        {
+            // Nothing to read.
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public Set<Long> waitForQueueSignals(DbConn cnx, Map<Long, Long> versions, int timeoutMs)
+    {
+        Set<Long> res = new HashSet<>();
+
+        // The session is dedicated to the waits, so LISTEN only once.
+        PGConnection pgCnx = cnx.unwrap(PGConnection.class);
+        if (!listening.contains(pgCnx))
+        {
+            cnx.runRawUpdate("LISTEN " + QUEUE_CHANNEL);
+            cnx.commit();
+            listening.add(pgCnx);
+        }
+        try
+        {
+            PGNotification[] notifications = pgCnx.getNotifications(timeoutMs);
+            if (notifications != null)
+            {
+                for (PGNotification n : notifications)
+                {
+                    res.add(Long.parseLong(n.getParameter()));
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+        return res;
+    }
+
+    @Override
+    public void stopWaitingForQueueSignals(DbConn cnx)
+    {
+        // The session goes back to the pool and must not accumulate notifications there.
+        if (listening.remove(cnx.unwrap(PGConnection.class)))
+        {
+            cnx.runRawUpdate("UNLISTEN " + QUEUE_CHANNEL);
+            cnx.commit();
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.engine.api.jmx;
+
+import java.util.Date;
+
+import javax.management.MXBean;
+
+/**
+ * Monitoring interface for the history purge (retention) service.
+ */
+@MXBean
+public interface HistoryPurgerMBean
+{
+    /**
+     * True while a purge is running.
+     */
+    boolean isRunning();
+
+    /**
+     * Start date of the running purge, or of the last one if none is running. Null if no purge has run since engine startup.
+     */
+    Date getLastRunStartDate();
+
+    /**
+     * Duration of the last completed purge.
+     */
+    long getLastRunDurationMilliseconds();
+
+    /**
+     * The number of ended job instances which were older than the retention period when the running (or last) purge started.
+     */
+    long getPurgeableCountAtLastRunStart();
+
+    /**
+     * The number of job instances removed from history by the running purge, or by the last one if none is running.
+     */
+    long getPurgedCountLastRun();
+
+    /**
+     * The number of job instances removed from history since engine startup.
+     */
+    long getPurgedCountTotal();
+
+    /**
+     * How the last purge ended: OK, STOPPED, DISABLED (no retention set), FAILED with the error message...
+     */
+    String getLastRunResult();
+
+    /**
+     * Starts a purge at once, in the background, unless one is already running. {@link #isRunning()} is true as soon as this method
+     * returns.
+     */
+    void purge();
+
+    /**
+     * Stops the running purge, if any, once its current batch is done.
+     */
+    void stop();
+}
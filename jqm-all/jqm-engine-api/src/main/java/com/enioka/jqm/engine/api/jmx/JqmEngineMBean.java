@@ -15,6 +15,8 @@
  */
 package com.enioka.jqm.engine.api.jmx;
 
+import java.util.Map;
+
 import javax.management.MXBean;
 
 import com.enioka.jqm.model.GlobalParameter;
@@ -51,6 +53,56 @@ public interface JqmEngineMBean
      */
     long getCumulativeJobInstancesCount();
 
+    /**
+     * The number of job instances that ended on this node in the last minute divided by 60.
+     */
+    float getJobsFinishedPerSecondLastMinute();
+
+    /**
+     * Mean time between enqueue and launch of the job instances launched since the engine started, in milliseconds.
+     */
+    long getMeanWaitTimeMilliseconds();
+
+    /**
+     * 95th percentile of the time between enqueue and launch, in milliseconds. This is an approximation given by a histogram: the value
+     * is the upper bound of a bucket (1ms, 5ms, 10ms, 50ms, 100ms, 500ms, 1s, 5s, 10s, 30s, 1mn, 5mn, 15mn, 1h). -1 means more than one
+     * hour.
+     */
+    long getWaitTime95thPercentileMilliseconds();
+
+    /**
+     * Mean run time of the job instances ended since the engine started, in milliseconds.
+     */
+    long getMeanRunTimeMilliseconds();
+
+    /**
+     * 95th percentile of the run time, in milliseconds. Same approximation as {@link #getWaitTime95thPercentileMilliseconds()}.
+     */
+    long getRunTime95thPercentileMilliseconds();
+
+    /**
+     * Histogram of the time between enqueue and launch, as cumulative counts per bucket upper bound in milliseconds ("+Inf" being the
+     * total count), plus the sum of all the times in milliseconds ("sum").
+     */
+    Map<String, Long> getWaitTimeHistogram();
+
+    /**
+     * Histogram of the run times, in the same format as {@link #getWaitTimeHistogram()}.
+     */
+    Map<String, Long> getRunTimeHistogram();
+
+    /**
+     * Histogram of the time between the end of a job instance and the commit of its results inside the database, in the same format as
+     * {@link #getWaitTimeHistogram()}.
+     */
+    Map<String, Long> getEndOfRunPersistenceHistogram();
+
+    /**
+     * Histogram of the time needed to get a database connection from the pool, in the same format as {@link #getWaitTimeHistogram()}. As
+     * the pool, it is shared by all the engines inside the JVM.
+     */
+    Map<String, Long> getDbConnectionAcquisitionHistogram();
+
     /**
      * The number of currently running job instances
      */
@@ -15,6 +15,8 @@
  */
 package com.enioka.jqm.engine.api.jmx;
 
+import java.util.Map;
+
 import javax.management.MXBean;
 
 /**
@@ -44,16 +46,78 @@ public interface QueuePollerMBean
     Integer getMaxConcurrentJobInstanceCount();
 
     /**
-     * The total number of job instances that were run on this node/queue since the last history purge.
+     * The number of job instances that were run on this node/queue. This is an in-memory counter, initialized with the count of the
+     * history when the poller is created (engine start or new deployment of the queue on the node) and incremented afterwards.
      */
     long getCumulativeJobInstancesCount();
 
     /**
-     * The number of job instances that ended in the last minute divided by 60. A better method is to call
-     * {@link #getCumulativeJobInstancesCount()} and compute deltas between calls.
+     * The number of job instances that ended in the last minute divided by 60 (only job instances ended since the engine started are
+     * taken into account). A better method is to call {@link #getCumulativeJobInstancesCount()} and compute deltas between calls.
      */
     float getJobsFinishedPerSecondLastMinute();
 
+    /**
+     * Mean time between enqueue and launch of the job instances launched since the engine started, in milliseconds.
+     */
+    long getMeanWaitTimeMilliseconds();
+
+    /**
+     * 95th percentile of the time between enqueue and launch, in milliseconds. This is an approximation given by a histogram: the value
+     * is the upper bound of a bucket (1ms, 5ms, 10ms, 50ms, 100ms, 500ms, 1s, 5s, 10s, 30s, 1mn, 5mn, 15mn, 1h). -1 means more than one
+     * hour.
+     */
+    long getWaitTime95thPercentileMilliseconds();
+
+    /**
+     * Mean run time of the job instances ended since the engine started, in milliseconds.
+     */
+    long getMeanRunTimeMilliseconds();
+
+    /**
+     * 95th percentile of the run time, in milliseconds. Same approximation as {@link #getWaitTime95thPercentileMilliseconds()}.
+     */
+    long getRunTime95thPercentileMilliseconds();
+
+    /**
+     * Histogram of the time between enqueue and launch, as cumulative counts per bucket upper bound in milliseconds ("+Inf" being the
+     * total count), plus the sum of all the times in milliseconds ("sum").
+     */
+    Map<String, Long> getWaitTimeHistogram();
+
+    /**
+     * Histogram of the run times, in the same format as {@link #getWaitTimeHistogram()}.
+     */
+    Map<String, Long> getRunTimeHistogram();
+
+    /**
+     * Histogram of the duration of the poller loops (queue head fetch and attribution), in the same format as
+     * {@link #getWaitTimeHistogram()}.
+     */
+    Map<String, Long> getPollDurationHistogram();
+
+    /**
+     * The number of poller loops since the engine started.
+     */
+    long getPollLoopCount();
+
+    /**
+     * The number of job instances attributed to this node/queue and launched since the engine started. Divided by
+     * {@link #getPollLoopCount()}, this gives the mean attribution batch size.
+     */
+    long getAttributedJobInstancesCount();
+
+    /**
+     * The number of job instances attributed during the last poller loop.
+     */
+    int getLastAttributionBatchSize();
+
+    /**
+     * For each resource manager used by this poller (key is the resource manager key), an approximation of the number of job instances it
+     * would allow to launch right now. {@link Integer#MAX_VALUE} means it does not limit launches.
+     */
+    Map<String, Integer> getResourceManagerSlotsAvailable();
+
     /**
      * The number of currently running job instances
      */
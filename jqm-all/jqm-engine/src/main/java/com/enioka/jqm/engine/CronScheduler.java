@@ -33,6 +33,7 @@ class CronScheduler implements Runnable, TaskCollector
     private boolean run = true;
     private boolean masterScheduler = false;
     private Thread t;
+    private HistoryPurger purger = null;
 
     public CronScheduler(JqmEngine e)
     {
@@ -60,6 +61,9 @@ class CronScheduler implements Runnable, TaskCollector
         }
         cnx.close();
 
+        // History retention is a cluster-wide task, so it is run by the master scheduler.
+        this.purger = new HistoryPurger(e);
+
         // Start the thread
         t = new Thread(this);
         t.start();
@@ -69,6 +73,10 @@ class CronScheduler implements Runnable, TaskCollector
     {
         this.run = false;
         stopScheduler();
+        if (this.purger != null)
+        {
+            this.purger.unregister();
+        }
         this.t.interrupt();
         // No need to wait... only daemon threads here, so cannot prevent engine shutdown.
     }
@@ -155,6 +163,11 @@ class CronScheduler implements Runnable, TaskCollector
 
     private void stopScheduler()
     {
+        if (this.purger != null)
+        {
+            // Otherwise stopping the scheduler would wait for the end of the whole purge.
+            this.purger.stop();
+        }
         if (s != null && s.isStarted())
         {
             s.stop();
@@ -176,6 +189,20 @@ class CronScheduler implements Runnable, TaskCollector
                 res.add(new SchedulingPattern(sj.getCronExpression()), new JqmTask(sj));
             }
 
+            // History retention
+            if (Integer.parseInt(GlobalParameter.getParameter(cnx, "historyRetentionDays", "0")) > 0)
+            {
+                String purgeCron = GlobalParameter.getParameter(cnx, "historyPurgeCron", "0 3 * * *");
+                if (SchedulingPattern.validate(purgeCron))
+                {
+                    res.add(new SchedulingPattern(purgeCron), new PurgeTask());
+                }
+                else
+                {
+                    jqmlogger.warn("Invalid historyPurgeCron parameter [{}] - history will not be purged", purgeCron);
+                }
+            }
+
             // Also check delayed jobs
             cnx.runUpdate("ji_update_delayed");
             cnx.commit();
@@ -201,4 +228,13 @@ class CronScheduler implements Runnable, TaskCollector
 
     }
 
+    private class PurgeTask extends Task
+    {
+        @Override
+        public void execute(TaskExecutionContext context) throws RuntimeException
+        {
+            purger.runPurge();
+        }
+    }
+
 }
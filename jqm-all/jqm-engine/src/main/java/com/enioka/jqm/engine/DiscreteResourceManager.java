@@ -1,11 +1,12 @@
 package com.enioka.jqm.engine;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.model.JobInstance;
@@ -32,14 +33,35 @@ public class DiscreteResourceManager extends ResourceManagerBase
     private static String PRM_CONSUMPTION = "consumption";
 
     /**
-     * The tokens, indexed by name. Boolean is true if available, false if booked.
+     * All the tokens, indexed by name.
      */
     private Map<String, Token> tokenRepository = new ConcurrentHashMap<>(10);
 
+    /**
+     * The free tokens. Booking k tokens only pops k elements.
+     */
+    private Deque<Token> freeTokens = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Size of {@link #freeTokens}, minus the tokens currently being taken. Decremented before popping, so that exhaustion is known at
+     * once and so that a booking never has to give back a partial grab because of a concurrent booking.
+     */
+    private AtomicInteger freeCount = new AtomicInteger(0);
+
+    /**
+     * The tokens booked by each JI, so that releasing them does not need a scan.
+     */
+    private Map<Long, List<Token>> bookedTokens = new ConcurrentHashMap<>(10);
+
     private class Token
     {
-        private AtomicBoolean free = new AtomicBoolean(true);
-        private long jiId = 0L;
+        private String name;
+        private volatile boolean removed = false;
+
+        private Token(String name)
+        {
+            this.name = name;
+        }
     }
 
     private int defaultConsumption;
@@ -69,7 +91,7 @@ public class DiscreteResourceManager extends ResourceManagerBase
         super.refreshConfiguration(configuration);
         String[] newItems = getStringParameter(PRM_LIST).split(",");
 
-        // Remove items absent from configuration
+        // Remove items absent from configuration. Booked ones simply will not be given back to the free list.
         List<String> toRemove = new ArrayList<>(); // Cannot directly modify map we iterate on.
         for (String key : this.tokenRepository.keySet())
         {
@@ -90,7 +112,12 @@ public class DiscreteResourceManager extends ResourceManagerBase
         }
         for (String key : toRemove)
         {
-            this.tokenRepository.remove(key);
+            Token token = this.tokenRepository.remove(key);
+            token.removed = true;
+            if (this.freeTokens.remove(token))
+            {
+                this.freeCount.decrementAndGet();
+            }
         }
 
         // Add new items
@@ -98,7 +125,10 @@ public class DiscreteResourceManager extends ResourceManagerBase
         {
             if (!tokenRepository.containsKey(newItem))
             {
-                this.tokenRepository.put(newItem, new Token());
+                Token token = new Token(newItem);
+                this.tokenRepository.put(newItem, token);
+                this.freeTokens.push(token);
+                this.freeCount.incrementAndGet();
             }
         }
 
@@ -119,34 +149,43 @@ public class DiscreteResourceManager extends ResourceManagerBase
             return BookingStatus.BOOKED; // Perf optim.
         }
 
-        Map<String, Token> booked = new HashMap<>();
-        for (Map.Entry<String, Token> e : this.tokenRepository.entrySet())
+        // Reserve the count first.
+        int free;
+        do
         {
-            if (e.getValue().free.compareAndSet(true, false))
+            free = this.freeCount.get();
+            if (free <= 0)
             {
-                booked.put(e.getKey(), e.getValue());
-                e.getValue().jiId = ji.getId();
+                return BookingStatus.EXHAUSTED;
             }
-            if (booked.size() == slots)
+            if (free < slots)
             {
-                break;
+                return BookingStatus.FAILED; // If here there are items available, just not enough.
             }
         }
+        while (!this.freeCount.compareAndSet(free, free - slots));
 
-        if (booked.size() != slots)
+        // Then take the tokens. The count guarantees they are there, unless items were removed by a configuration refresh meanwhile.
+        List<Token> booked = new ArrayList<>(slots);
+        List<String> names = new ArrayList<>(slots);
+        while (booked.size() < slots)
         {
-            // Failure.
-            if (booked.size() > 0)
+            Token token = this.freeTokens.poll();
+            if (token == null)
             {
-                for (Token e : booked.values())
+                for (Token t : booked)
                 {
-                    e.free.set(true);
+                    giveBack(t);
                 }
-                return BookingStatus.FAILED; // If here there are items available, just not enough.
+                this.freeCount.addAndGet(slots - booked.size());
+                return BookingStatus.FAILED;
             }
-            return BookingStatus.EXHAUSTED;
+            booked.add(token);
+            names.add(token.name);
         }
-        ji.addEnvVar(String.format("JQM_RM_DISCRETE_%s_ITEMS", this.key.toUpperCase()), StringUtils.join(booked.keySet(), ","));
+
+        this.bookedTokens.put(ji.getId(), booked);
+        ji.addEnvVar(String.format("JQM_RM_DISCRETE_%s_ITEMS", this.key.toUpperCase()), StringUtils.join(names, ","));
         jqmlogger.debug("Booking {} items for RM {}", booked.size(), this.key);
         return BookingStatus.BOOKED;
     }
@@ -154,30 +193,38 @@ public class DiscreteResourceManager extends ResourceManagerBase
     @Override
     void releaseResource(JobInstance ji)
     {
-        int released = 0;
-        for (Token e : this.tokenRepository.values())
+        List<Token> booked = this.bookedTokens.remove(ji.getId());
+        if (booked == null)
         {
-            if (!e.free.get() && e.jiId == ji.getId())
-            {
-                e.free.set(true);
-                released++;
-            }
+            return;
+        }
+        for (Token token : booked)
+        {
+            giveBack(token);
         }
 
-        jqmlogger.debug("Releasing {} items for RM {}", released, this.key);
+        jqmlogger.debug("Releasing {} items for RM {}", booked.size(), this.key);
     }
 
-    @Override
-    int getSlotsAvailable()
+    private void giveBack(Token token)
     {
-        int availableItems = 0;
-        for (Map.Entry<String, Token> e : this.tokenRepository.entrySet())
+        if (token.removed)
         {
-            if (e.getValue().free.get())
-            {
-                availableItems++;
-            }
+            return;
         }
-        return availableItems / (this.defaultConsumption > 0 ? this.defaultConsumption : 1);
+        this.freeTokens.push(token);
+        this.freeCount.incrementAndGet();
+
+        // The item may have been removed from configuration while being pushed.
+        if (token.removed && this.freeTokens.remove(token))
+        {
+            this.freeCount.decrementAndGet();
+        }
+    }
+
+    @Override
+    int getSlotsAvailable()
+    {
+        return Math.max(this.freeCount.get(), 0) / (this.defaultConsumption > 0 ? this.defaultConsumption : 1);
     }
 }
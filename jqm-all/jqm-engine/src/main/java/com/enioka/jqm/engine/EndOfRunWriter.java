@@ -0,0 +1,201 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.History;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the results of ended job instances (history insert and job instance removal) by batches, inside a single transaction, instead of
+ * one connection and one commit per job instance.<br>
+ * A batch is written when it is full (<code>endOfRunBatchSize</code>) or when its oldest element has waited for
+ * <code>endOfRunBatchPeriodMs</code>. When the queue is full or the writer is stopped, job instances store their results themselves as
+ * before. On database failure, the job instances of the batch go through the usual delayed finalization.
+ */
+class EndOfRunWriter implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(EndOfRunWriter.class);
+
+    private boolean run = true;
+    private JqmEngine engine;
+    private int batchSize;
+    private int period;
+    private BlockingQueue<RunningJobInstance> queue;
+    private CountDownLatch ended = new CountDownLatch(1);
+
+    EndOfRunWriter(JqmEngine e, int batchSize)
+    {
+        this.engine = e;
+        this.batchSize = batchSize;
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            this.period = Integer.parseInt(GlobalParameter.getParameter(cnx, "endOfRunBatchPeriodMs", "100"));
+        }
+        this.queue = new ArrayBlockingQueue<>(batchSize * 10);
+    }
+
+    /**
+     * Add a job instance to the next batch.
+     *
+     * @return false if the job instance was not taken (queue full or writer stopped) and must store its results itself.
+     */
+    synchronized boolean offer(RunningJobInstance rji)
+    {
+        return run && queue.offer(rji);
+    }
+
+    /**
+     * Stops the writer once the job instances already taken are written. Blocks until then.
+     */
+    void stop()
+    {
+        jqmlogger.info("End of run writer has received a stop request");
+        synchronized (this)
+        {
+            this.run = false;
+        }
+        try
+        {
+            ended.await(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean isRunning()
+    {
+        return run;
+    }
+
+    @Override
+    public void run()
+    {
+        Thread.currentThread().setName("END_OF_RUN_WRITER;storing results;");
+        jqmlogger.info("Start of the end of run writer - batches of {} job instances, at least every {} ms", this.batchSize, this.period);
+
+        List<RunningJobInstance> batch = new ArrayList<>(this.batchSize);
+        try
+        {
+            while (isRunning() || !queue.isEmpty())
+            {
+                RunningJobInstance first = queue.poll(this.period, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+
+                // Wait for more job instances, but no more than a period after the first one.
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + this.period;
+                while (batch.size() < this.batchSize)
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    RunningJobInstance rji = remaining > 0 ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (rji == null)
+                    {
+                        break;
+                    }
+                    batch.add(rji);
+                }
+
+                write(batch);
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Do not lose anything: everything left is written synchronously.
+            batch.addAll(queue);
+            queue.clear();
+            write(batch);
+        }
+        finally
+        {
+            ended.countDown();
+        }
+
+        jqmlogger.info("End of run writer has ended");
+    }
+
+    private void write(List<RunningJobInstance> batch)
+    {
+        if (batch.isEmpty())
+        {
+            return;
+        }
+
+        List<Object[]> histories = new ArrayList<>(batch.size());
+        List<Object[]> ids = new ArrayList<>(batch.size());
+        for (RunningJobInstance rji : batch)
+        {
+            histories.add(History.getInsertWithEndDateParameters(rji.getJobInstance(), rji.getResultStatus(), rji.getEndDate()));
+            ids.add(new Object[] { rji.getId() });
+        }
+
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            cnx.runBatchUpdate("history_insert_with_end_date", histories);
+            cnx.runBatchUpdate("ji_delete_by_id", ids);
+            cnx.commit();
+            jqmlogger.trace("Results of {} job instances were stored", batch.size());
+            for (RunningJobInstance rji : batch)
+            {
+                this.engine.signalEndOfRunPersisted(rji.getEndDate());
+            }
+        }
+        catch (RuntimeException e)
+        {
+            if (Helpers.testDbFailure(e))
+            {
+                jqmlogger.error("connection to database lost - " + batch.size() + " loaders will need delayed finalization");
+                jqmlogger.trace("connection error was:", e.getCause());
+                for (RunningJobInstance rji : batch)
+                {
+                    this.engine.loaderFinalizationNeeded(rji);
+                }
+            }
+            else
+            {
+                // Do not let a single faulty job instance prevent the storage of the others.
+                jqmlogger.warn("Could not store a batch of results - results will be stored one by one", e);
+                for (RunningJobInstance rji : batch)
+                {
+                    try
+                    {
+                        rji.endOfRunDb();
+                    }
+                    catch (RuntimeException e2)
+                    {
+                        jqmlogger.error("Could not store the results of job instance " + rji.getId(), e2);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -63,6 +63,9 @@ final class Helpers
     // The one and only Database context in the engine.
     private static Db _db = DbManager.getDb();
 
+    // How long it takes to get a connection from the pool. JVM-wide, like the pool itself.
+    static final LatencyHistogram dbConnectionAcquisitions = new LatencyHistogram();
+
     private Helpers()
     {
 
@@ -75,7 +78,18 @@ final class Helpers
      */
     public static DbConn getNewDbSession()
     {
-        return _db.getConn();
+        long start = System.nanoTime();
+        DbConn res = _db.getConn();
+        dbConnectionAcquisitions.record((System.nanoTime() - start) / 1000000);
+        return res;
+    }
+
+    /**
+     * Closes all the pooled connections to the engine database, as well as the statements they cache. See {@link Db#purgePool()}.
+     */
+    static void purgeDbPool()
+    {
+        _db.purgePool();
     }
 
     public static boolean isDbInitialized()
@@ -1,9 +1,15 @@
 package com.enioka.jqm.engine;
 
 import java.sql.ResultSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
 
+import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.ResourceManager;
@@ -15,19 +21,23 @@ import org.slf4j.LoggerFactory;
  * Highlander is when only a single instance of the same job definition can run at the same time on all queues.<br>
  * The resource is therefore defined here as "a single slot per job definition".<br>
  * <br>
- * This RM does not actually change anything in database - it simply holds a lock during job analysis. To hold this lock it must open a
- * connection of its own - that way locks can be granular. If it used the poller connection instead, locks would only be released when it is
- * committed as it is the only way to release them, and that could cause deadlocks.
+ * The job definitions currently booked or running on this node are known in memory (this set is shared by all the pollers of the node), so
+ * most refusals do not need the database at all. Other nodes are arbitrated with the database lock on the job definition (a convention
+ * between clients and engines), taken on the poller connection. It is not taken by the booking itself but by
+ * {@link #lockBookings(DbConn, Collection)}, which the poller calls just before claiming the job instances which have been booked by all
+ * resource managers, and is released when the poller commits (or undoes) the attribution. This avoids holding one connection per booked
+ * job instance.
  */
 public class HighlanderResourceManager extends ResourceManagerBase
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(HighlanderResourceManager.class);
 
-    private Map<JobInstance, DbConn> openLocks = new HashMap<JobInstance, DbConn>();
+    private Set<Long> runningJobDefs;
 
-    HighlanderResourceManager(ResourceManager rm)
+    HighlanderResourceManager(ResourceManager rm, Set<Long> runningJobDefs)
     {
         super(rm);
+        this.runningJobDefs = runningJobDefs;
     }
 
     @Override
@@ -45,52 +55,82 @@ public class HighlanderResourceManager extends ResourceManagerBase
             // Non-highlander JI do not need anything from this RM.
             return BookingStatus.BOOKED;
         }
-        cnx = Helpers.getNewDbSession();
 
-        // Lock the definition in the DB - this is a convention for highlander JI between clients and engine.
-        jqmlogger.trace("Locking JI ID {} of rank {} - {}", ji.getId(), ji.getInternalPosition(), ji.getJD().getApplicationName());
-        ResultSet rs = cnx.runSelect(true, "jd_select_by_id_lock", ji.getJD().getId());
-
-        // We have the lock. Check if there are already running instances.
-        Integer runningCount = cnx.runSelectSingle("ji_select_existing_highlander_2", Integer.class, ji.getJD().getId());
-        if (runningCount != 0)
+        // Local check. Also protects against JI of the same JD booked by another poller of this node or earlier in the same poll.
+        if (!runningJobDefs.add(ji.getJdId()))
         {
-            // Already running, so skip this JI.
-            cnx.closeQuietly(rs); // release the lock.
-            cnx.rollback();
-            cnx.close();
-            jqmlogger.trace("Resource reservation KO for JI {} - {} - one instance is already running", ji.getId(),
+            jqmlogger.trace("Resource reservation KO for JI {} - {} - one instance is already running or booked on this node", ji.getId(),
                     ji.getJD().getApplicationName());
             return BookingStatus.FAILED;
         }
 
-        // If here, no running instance and lock is held. It will only be released when commit or rollback is called on the connection.
-        jqmlogger.trace("Resourced reserved for JI {} - {}", ji.getId(), ji.getJD().getApplicationName());
-        openLocks.put(ji, cnx);
-        return BookingStatus.BOOKED;
+        // Other nodes. Without lock: it is only a first filter, the check is done again under lock by lockBookings.
+        if (cnx.runSelectSingle("ji_select_existing_highlander_2", Integer.class, ji.getJdId()) == 0)
+        {
+            jqmlogger.trace("Resourced reserved for JI {} - {}", ji.getId(), ji.getJD().getApplicationName());
+            return BookingStatus.BOOKED;
+        }
+
+        runningJobDefs.remove(ji.getJdId());
+        jqmlogger.trace("Resource reservation KO for JI {} - {} - one instance is already running", ji.getId(),
+                ji.getJD().getApplicationName());
+        return BookingStatus.FAILED;
     }
 
-    @Override
-    void rollbackResourceBooking(JobInstance ji, DbConn cnx)
+    /**
+     * Locks the job definitions of the given booked job instances in the database - this is a convention for highlander JI between clients
+     * and engines - then checks again that no other node was faster. Locks are taken in job definition ID order, so that pollers locking
+     * many job definitions inside the same transaction never wait for each other in a cycle. They are released when the poller ends its
+     * transaction.
+     *
+     * @return the job instances which must not run after all. Their bookings are not rolled back by this method.
+     */
+    List<JobInstance> lockBookings(DbConn cnx, Collection<JobInstance> booked)
     {
-        cnx = openLocks.remove(ji);
-        if (cnx != null)
+        List<JobInstance> highlanders = new ArrayList<>();
+        for (JobInstance ji : booked)
         {
-            jqmlogger.trace("Rollbacking resource reservation for JI {} on app {}", ji.getId(), ji.getJD().getApplicationName());
-            cnx.rollback();
-            cnx.close();
+            if (ji.getJD().isHighlander())
+            {
+                highlanders.add(ji);
+            }
+        }
+        if (highlanders.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        highlanders.sort(Comparator.comparingLong(JobInstance::getJdId));
+
+        List<JobInstance> refused = new ArrayList<>();
+        for (JobInstance ji : highlanders)
+        {
+            jqmlogger.trace("Locking JI ID {} of rank {} - {}", ji.getId(), ji.getInternalPosition(), ji.getJD().getApplicationName());
+            try (ResultSet rs = cnx.runSelect(true, "jd_select_by_id_lock", ji.getJdId()))
+            {
+                // Only the lock is needed.
+            }
+            catch (SQLException e)
+            {
+                throw new DatabaseException(e);
+            }
+
+            if (cnx.runSelectSingle("ji_select_existing_highlander_2", Integer.class, ji.getJdId()) != 0)
+            {
+                jqmlogger.trace("Resource reservation KO for JI {} - {} - one instance was started by another node", ji.getId(),
+                        ji.getJD().getApplicationName());
+                refused.add(ji);
+            }
         }
+        return refused;
     }
 
     @Override
-    void commitResourceBooking(JobInstance ji, DbConn cnx)
+    void releaseResource(JobInstance ji)
     {
-        cnx = openLocks.remove(ji);
-        if (cnx != null)
+        // Called both on rollback (the DB lock is released by the poller) and at the end of the run.
+        if (ji.getJD().isHighlander())
         {
-            jqmlogger.trace("Committing resource reservation for JI {} on app {}", ji.getId(), ji.getJD().getApplicationName());
-            cnx.commit();
-            cnx.close();
+            runningJobDefs.remove(ji.getJdId());
         }
     }
 }
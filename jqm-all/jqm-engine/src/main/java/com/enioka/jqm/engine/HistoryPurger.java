@@ -0,0 +1,417 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.engine.api.exceptions.JqmEngineException;
+import com.enioka.jqm.engine.api.exceptions.JqmInitError;
+import com.enioka.jqm.engine.api.jmx.HistoryPurgerMBean;
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameterCache;
+
+/**
+ * The history retention service. It removes the job instances which have ended more than <code>historyRetentionDays</code> days ago from
+ * HISTORY, as well as their messages, deliverables and parameters. Nothing is removed when this parameter is not set.<br>
+ * <br>
+ * It is run by the master scheduler node (see {@link CronScheduler}) following the <code>historyPurgeCron</code> pattern, or on demand
+ * through JMX. Job instances are removed oldest first, by batches of <code>historyPurgeBatchSize</code>, each batch inside its own short
+ * transaction: a purge never holds many locks, never needs a huge rollback segment, and can be interrupted at any time. If
+ * <code>historyArchiveDirectory</code> is set, the removed rows are first appended to gzipped CSV files (one per table and per purge)
+ * inside this directory.<br>
+ * Files (logs, deliverables) are not removed, as they are stored on the nodes which have run the job instances.
+ */
+class HistoryPurger implements HistoryPurgerMBean
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(HistoryPurger.class);
+
+    private JqmEngine engine;
+    private ObjectName name = null;
+
+    private AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean stopRequested = false;
+
+    private volatile Date lastRunStart = null;
+    private volatile long lastRunDuration = 0;
+    private volatile long purgeableAtStart = 0;
+    private volatile long purgedLastRun = 0;
+    private AtomicLong purgedTotal = new AtomicLong(0);
+    private volatile String lastRunResult = "NEVER RUN";
+
+    HistoryPurger(JqmEngine engine)
+    {
+        this.engine = engine;
+
+        if (this.engine.loadJmxBeans)
+        {
+            try
+            {
+                MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                name = new ObjectName("com.enioka.jqm:type=Node.HistoryPurger,Node=" + this.engine.getNode().getName());
+                mbs.registerMBean(this, name);
+            }
+            catch (Exception e)
+            {
+                throw new JqmInitError("Could not create JMX beans", e);
+            }
+        }
+    }
+
+    void unregister()
+    {
+        if (name != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            catch (Exception e)
+            {
+                jqmlogger.error("Could not unregister JMX beans", e);
+            }
+            name = null;
+        }
+    }
+
+    /**
+     * Runs a purge inside the calling thread. Does nothing if a purge is already running.
+     */
+    void runPurge()
+    {
+        if (reserve())
+        {
+            purgeReserved();
+        }
+    }
+
+    private boolean reserve()
+    {
+        if (!running.compareAndSet(false, true))
+        {
+            jqmlogger.info("History purge is already running - no new purge is started");
+            return false;
+        }
+        return true;
+    }
+
+    private void purgeReserved()
+    {
+        this.stopRequested = false;
+        this.lastRunStart = new Date();
+        this.purgedLastRun = 0;
+        this.purgeableAtStart = 0;
+        long start = System.currentTimeMillis();
+        try
+        {
+            this.lastRunResult = doPurge();
+        }
+        catch (RuntimeException e)
+        {
+            jqmlogger.error("History purge has failed", e);
+            this.lastRunResult = "FAILED: " + e.getMessage();
+        }
+        finally
+        {
+            this.lastRunDuration = System.currentTimeMillis() - start;
+            running.set(false);
+        }
+    }
+
+    private String doPurge()
+    {
+        int retentionDays;
+        int batchSize;
+        String archiveDirectory;
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            retentionDays = Integer.parseInt(GlobalParameterCache.getParameter(cnx, "historyRetentionDays", "0"));
+            batchSize = Math.max(Integer.parseInt(GlobalParameterCache.getParameter(cnx, "historyPurgeBatchSize", "1000")), 1);
+            archiveDirectory = GlobalParameterCache.getParameter(cnx, "historyArchiveDirectory", "");
+        }
+        if (retentionDays <= 0)
+        {
+            jqmlogger.debug("History purge is disabled as historyRetentionDays is not set");
+            return "DISABLED";
+        }
+
+        Calendar limit = Calendar.getInstance();
+        limit.add(Calendar.DAY_OF_YEAR, -retentionDays);
+
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            this.purgeableAtStart = cnx.runSelectSingle("history_select_count_ended_before", Long.class, limit);
+        }
+        jqmlogger.info("Starting history purge of job instances ended before {} - {} job instances to remove by batches of {}",
+                limit.getTime(), this.purgeableAtStart, batchSize);
+
+        try (Archive archive = archiveDirectory == null || archiveDirectory.isEmpty() ? null : new Archive(new File(archiveDirectory)))
+        {
+            while (!stopRequested)
+            {
+                try (DbConn cnx = Helpers.getNewDbSession())
+                {
+                    // Oldest first, using the DATE_END index. A bounded batch is the only thing ever read or deleted.
+                    List<Long> ids = new ArrayList<>(batchSize);
+                    try (ResultSet rs = cnx.runSelectPaginated("history_select_id_ended_before", 0, batchSize, limit))
+                    {
+                        while (rs.next())
+                        {
+                            ids.add(rs.getLong(1));
+                        }
+                    }
+                    if (ids.isEmpty())
+                    {
+                        break;
+                    }
+
+                    if (archive != null)
+                    {
+                        archive.write(cnx, ids);
+                    }
+
+                    cnx.runUpdate("message_delete_by_ji_list", ids);
+                    cnx.runUpdate("deliverable_delete_by_ji_list", ids);
+                    cnx.runUpdate("jiprm_delete_by_ji_list", ids);
+                    cnx.runUpdate("history_delete_by_id_list", ids);
+                    cnx.commit();
+
+                    this.purgedLastRun += ids.size();
+                    this.purgedTotal.addAndGet(ids.size());
+                    jqmlogger.debug("History purge has removed {} job instances out of {}", this.purgedLastRun, this.purgeableAtStart);
+
+                    if (ids.size() < batchSize)
+                    {
+                        break;
+                    }
+                }
+                catch (SQLException e)
+                {
+                    throw new DatabaseException(e);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new JqmEngineException("Could not write history archive inside " + archiveDirectory, e);
+        }
+
+        jqmlogger.info("History purge has removed {} job instances{}", this.purgedLastRun, stopRequested ? " before being stopped" : "");
+        return stopRequested ? "STOPPED" : "OK";
+    }
+
+    /**
+     * Gzipped CSV files, one per table, with a header line made from the column names. A file is never overwritten: if a purge of the same
+     * second (on another node sharing the directory) already has created it, a suffix is added. Each batch is flushed through the
+     * compressor and synced to disk before its rows are deleted.
+     */
+    private static class Archive implements Closeable
+    {
+        private static final String[][] TABLES = { { "HISTORY", "history_select_archive_by_id_list" },
+                { "MESSAGE", "message_select_archive_by_ji_list" }, { "DELIVERABLE", "deliverable_select_archive_by_ji_list" },
+                { "JOB_INSTANCE_PARAMETER", "jiprm_select_archive_by_ji_list" } };
+
+        private File directory;
+        private String stamp;
+        private Map<String, Writer> writers = new HashMap<>();
+        private List<FileChannel> files = new ArrayList<>();
+
+        private Archive(File directory) throws IOException
+        {
+            if (!directory.isDirectory() && !directory.mkdirs())
+            {
+                throw new IOException("Could not create directory " + directory.getAbsolutePath());
+            }
+            this.directory = directory;
+            this.stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        }
+
+        private void write(DbConn cnx, List<Long> ids) throws IOException, SQLException
+        {
+            for (String[] table : TABLES)
+            {
+                try (ResultSet rs = cnx.runSelect(table[1], ids))
+                {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    Writer w = writers.get(table[0]);
+                    if (w == null)
+                    {
+                        FileChannel file = create(table[0].toLowerCase());
+                        files.add(file);
+                        w = new OutputStreamWriter(new GZIPOutputStream(Channels.newOutputStream(file), true), StandardCharsets.UTF_8);
+                        writers.put(table[0], w);
+                        for (int i = 1; i <= meta.getColumnCount(); i++)
+                        {
+                            w.write((i > 1 ? "," : "") + meta.getColumnName(i));
+                        }
+                        w.write("\n");
+                    }
+
+                    while (rs.next())
+                    {
+                        for (int i = 1; i <= meta.getColumnCount(); i++)
+                        {
+                            w.write((i > 1 ? "," : "") + csv(rs.getString(i)));
+                        }
+                        w.write("\n");
+                    }
+                }
+            }
+
+            // Rows must be safely stored before being deleted: sync flush of the compressor, then of the OS cache.
+            for (Writer w : writers.values())
+            {
+                w.flush();
+            }
+            for (FileChannel file : files)
+            {
+                file.force(false);
+            }
+        }
+
+        private FileChannel create(String prefix) throws IOException
+        {
+            for (int i = 0;; i++)
+            {
+                File f = new File(directory, prefix + "." + stamp + (i == 0 ? "" : "-" + i) + ".csv.gz");
+                try
+                {
+                    return FileChannel.open(f.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                }
+                catch (FileAlreadyExistsException e)
+                {
+                    // Try the next suffix.
+                }
+            }
+        }
+
+        private static String csv(String value)
+        {
+            if (value == null)
+            {
+                return "";
+            }
+            if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r"))
+            {
+                return "\"" + value.replace("\"", "\"\"") + "\"";
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (Writer w : writers.values())
+            {
+                w.close();
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // JMX
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public boolean isRunning()
+    {
+        return running.get();
+    }
+
+    @Override
+    public Date getLastRunStartDate()
+    {
+        return lastRunStart;
+    }
+
+    @Override
+    public long getLastRunDurationMilliseconds()
+    {
+        return lastRunDuration;
+    }
+
+    @Override
+    public long getPurgeableCountAtLastRunStart()
+    {
+        return purgeableAtStart;
+    }
+
+    @Override
+    public long getPurgedCountLastRun()
+    {
+        return purgedLastRun;
+    }
+
+    @Override
+    public long getPurgedCountTotal()
+    {
+        return purgedTotal.get();
+    }
+
+    @Override
+    public String getLastRunResult()
+    {
+        return lastRunResult;
+    }
+
+    @Override
+    public void purge()
+    {
+        // Reserved before returning, so that isRunning is true as soon as this method returns.
+        if (!reserve())
+        {
+            return;
+        }
+        Thread t = new Thread(this::purgeReserved, "HISTORY_PURGER;on demand;");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public void stop()
+    {
+        this.stopRequested = true;
+    }
+}
@@ -18,15 +18,20 @@ package com.enioka.jqm.engine;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.Objects;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import javax.naming.InitialContext;
+
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.NoResultException;
 import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.GlobalParameterCache;
 import com.enioka.jqm.model.Instruction;
 import com.enioka.jqm.model.Node;
+import com.enioka.jqm.model.QueueEvents;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,14 +39,20 @@ import org.slf4j.LoggerFactory;
 /**
  * The internal poller is responsible for doing all the repetitive tasks of an engine (excluding polling queues). Namely: check if
  * {@link Node#isStop()} has become true (stop order) and update {@link Node#setLastSeenAlive(java.util.Calendar)} to make visible to the
- * whole cluster that the engine is still alive and that no other engine should start with the same node name.
+ * whole cluster that the engine is still alive and that no other engine should start with the same node name.<br>
+ * Between these loops, it also checks every <code>configCheckPeriodMs</code> if global parameters or the deployment parameters of
+ * the node have changed (a single cheap query) and if so refreshes the {@link GlobalParameterCache} and the queue pollers, which therefore
+ * never have to query their configuration themselves.
  */
-class InternalPoller implements Runnable
+class InternalPoller implements Runnable, QueueEvents.Listener
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(InternalPoller.class);
     private boolean run = true;
     private JqmEngine engine = null;
     private long step;
+    private long configurationStep;
+    private volatile boolean fullLoopRequested = false;
+    private String globalParameterVersion = null, deploymentParameterVersion = null;
     private Node node = null;
     private Semaphore loop = new Semaphore(0);
 
@@ -53,6 +64,11 @@ class InternalPoller implements Runnable
         // Get configuration data
         this.node = this.engine.getNode();
         this.step = Long.parseLong(GlobalParameter.getParameter(cnx, "internalPollingPeriodMs", "60000"));
+        this.configurationStep = Long.parseLong(GlobalParameter.getParameter(cnx, "configCheckPeriodMs", "1000"));
+        if (this.configurationStep <= 0 || this.configurationStep > this.step)
+        {
+            this.configurationStep = this.step;
+        }
         cnx.close();
     }
 
@@ -60,27 +76,82 @@ class InternalPoller implements Runnable
     {
         jqmlogger.info("Internal poller has received a stop request");
         this.run = false;
+        QueueEvents.removeListener(this);
         forceLoop();
     }
 
     void forceLoop()
     {
+        this.fullLoopRequested = true;
         this.loop.release(1);
     }
 
+    @Override
+    public void configurationChanged()
+    {
+        // Only a configuration check - not a full loop.
+        if (this.loop.availablePermits() == 0)
+        {
+            this.loop.release(1);
+        }
+    }
+
+    /**
+     * The cheap part of the loop: a single query returning the version of the configuration, and a refresh of what has changed.
+     */
+    private void checkConfiguration(DbConn cnx)
+    {
+        String newGpVersion = null, newDpVersion = null;
+        try (ResultSet rs = cnx.runSelect("config_select_version", node.getId()))
+        {
+            while (rs.next())
+            {
+                String version = rs.getLong(2) + "/" + rs.getTimestamp(3);
+                if (rs.getInt(1) == 1)
+                {
+                    newGpVersion = version;
+                }
+                else
+                {
+                    newDpVersion = version;
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+
+        if (!Objects.equals(newGpVersion, this.globalParameterVersion))
+        {
+            jqmlogger.debug("Global parameters have changed - reloading them");
+            GlobalParameterCache.reload(cnx);
+            this.globalParameterVersion = newGpVersion;
+        }
+        if (!Objects.equals(newDpVersion, this.deploymentParameterVersion))
+        {
+            jqmlogger.debug("Deployment parameters have changed - updating queue pollers");
+            this.engine.syncPollers(cnx, node);
+            this.deploymentParameterVersion = newDpVersion;
+        }
+    }
+
     @Override
     public void run()
     {
         Thread.currentThread().setName("INTERNAL_POLLER;polling orders;");
         jqmlogger.info("Start of the internal poller");
         Calendar lastJndiPurge = Calendar.getInstance();
+        long lastFullLoop = System.currentTimeMillis();
+        QueueEvents.addListener(this);
 
         // Launch main loop
         while (true)
         {
             try
             {
-                loop.tryAcquire(this.step, TimeUnit.MILLISECONDS);
+                long toFullLoop = Math.max(lastFullLoop + this.step - System.currentTimeMillis(), 0);
+                loop.tryAcquire(Math.min(toFullLoop, this.configurationStep), TimeUnit.MILLISECONDS);
             }
             catch (InterruptedException e)
             {
@@ -94,6 +165,15 @@ class InternalPoller implements Runnable
             // Get session
             try (DbConn cnx = Helpers.getNewDbSession())
             {
+                // Between full loops, only check the configuration.
+                if (!this.fullLoopRequested && System.currentTimeMillis() - lastFullLoop < this.step)
+                {
+                    checkConfiguration(cnx);
+                    continue;
+                }
+                this.fullLoopRequested = false;
+                lastFullLoop = System.currentTimeMillis();
+
                 // Check if stop order
                 try
                 {
@@ -123,18 +203,19 @@ class InternalPoller implements Runnable
                 cnx.runUpdate("node_update_alive_by_id", node.getId());
                 cnx.commit();
 
-                // Have queue bindings changed, or is engine disabled?
+                // Have queue bindings changed, or is engine disabled? Also reload parameters even if their version seems unchanged (safety
+                // net for modifications committed with an older timestamp than the last check).
                 this.engine.syncPollers(cnx, node);
+                GlobalParameterCache.reload(cnx);
 
-                // Should JNDI cache be purged?
+                // Should JNDI cache be purged? (resource definitions, as well as singletons created from a changed definition)
                 Calendar bflkpm = Calendar.getInstance();
                 int i = cnx.runSelectSingle("jndi_select_count_changed", Integer.class, lastJndiPurge, lastJndiPurge);
                 if (i > 0L)
                 {
                     try
                     {
-                        // TODO: actually use a signal instead.
-                        // ((JndiContext) NamingManager.getInitialContext(null)).resetSingletons();
+                        InitialContext.doLookup("internal://refresh");
                         lastJndiPurge = bflkpm;
                     }
                     catch (Exception e)
@@ -191,6 +272,7 @@ class InternalPoller implements Runnable
             }
         }
 
+        QueueEvents.removeListener(this);
         jqmlogger.info("End of the internal poller");
     }
 }
@@ -2,9 +2,14 @@ package com.enioka.jqm.engine;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.NamingException;
 import javax.naming.spi.NamingManager;
@@ -23,7 +28,7 @@ import com.enioka.jqm.client.api.JqmDbClientFactory;
 import com.enioka.jqm.client.api.Query;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.NoResultException;
-import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.GlobalParameterCache;
 import com.enioka.jqm.model.Instruction;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.Message;
@@ -35,15 +40,32 @@ import com.enioka.jqm.shared.misc.Closer;
 /**
  * For each running job instance, JQM has a callback interface {@link JobManager} allowing the JI to call some JQM APIs without the need of
  * the full client library. This is the implementation behind the interface. The different runners may choose to expose this interface or
- * not. There is one instance per running JI. Also, this is here that messages sent to the running JI are checked.
+ * not. There is one instance per running JI. Also, this is here that messages sent to the running JI are checked.<br>
+ * <br>
+ * Messages and progress are not written at once: payloads calling these methods in a tight loop would otherwise cause a commit per call.
+ * A call made more than <code>payloadApiFlushPeriodMs</code> after the previous write is written at once, in the calling thread. Other
+ * calls are kept in memory (all the messages, only the last progress) and written together, inside a single transaction, by a shared
+ * flusher thread at the end of the period. Everything is written before the history of the JI is created (see {@link #flush()}).
  */
 class JobInstanceEngineApi implements JobManager
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(JobInstanceEngineApi.class);
 
+    private static ScheduledExecutorService flusher = null;
+
     private JobInstance ji;
     private Calendar lastPeek = null;
 
+    // Pending writes. Guarded by this.
+    private List<String> pendingMessages = new ArrayList<>();
+    private Integer pendingProgress = null;
+    private boolean flushScheduled = false;
+    private long lastFlush = 0;
+    private int flushPeriodMs = -1;
+
+    // Writes are done one at a time so that messages keep their order.
+    private final Object flushLock = new Object();
+
     JobInstanceEngineApi(JobInstance ji)
     {
         this.ji = ji;
@@ -63,11 +85,11 @@ class JobInstanceEngineApi implements JobManager
     @Override
     public void sendMsg(String msg)
     {
-        try (DbConn cnx = Helpers.getNewDbSession())
+        synchronized (this)
         {
-            Message.create(cnx, msg, ji.getId());
-            cnx.commit();
+            pendingMessages.add(msg);
         }
+        requestFlush();
     }
 
     /**
@@ -79,12 +101,12 @@ class JobInstanceEngineApi implements JobManager
     @Override
     public void sendProgress(Integer msg)
     {
-        try (DbConn cnx = Helpers.getNewDbSession())
+        this.ji.setProgress(msg); // Used by the history, and useful to the Loader.
+        synchronized (this)
         {
-            this.ji.setProgress(msg); // Not persisted, but useful to the Loader.
-            cnx.runUpdate("jj_update_progress_by_id", msg, ji.getId());
-            cnx.commit();
+            pendingProgress = msg; // Only the last value matters.
         }
+        requestFlush();
     }
 
     @Override
@@ -208,7 +230,7 @@ class JobInstanceEngineApi implements JobManager
     {
         try (DbConn cnx = Helpers.getNewDbSession())
         {
-            return GlobalParameter.getParameter(cnx, "defaultConnection", null);
+            return GlobalParameterCache.getParameter(cnx, "defaultConnection", null);
         }
     }
 
@@ -267,6 +289,132 @@ class JobInstanceEngineApi implements JobManager
         handleInstructions();
     }
 
+    ///////////////////////////////////////////////////////////////////////////
+    // Coalesced writes
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Write pending messages and progress at once if the previous write is old enough, or make sure a write is scheduled otherwise.
+     */
+    private void requestFlush()
+    {
+        long wait;
+        synchronized (this)
+        {
+            if (flushPeriodMs < 0)
+            {
+                try (DbConn cnx = Helpers.getNewDbSession())
+                {
+                    flushPeriodMs = Integer.parseInt(GlobalParameterCache.getParameter(cnx, "payloadApiFlushPeriodMs", "1000"));
+                }
+            }
+            if (flushScheduled)
+            {
+                return;
+            }
+            wait = lastFlush + flushPeriodMs - System.currentTimeMillis();
+            if (wait > 0)
+            {
+                flushScheduled = true;
+            }
+        }
+
+        if (wait <= 0)
+        {
+            flush();
+        }
+        else
+        {
+            getFlusher().schedule(this::flushQuietly, wait, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all pending messages and progress inside a single transaction. Called by the engine before creating the history of the JI.
+     */
+    void flush()
+    {
+        synchronized (flushLock)
+        {
+            List<String> messages;
+            Integer progress;
+            synchronized (this)
+            {
+                messages = pendingMessages;
+                progress = pendingProgress;
+                pendingMessages = new ArrayList<>();
+                pendingProgress = null;
+                flushScheduled = false;
+                lastFlush = System.currentTimeMillis();
+            }
+            if (messages.isEmpty() && progress == null)
+            {
+                return;
+            }
+
+            try (DbConn cnx = Helpers.getNewDbSession())
+            {
+                if (messages.size() == 1)
+                {
+                    Message.create(cnx, messages.get(0), ji.getId());
+                }
+                else if (!messages.isEmpty())
+                {
+                    List<Object[]> rows = new ArrayList<>(messages.size());
+                    for (String msg : messages)
+                    {
+                        rows.add(new Object[] { ji.getId(), msg });
+                    }
+                    cnx.runBatchUpdate("message_insert", rows);
+                }
+                if (progress != null)
+                {
+                    cnx.runUpdate("jj_update_progress_by_id", progress, ji.getId());
+                }
+                cnx.commit();
+            }
+            catch (RuntimeException e)
+            {
+                // Keep everything for the next write - which will at least happen at the end of the run.
+                synchronized (this)
+                {
+                    messages.addAll(pendingMessages);
+                    pendingMessages = messages;
+                    if (pendingProgress == null)
+                    {
+                        pendingProgress = progress;
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void flushQuietly()
+    {
+        try
+        {
+            flush();
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Could not write messages or progress of job instance " + ji.getId() + " - will retry later", e);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getFlusher()
+    {
+        if (flusher == null)
+        {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "PAYLOAD_API_FLUSHER;");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return flusher;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // Helper methods
     ///////////////////////////////////////////////////////////////////////////
@@ -26,9 +26,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -50,6 +51,7 @@ import com.enioka.jqm.jdbc.NoResultException;
 import com.enioka.jqm.jdbc.QueryResult;
 import com.enioka.jqm.model.DeploymentParameter;
 import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.GlobalParameterCache;
 import com.enioka.jqm.model.History;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.Message;
@@ -88,12 +90,18 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
     private InternalPoller intPoller = null;
     private Thread intPollerThread = null;
     private CronScheduler scheduler = null;
+    private QueueWatcher queueWatcher = null;
+    private EndOfRunWriter endOfRunWriter = null;
+    private Set<Long> runningHighlanders = ConcurrentHashMap.newKeySet();
 
     // Misc data
     private Calendar startTime = Calendar.getInstance();
     private Thread killHook = null;
     boolean loadJmxBeans = true;
-    private AtomicLong endedInstances = new AtomicLong(0);
+    private ThroughputMeter endedMeter = new ThroughputMeter();
+    private LatencyHistogram waitTimes = new LatencyHistogram();
+    private LatencyHistogram runTimes = new LatencyHistogram();
+    private LatencyHistogram endOfRunPersistence = new LatencyHistogram();
     private RunnerManager runnerManager;
     private RunningJobInstanceManager runningJobInstanceManager;
     private List<ResourceManagerBase> resourceManagers = new ArrayList<>();
@@ -134,6 +142,26 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         jqmlogger.info("Java version is " + System.getProperty("java.version") + ". JVM was made by " + System.getProperty("java.vendor")
                 + " as " + System.getProperty("java.vm.name") + " version " + System.getProperty("java.vm.version"));
 
+        // Standalone sequence reinit. First, in its own session, as it is a schema change which invalidates the prepared statements of all
+        // sessions on some databases.
+        final boolean standaloneMode;
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            standaloneMode = Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "wsStandaloneMode", "false"));
+            if (standaloneMode)
+            {
+                final var localIp = StandaloneHelpers.getLocalIpAddress();
+                var idStart = idSequenceBaseFromIp(localIp);
+                jqmlogger.info("Running in standalone (no shared database) mode with local seed {} - starting IDs at {}", localIp);
+                cnx.runRawUpdate("ALTER SEQUENCE JQM_PK RESTART WITH " + idStart);
+                cnx.commit();
+            }
+        }
+        if (standaloneMode)
+        {
+            Helpers.purgeDbPool();
+        }
+
         // Database connection
         try (DbConn cnx = Helpers.getNewDbSession())
         {
@@ -236,24 +264,32 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
             cleanupTransientNodes(cnx);
 
             // Runners
-            runningJobInstanceManager = new RunningJobInstanceManager();
+            runningJobInstanceManager = new RunningJobInstanceManager(cnx);
             runnerManager = new RunnerManager(cnx);
 
             // Resource managers
             initResourceManagers(cnx);
 
+            // End of run writer (must exist before the first JI ends)
+            int endOfRunBatchSize = Integer.parseInt(GlobalParameter.getParameter(cnx, "endOfRunBatchSize", "50"));
+            if (endOfRunBatchSize > 1)
+            {
+                endOfRunWriter = new EndOfRunWriter(this, endOfRunBatchSize);
+                (new Thread(endOfRunWriter)).start();
+            }
+
+            // Parameters are read from memory from now on (kept up to date by the internal poller)
+            GlobalParameterCache.acquire(cnx);
+
             // Pollers
             syncPollers(cnx, this.node);
             jqmlogger.info("All required queues are now polled");
 
-            // Standalone sequence reinit
-            final var standaloneMode = Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "wsStandaloneMode", "false"));
-            if (standaloneMode)
+            // Queue watcher (wakes up pollers when new JI are submitted)
+            if (Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "wakeUpOnEnqueue", "true")))
             {
-                final var localIp = StandaloneHelpers.getLocalIpAddress();
-                var idStart = idSequenceBaseFromIp(localIp);
-                jqmlogger.info("Running in standalone (no shared database) mode with local seed {} - starting IDs at {}", localIp);
-                cnx.runRawUpdate("ALTER SEQUENCE JQM_PK RESTART WITH " + idStart);
+                queueWatcher = new QueueWatcher(this);
+                (new Thread(queueWatcher)).start();
             }
         }
 
@@ -381,7 +417,8 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
             {
                 if (pollers.containsKey(i.getId()))
                 {
-                    // Nothing to do - the poller updates its own parameters. Just tell it the node is enabled (idempotent)
+                    // Give the poller its latest parameters (applied on its next loop) and tell it the node is enabled (idempotent)
+                    pollers.get(i.getId()).setDeploymentParameter(i);
                     pollers.get(i.getId()).resume();
                 }
                 else
@@ -423,6 +460,20 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         }
     }
 
+    /**
+     * Wakes up all the pollers of a queue (if any on this node).
+     */
+    synchronized void wakeUpPollers(long queueId)
+    {
+        for (QueuePoller p : pollers.values())
+        {
+            if (p.getQueue().getId() == queueId)
+            {
+                p.wakeUp();
+            }
+        }
+    }
+
     private void initResourceManagers(DbConn cnx)
     {
         jqmlogger.info("Initializing node-level resource managers");
@@ -482,6 +533,16 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
 
         // Also stop the internal poller
         this.intPoller.stop();
+        GlobalParameterCache.release();
+        if (this.queueWatcher != null)
+        {
+            this.queueWatcher.stop();
+        }
+        this.runningJobInstanceManager.stop();
+        if (this.endOfRunWriter != null)
+        {
+            this.endOfRunWriter.stop();
+        }
 
         // Reset the stop counter - we may want to restart one day
         try (DbConn cnx = Helpers.getNewDbSession())
@@ -731,9 +792,44 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         qpRestarter.start();
     }
 
-    void signalEndOfRun()
+    /**
+     * Called by the pollers each time a job instance ends.
+     *
+     * @param runTimeMs
+     *            how long it has run, or a negative value if unknown.
+     */
+    void signalEndOfRun(long runTimeMs)
+    {
+        this.endedMeter.mark();
+        if (runTimeMs >= 0)
+        {
+            this.runTimes.record(runTimeMs);
+        }
+    }
+
+    /**
+     * Called each time the results of a job instance have been committed to the database.
+     *
+     * @param endDate
+     *            when the job instance has ended.
+     */
+    void signalEndOfRunPersisted(Calendar endDate)
     {
-        this.endedInstances.incrementAndGet();
+        if (endDate != null)
+        {
+            this.endOfRunPersistence.record(System.currentTimeMillis() - endDate.getTimeInMillis());
+        }
+    }
+
+    /**
+     * Called by the pollers each time a job instance is launched.
+     *
+     * @param waitTimeMs
+     *            time elapsed since it was enqueued.
+     */
+    void signalLaunch(long waitTimeMs)
+    {
+        this.waitTimes.record(waitTimeMs);
     }
 
     JqmEngineHandler getHandler()
@@ -751,6 +847,19 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         return this.runningJobInstanceManager;
     }
 
+    EndOfRunWriter getEndOfRunWriter()
+    {
+        return this.endOfRunWriter;
+    }
+
+    /**
+     * The IDs of the highlander job definitions which have an instance booked or running on this node.
+     */
+    Set<Long> getRunningHighlanders()
+    {
+        return this.runningHighlanders;
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // JMX stat methods (they get their own connection to be thread safe)
     ////////////////////////////////////////////////////////////////////////////
@@ -758,7 +867,61 @@ public class JqmEngine implements JqmEngineMBean, JqmEngineOperations
     @Override
     public long getCumulativeJobInstancesCount()
     {
-        return this.endedInstances.get();
+        return this.endedMeter.getCount();
+    }
+
+    @Override
+    public float getJobsFinishedPerSecondLastMinute()
+    {
+        return this.endedMeter.getRatePerSecond();
+    }
+
+    @Override
+    public long getMeanWaitTimeMilliseconds()
+    {
+        return this.waitTimes.getMeanMilliseconds();
+    }
+
+    @Override
+    public long getWaitTime95thPercentileMilliseconds()
+    {
+        return this.waitTimes.getPercentileMilliseconds(95);
+    }
+
+    @Override
+    public long getMeanRunTimeMilliseconds()
+    {
+        return this.runTimes.getMeanMilliseconds();
+    }
+
+    @Override
+    public long getRunTime95thPercentileMilliseconds()
+    {
+        return this.runTimes.getPercentileMilliseconds(95);
+    }
+
+    @Override
+    public Map<String, Long> getWaitTimeHistogram()
+    {
+        return this.waitTimes.getCumulativeCounts();
+    }
+
+    @Override
+    public Map<String, Long> getRunTimeHistogram()
+    {
+        return this.runTimes.getCumulativeCounts();
+    }
+
+    @Override
+    public Map<String, Long> getEndOfRunPersistenceHistogram()
+    {
+        return this.endOfRunPersistence.getCumulativeCounts();
+    }
+
+    @Override
+    public Map<String, Long> getDbConnectionAcquisitionHistogram()
+    {
+        return Helpers.dbConnectionAcquisitions.getCumulativeCounts();
     }
 
     @Override
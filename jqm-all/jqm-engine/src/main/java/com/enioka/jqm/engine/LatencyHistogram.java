@@ -0,0 +1,121 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations, using fixed buckets ranging from 1ms to one hour. Percentiles are therefore approximations: they
+ * are given as the upper bound of the bucket containing them.
+ */
+class LatencyHistogram
+{
+    /**
+     * Upper bounds (inclusive) of the buckets, in milliseconds. There is a last implicit bucket for everything above.
+     */
+    static final long[] BOUNDS_MS = { 1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 30000, 60000, 300000, 900000, 3600000 };
+
+    private final LongAdder[] counts = new LongAdder[BOUNDS_MS.length + 1];
+    private final LongAdder sum = new LongAdder();
+    private final LongAdder count = new LongAdder();
+
+    LatencyHistogram()
+    {
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void record(long durationMs)
+    {
+        long d = Math.max(durationMs, 0);
+        int i = 0;
+        while (i < BOUNDS_MS.length && d > BOUNDS_MS[i])
+        {
+            i++;
+        }
+        counts[i].increment();
+        sum.add(d);
+        count.increment();
+    }
+
+    long getCount()
+    {
+        return count.sum();
+    }
+
+    long getSumMilliseconds()
+    {
+        return sum.sum();
+    }
+
+    long getMeanMilliseconds()
+    {
+        long c = count.sum();
+        return c == 0 ? 0 : sum.sum() / c;
+    }
+
+    /**
+     * The upper bound of the bucket containing the given percentile (0-100). -1 if it is above the last bound, 0 if nothing was recorded.
+     */
+    long getPercentileMilliseconds(double percentile)
+    {
+        long[] snapshot = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++)
+        {
+            seen += snapshot[i];
+            if (seen >= rank)
+            {
+                return BOUNDS_MS[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Cumulative counts per bucket upper bound in milliseconds (the "+Inf" key is the total count), as well as the sum of all durations in
+     * milliseconds ("sum" key). This is the shape of an OpenMetrics histogram.
+     */
+    Map<String, Long> getCumulativeCounts()
+    {
+        Map<String, Long> res = new LinkedHashMap<>();
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++)
+        {
+            seen += counts[i].sum();
+            res.put(String.valueOf(BOUNDS_MS[i]), seen);
+        }
+        res.put("+Inf", seen + counts[BOUNDS_MS.length].sum());
+        res.put("sum", sum.sum());
+        return res;
+    }
+}
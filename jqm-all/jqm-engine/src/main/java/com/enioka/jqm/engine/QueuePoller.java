@@ -18,27 +18,36 @@
 
 package com.enioka.jqm.engine;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.sql.Savepoint;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
 import com.enioka.jqm.engine.api.exceptions.JqmInitError;
+import com.enioka.jqm.engine.ResourceManagerBase.BookingStatus;
 import com.enioka.jqm.engine.api.jmx.QueuePollerMBean;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.QueryResult;
 import com.enioka.jqm.model.DeploymentParameter;
-import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.GlobalParameterCache;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.Queue;
 import com.enioka.jqm.model.ResourceManager;
@@ -61,7 +70,11 @@ class QueuePoller implements Runnable, QueuePollerMBean
     private boolean paused = false;
     private int pollingInterval = 10000;
     private long dpId;
+    private volatile DeploymentParameter deploymentParameter;
     private boolean strictPollingPeriod = false;
+    private boolean batchedAttribution = false;
+    private int prefetchSize = 0;
+    private String prefetchSizeParameter = "0";
 
     private boolean run = true;
     private AtomicInteger actualNbThread = new AtomicInteger(0);
@@ -69,9 +82,28 @@ class QueuePoller implements Runnable, QueuePollerMBean
     private Calendar lastLoop = null;
     private Map<Long, Date> peremption = new ConcurrentHashMap<Long, Date>();
 
+    // Prefetched queue head, only used by the poller thread.
+    private List<JobInstance> buffer = new ArrayList<>();
+    private long bufferDate = 0;
+    private volatile boolean bufferRefillRequested = false;
+
+    // Statistics, kept in memory so that monitoring never needs to query the history.
+    private ThroughputMeter endedMeter = new ThroughputMeter();
+    private LatencyHistogram waitTimes = new LatencyHistogram();
+    private LatencyHistogram runTimes = new LatencyHistogram();
+    private LatencyHistogram pollDurations = new LatencyHistogram();
+    private LongAdder pollLoops = new LongAdder();
+    private LongAdder attributedCount = new LongAdder();
+    private volatile int lastAttributionBatchSize = 0;
+    private int loopAttributed = 0; // Only used by the poller thread.
+
     private List<ResourceManagerBase> resourceManagers = new ArrayList<>();
+    private HighlanderResourceManager highlanderResourceManager;
     private ResourceManager threadresourceManagerConfiguration;
 
+    private static final int IN_CLAUSE_LIMIT = 500;
+    private static final int PRM_PREFETCH_SIZE = 50;
+
     private ObjectName name = null;
 
     private Thread localThread = null;
@@ -98,6 +130,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
         run = true;
         lastLoop = null;
         loop = new Semaphore(0);
+        buffer.clear();
     }
 
     QueuePoller(JqmEngine engine, Queue q, DeploymentParameter dp)
@@ -123,15 +156,23 @@ class QueuePoller implements Runnable, QueuePollerMBean
         highlanderResourceManagerConfiguration.setEnabled(true);
         highlanderResourceManagerConfiguration.setKey("highlander");
         highlanderResourceManagerConfiguration.setNodeId(null);
-        HighlanderResourceManager highlanderResourceManager = new HighlanderResourceManager(highlanderResourceManagerConfiguration);
-        this.resourceManagers.add(highlanderResourceManager);
+        this.highlanderResourceManager = new HighlanderResourceManager(highlanderResourceManagerConfiguration,
+                engine.getRunningHighlanders());
+        this.resourceManagers.add(this.highlanderResourceManager);
 
         // Add global resource managers
         this.resourceManagers.addAll(engine.getResourceManagers());
 
         // Synchronize parameters
+        this.deploymentParameter = dp;
         applyDeploymentParameter(dp);
 
+        // Job instances run before the engine started are only counted once.
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            this.endedMeter.seed(cnx.runSelectSingle("history_select_count_for_poller", Long.class, q.getId(), engine.getNode().getId()));
+        }
+
         reset();
         registerMBean();
     }
@@ -150,25 +191,45 @@ class QueuePoller implements Runnable, QueuePollerMBean
     }
 
     /**
-     * Called at the beginning of the main loop to check if the poller config is up to date (nbThread, pause...)
+     * Gives the poller the latest version of its parameters. They are applied at the beginning of its next loop. (Pollers are stopped by
+     * the engine when their parameters are removed)
      */
-    private void refreshDeploymentParameter(DbConn cnx)
+    void setDeploymentParameter(DeploymentParameter dp)
     {
-        List<DeploymentParameter> prms = DeploymentParameter.select(cnx, "dp_select_by_id", this.dpId);
-        if (prms.size() != 1)
-        {
-            this.stop();
-            return;
-        }
+        this.deploymentParameter = dp;
+    }
 
-        DeploymentParameter p = prms.get(0);
+    /**
+     * Called at the beginning of the main loop to check if the poller config is up to date (nbThread, pause...). Uses no query: parameters
+     * are kept up to date by the engine.
+     */
+    private void refreshDeploymentParameter(DbConn cnx)
+    {
+        DeploymentParameter p = this.deploymentParameter;
         if (p.getPollingInterval() != this.pollingInterval || (p.getEnabled() && !this.paused && this.maxNbThread != p.getNbThread())
                 || (this.maxNbThread > 0 && (!p.getEnabled() || this.paused)) || (this.maxNbThread == 0 && p.getEnabled() && !this.paused))
         {
             applyDeploymentParameter(p);
         }
 
-        this.strictPollingPeriod = Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "strictPollingPeriod", "false"));
+        this.strictPollingPeriod = Boolean.parseBoolean(GlobalParameterCache.getParameter(cnx, "strictPollingPeriod", "false"));
+        this.batchedAttribution = Boolean.parseBoolean(GlobalParameterCache.getParameter(cnx, "batchedAttribution", "false"));
+
+        // Only parsed when changed, as an invalid value would otherwise be logged on each loop.
+        String prefetch = GlobalParameterCache.getParameter(cnx, "pollerPrefetchSize", "0");
+        if (!Objects.equals(prefetch, this.prefetchSizeParameter))
+        {
+            this.prefetchSizeParameter = prefetch;
+            try
+            {
+                this.prefetchSize = prefetch == null ? 0 : Math.max(Integer.parseInt(prefetch.trim()), 0);
+            }
+            catch (NumberFormatException e)
+            {
+                jqmlogger.warn("Parameter pollerPrefetchSize has an invalid value [{}] - prefetch is disabled", prefetch);
+                this.prefetchSize = 0;
+            }
+        }
     }
 
     private void registerMBean()
@@ -222,6 +283,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
         {
             lastLoop = Calendar.getInstance();
             jqmlogger.trace("poller loop");
+            loopAttributed = 0;
 
             try
             {
@@ -231,87 +293,17 @@ class QueuePoller implements Runnable, QueuePollerMBean
 
                 // Free room?
                 int freeRoom = potentialFreeRoom();
-                if (freeRoom > 0)
+                if (freeRoom > 0 && this.prefetchSize > 0)
+                {
+                    attributeFromBuffer(cnx, freeRoom);
+                }
+                else if (freeRoom > 0)
                 {
                     // Fetch the queue head. * 3 because we may reject quite a few JI inside resource managers.
+                    this.buffer.clear();
                     List<JobInstance> newInstances = cnx.poll(this.queue, freeRoom > 100000 ? Integer.MAX_VALUE : freeRoom * 3);
                     jqmlogger.trace("Poller has selected {} JIs to run", newInstances.size());
-
-                    jiloop: for (JobInstance ji : newInstances)
-                    {
-                        // TODO: bulk load parameters
-                        ji.loadPrmCache(cnx);
-
-                        // Check if we have the resources needed to run this JI
-                        List<ResourceManagerBase> alreadyReserved = new ArrayList<>(this.resourceManagers.size());
-                        for (ResourceManagerBase rm : this.resourceManagers)
-                        {
-                            switch (rm.bookResource(ji, cnx))
-                            {
-                            case BOOKED:
-                                // OK, nothing to do.
-                                alreadyReserved.add(rm);
-                                break;
-                            case EXHAUSTED:
-                                // Stop the loop - cannot do anything anymore with these resources.
-                                jqmlogger.trace("Poller has a full RM");
-                                for (ResourceManagerBase reservedRm : alreadyReserved)
-                                {
-                                    reservedRm.rollbackResourceBooking(ji, cnx);
-                                }
-                                break jiloop;
-                            case FAILED:
-                                // Skip this JI - no resource for it but there may be resources for the next ones.
-                                jqmlogger.trace("Head JI asks for unavailable resources, skipping to next one");
-                                for (ResourceManagerBase reservedRm : alreadyReserved)
-                                {
-                                    reservedRm.rollbackResourceBooking(ji, cnx);
-                                }
-                                continue jiloop;
-                            }
-                        }
-
-                        // Actually set it for running on this node and report it on the in-memory object.
-                        QueryResult qr = cnx.runUpdate("ji_update_status_by_id", this.engine.getNode().getId(), ji.getId());
-                        if (qr.nbUpdated != 1)
-                        {
-                            // Means the JI was taken by another node, so simply continue.
-                            for (ResourceManagerBase reservedRm : alreadyReserved)
-                            {
-                                reservedRm.rollbackResourceBooking(ji, cnx);
-                            }
-                            continue;
-                        }
-                        ji.setNode(this.engine.getNode());
-                        ji.setState(State.ATTRIBUTED);
-
-                        // Commit taking possession of the JI (as well as anything whih may have been done inside the RMs)
-                        actualNbThread.incrementAndGet();
-                        jqmlogger.trace("Commit");
-                        cnx.commit();
-                        for (ResourceManagerBase reservedRm : alreadyReserved)
-                        {
-                            reservedRm.commitResourceBooking(ji, cnx); // after transaction commit.
-                        }
-
-                        // We will run this JI!
-                        jqmlogger.trace("JI number {} will be run by this poller this loop (already {}/{} on {})", ji.getId(),
-                                actualNbThread, maxNbThread, this.queue.getName());
-                        if (ji.getJD().getMaxTimeRunning() != null)
-                        {
-                            this.peremption.put(ji.getId(), new Date((new Date()).getTime() + ji.getJD().getMaxTimeRunning() * 60 * 1000));
-                        }
-
-                        // Run it
-                        if (!ji.getJD().isExternal())
-                        {
-                            this.engine.getRunningJobInstanceManager().startNewJobInstance(ji, this);
-                        }
-                        else
-                        {
-                            (new Thread(new RunningExternalJobInstance(cnx, ji, this))).start();
-                        }
-                    }
+                    attribute(cnx, newInstances);
                 }
             }
             catch (RuntimeException e)
@@ -353,6 +345,10 @@ class QueuePoller implements Runnable, QueuePollerMBean
                 Closer.closeQuietly(cnx);
             }
 
+            this.pollDurations.record(System.currentTimeMillis() - lastLoop.getTimeInMillis());
+            this.pollLoops.increment();
+            this.lastAttributionBatchSize = loopAttributed;
+
             // Wait according to the deploymentParameter
             try
             {
@@ -409,6 +405,316 @@ class QueuePoller implements Runnable, QueuePollerMBean
         localThread = null;
     }
 
+    /**
+     * Prefetch mode (<code>pollerPrefetchSize</code>): the queue head selected by a previous loop is kept in memory, so that a loop caused
+     * by the end of a job instance can start the next one with the claim update as its only query. The claim update checks the state and
+     * the queue of the JI, so buffered JI which were cancelled, paused, moved or taken by another node in the meantime are simply dropped.
+     * The head is selected again after the launches (so not on the path of the next job start) when the buffer drops below half its size,
+     * as well as when it is older than the polling interval or new JI were submitted to the queue, so that ordering changes are taken into
+     * account.
+     */
+    private void attributeFromBuffer(DbConn cnx, int freeRoom) throws IOException
+    {
+        boolean fresh = !this.bufferRefillRequested && System.currentTimeMillis() - this.bufferDate <= this.pollingInterval;
+        if (fresh && !this.buffer.isEmpty())
+        {
+            jqmlogger.trace("Poller starts JIs from its buffer of {} JIs", this.buffer.size());
+            attribute(cnx, this.buffer);
+            if (this.buffer.size() >= this.prefetchSize / 2)
+            {
+                return;
+            }
+        }
+
+        this.bufferRefillRequested = false;
+        this.bufferDate = System.currentTimeMillis();
+        this.buffer = cnx.poll(this.queue, freeRoom > 100000 ? Integer.MAX_VALUE : Math.max(this.prefetchSize, freeRoom * 3));
+        jqmlogger.trace("Poller has selected {} JIs to run or to buffer", this.buffer.size());
+        if (potentialFreeRoom() > 0)
+        {
+            attribute(cnx, this.buffer);
+        }
+    }
+
+    /**
+     * Try to run the given JIs (the queue head, in order). JIs which are no longer candidates (run by this poller or taken by another
+     * node) are removed from the list.
+     */
+    private void attribute(DbConn cnx, List<JobInstance> candidates) throws IOException
+    {
+        Set<Long> done = this.batchedAttribution ? attributeBatch(cnx, candidates) : attributeOneByOne(cnx, candidates);
+        if (!done.isEmpty())
+        {
+            candidates.removeIf(ji -> done.contains(ji.getId()));
+        }
+    }
+
+    /**
+     * Default attribution mode: each JI of the head is booked, claimed and committed on its own.
+     *
+     * @return the IDs of the JIs which were claimed or lost to another node.
+     */
+    private Set<Long> attributeOneByOne(DbConn cnx, List<JobInstance> newInstances) throws IOException
+    {
+        Set<Long> done = new HashSet<>();
+        for (int i = 0; i < newInstances.size(); i++)
+        {
+            JobInstance ji = newInstances.get(i);
+            prefetchPrms(cnx, newInstances, i);
+
+            // Check if we have the resources needed to run this JI
+            List<ResourceManagerBase> alreadyReserved = new ArrayList<>(this.resourceManagers.size());
+            BookingStatus status = bookResources(ji, cnx, alreadyReserved);
+            if (status == BookingStatus.EXHAUSTED)
+            {
+                break;
+            }
+            if (status == BookingStatus.FAILED)
+            {
+                continue;
+            }
+
+            // Highlander lock, only for this JI: if it does not run, the savepoint releases the lock at once.
+            Savepoint beforeLock = null;
+            if (ji.getJD().isHighlander())
+            {
+                beforeLock = cnx.setSavepoint();
+                if (!this.highlanderResourceManager.lockBookings(cnx, Collections.singletonList(ji)).isEmpty())
+                {
+                    for (ResourceManagerBase reservedRm : alreadyReserved)
+                    {
+                        reservedRm.rollbackResourceBooking(ji, cnx);
+                    }
+                    cnx.rollback(beforeLock);
+                    continue;
+                }
+            }
+
+            // Actually set it for running on this node and report it on the in-memory object.
+            QueryResult qr = cnx.runUpdate("ji_update_status_by_id_and_queue", this.engine.getNode().getId(), ji.getId(),
+                    this.queue.getId());
+            done.add(ji.getId());
+            if (qr.nbUpdated != 1)
+            {
+                // Means the JI was taken by another node (or is no longer waiting inside this queue), so simply continue.
+                for (ResourceManagerBase reservedRm : alreadyReserved)
+                {
+                    reservedRm.rollbackResourceBooking(ji, cnx);
+                }
+                if (beforeLock != null)
+                {
+                    cnx.rollback(beforeLock);
+                }
+                continue;
+            }
+            ji.setNode(this.engine.getNode());
+            ji.setState(State.ATTRIBUTED);
+
+            // Commit taking possession of the JI (as well as anything whih may have been done inside the RMs)
+            actualNbThread.incrementAndGet();
+            jqmlogger.trace("Commit");
+            cnx.commit();
+            for (ResourceManagerBase reservedRm : alreadyReserved)
+            {
+                reservedRm.commitResourceBooking(ji, cnx); // after transaction commit.
+            }
+
+            // We will run this JI!
+            launch(cnx, ji);
+        }
+        return done;
+    }
+
+    /**
+     * Batched attribution mode: resources are booked in memory for the whole head, then all the chosen JI are claimed with multi-row
+     * updates inside a single transaction. JI which were taken by another node in the meantime have their bookings rolled back one by one.
+     *
+     * @return the IDs of the JIs which were claimed or lost to another node.
+     */
+    private Set<Long> attributeBatch(DbConn cnx, List<JobInstance> newInstances) throws IOException
+    {
+        Map<JobInstance, List<ResourceManagerBase>> booked = new LinkedHashMap<>();
+        for (int i = 0; i < newInstances.size(); i++)
+        {
+            JobInstance ji = newInstances.get(i);
+            prefetchPrms(cnx, newInstances, i);
+
+            List<ResourceManagerBase> alreadyReserved = new ArrayList<>(this.resourceManagers.size());
+            BookingStatus status = bookResources(ji, cnx, alreadyReserved);
+            if (status == BookingStatus.EXHAUSTED)
+            {
+                break;
+            }
+            if (status == BookingStatus.BOOKED)
+            {
+                booked.put(ji, alreadyReserved);
+            }
+        }
+
+        // Highlander locks for the whole batch, taken in job definition order so that nodes cannot deadlock on them.
+        for (JobInstance ji : this.highlanderResourceManager.lockBookings(cnx, booked.keySet()))
+        {
+            for (ResourceManagerBase reservedRm : booked.remove(ji))
+            {
+                reservedRm.rollbackResourceBooking(ji, cnx);
+            }
+        }
+        if (booked.isEmpty())
+        {
+            cnx.rollback();
+            return Collections.emptySet();
+        }
+
+        // Claim all booked JI at once. IDs are sorted so that concurrent nodes always lock rows in the same order.
+        List<Long> ids = new ArrayList<>(booked.size());
+        for (JobInstance ji : booked.keySet())
+        {
+            ids.add(ji.getId());
+        }
+        Collections.sort(ids);
+        Set<Long> claimed = new HashSet<>(ids.size());
+        for (int i = 0; i < ids.size(); i += IN_CLAUSE_LIMIT)
+        {
+            List<Long> chunk = new ArrayList<>(ids.subList(i, Math.min(i + IN_CLAUSE_LIMIT, ids.size())));
+            QueryResult qr = cnx.runUpdate("ji_update_status_by_id_list_and_queue", this.engine.getNode().getId(), chunk,
+                    this.queue.getId());
+            if (qr.nbUpdated == chunk.size())
+            {
+                claimed.addAll(chunk);
+            }
+            else
+            {
+                // Some JI were taken by another node - find out which ones are really ours.
+                claimed.addAll(cnx.runSelectColumn("ji_select_attributed_id_by_id_list", Long.class, this.engine.getNode().getId(), chunk));
+            }
+        }
+        jqmlogger.trace("Poller has claimed {} JIs out of {} booked", claimed.size(), booked.size());
+
+        // Release resources of lost JI.
+        for (Map.Entry<JobInstance, List<ResourceManagerBase>> e : booked.entrySet())
+        {
+            if (!claimed.contains(e.getKey().getId()))
+            {
+                for (ResourceManagerBase reservedRm : e.getValue())
+                {
+                    reservedRm.rollbackResourceBooking(e.getKey(), cnx);
+                }
+            }
+        }
+        if (claimed.isEmpty())
+        {
+            cnx.rollback();
+            return new HashSet<>(ids);
+        }
+
+        // Single commit for the whole batch
+        actualNbThread.addAndGet(claimed.size());
+        jqmlogger.trace("Commit");
+        cnx.commit();
+
+        for (Map.Entry<JobInstance, List<ResourceManagerBase>> e : booked.entrySet())
+        {
+            JobInstance ji = e.getKey();
+            if (!claimed.contains(ji.getId()))
+            {
+                continue;
+            }
+            ji.setNode(this.engine.getNode());
+            ji.setState(State.ATTRIBUTED);
+            for (ResourceManagerBase reservedRm : e.getValue())
+            {
+                reservedRm.commitResourceBooking(ji, cnx); // after transaction commit.
+            }
+
+            launch(cnx, ji);
+        }
+        return new HashSet<>(ids);
+    }
+
+    /**
+     * Parameters are only needed for the JI actually submitted to the resource managers - and the loop often stops long before the end of
+     * the head. So they are loaded lazily, one window of the head at a time, instead of one query per JI.
+     */
+    private void prefetchPrms(DbConn cnx, List<JobInstance> newInstances, int index)
+    {
+        if (newInstances.get(index).isPrmCacheLoaded())
+        {
+            return;
+        }
+        JobInstance.loadPrmCache(cnx, newInstances.subList(index, Math.min(index + PRM_PREFETCH_SIZE, newInstances.size())));
+    }
+
+    /**
+     * Ask all resource managers for the resources needed by a JI. If one of them refuses, bookings already done for this JI are rolled
+     * back.
+     *
+     * @param alreadyReserved
+     *            filled with the RMs which have booked resources for this JI.
+     * @return BOOKED if all RMs have agreed.
+     */
+    private BookingStatus bookResources(JobInstance ji, DbConn cnx, List<ResourceManagerBase> alreadyReserved)
+    {
+        for (ResourceManagerBase rm : this.resourceManagers)
+        {
+            BookingStatus status = rm.bookResource(ji, cnx);
+            switch (status)
+            {
+            case BOOKED:
+                // OK, nothing to do.
+                alreadyReserved.add(rm);
+                break;
+            case EXHAUSTED:
+                // Stop the loop - cannot do anything anymore with these resources.
+                jqmlogger.trace("Poller has a full RM");
+                for (ResourceManagerBase reservedRm : alreadyReserved)
+                {
+                    reservedRm.rollbackResourceBooking(ji, cnx);
+                }
+                return status;
+            case FAILED:
+                // Skip this JI - no resource for it but there may be resources for the next ones.
+                jqmlogger.trace("Head JI asks for unavailable resources, skipping to next one");
+                for (ResourceManagerBase reservedRm : alreadyReserved)
+                {
+                    reservedRm.rollbackResourceBooking(ji, cnx);
+                }
+                return status;
+            }
+        }
+        return BookingStatus.BOOKED;
+    }
+
+    /**
+     * Actually start a JI which has been attributed to this node and committed.
+     */
+    private void launch(DbConn cnx, JobInstance ji) throws IOException
+    {
+        jqmlogger.trace("JI number {} will be run by this poller this loop (already {}/{} on {})", ji.getId(), actualNbThread, maxNbThread,
+                this.queue.getName());
+        this.loopAttributed++;
+        this.attributedCount.increment();
+        if (ji.getJD().getMaxTimeRunning() != null)
+        {
+            this.peremption.put(ji.getId(), new Date((new Date()).getTime() + ji.getJD().getMaxTimeRunning() * 60 * 1000));
+        }
+        if (ji.getCreationDate() != null)
+        {
+            long waitMs = System.currentTimeMillis() - ji.getCreationDate().getTimeInMillis();
+            this.waitTimes.record(waitMs);
+            this.engine.signalLaunch(waitMs);
+        }
+
+        // Run it
+        if (!ji.getJD().isExternal())
+        {
+            this.engine.getRunningJobInstanceManager().startNewJobInstance(ji, this);
+        }
+        else
+        {
+            this.engine.getRunningJobInstanceManager().startThread(ji.getId(), new RunningExternalJobInstance(cnx, ji, this));
+        }
+    }
+
     @Override
     public Integer getCurrentActiveThreadCount()
     {
@@ -433,7 +739,27 @@ class QueuePoller implements Runnable, QueuePollerMBean
             // Force a new loop at once. This makes queues more fluid.
             loop.release(1);
         }
-        this.engine.signalEndOfRun();
+
+        long runMs = ji.getExecutionDate() == null ? -1 : System.currentTimeMillis() - ji.getExecutionDate().getTimeInMillis();
+        this.endedMeter.mark();
+        if (runMs >= 0)
+        {
+            this.runTimes.record(runMs);
+        }
+        this.engine.signalEndOfRun(runMs);
+    }
+
+    /**
+     * Makes the poller loop at once, as new job instances have been submitted inside its queue. Many calls before the next loop only cause
+     * a single loop.
+     */
+    void wakeUp()
+    {
+        this.bufferRefillRequested = true;
+        if (!this.strictPollingPeriod && loop.availablePermits() == 0)
+        {
+            loop.release(1);
+        }
     }
 
     boolean isRunning()
@@ -517,20 +843,84 @@ class QueuePoller implements Runnable, QueuePollerMBean
     @Override
     public long getCumulativeJobInstancesCount()
     {
-        try (DbConn em2 = Helpers.getNewDbSession())
-        {
-            return em2.runSelectSingle("history_select_count_for_poller", Long.class, this.queue.getId(), this.engine.getNode().getId());
-        }
+        return this.endedMeter.getCount();
     }
 
     @Override
     public float getJobsFinishedPerSecondLastMinute()
     {
-        try (DbConn em2 = Helpers.getNewDbSession())
+        return this.endedMeter.getRatePerSecond();
+    }
+
+    @Override
+    public long getMeanWaitTimeMilliseconds()
+    {
+        return this.waitTimes.getMeanMilliseconds();
+    }
+
+    @Override
+    public long getWaitTime95thPercentileMilliseconds()
+    {
+        return this.waitTimes.getPercentileMilliseconds(95);
+    }
+
+    @Override
+    public long getMeanRunTimeMilliseconds()
+    {
+        return this.runTimes.getMeanMilliseconds();
+    }
+
+    @Override
+    public long getRunTime95thPercentileMilliseconds()
+    {
+        return this.runTimes.getPercentileMilliseconds(95);
+    }
+
+    @Override
+    public Map<String, Long> getWaitTimeHistogram()
+    {
+        return this.waitTimes.getCumulativeCounts();
+    }
+
+    @Override
+    public Map<String, Long> getRunTimeHistogram()
+    {
+        return this.runTimes.getCumulativeCounts();
+    }
+
+    @Override
+    public Map<String, Long> getPollDurationHistogram()
+    {
+        return this.pollDurations.getCumulativeCounts();
+    }
+
+    @Override
+    public long getPollLoopCount()
+    {
+        return this.pollLoops.sum();
+    }
+
+    @Override
+    public long getAttributedJobInstancesCount()
+    {
+        return this.attributedCount.sum();
+    }
+
+    @Override
+    public int getLastAttributionBatchSize()
+    {
+        return this.lastAttributionBatchSize;
+    }
+
+    @Override
+    public Map<String, Integer> getResourceManagerSlotsAvailable()
+    {
+        Map<String, Integer> res = new LinkedHashMap<>();
+        for (ResourceManagerBase rm : this.resourceManagers)
         {
-            return em2.runSelectSingle("history_select_count_last_mn_for_poller", Float.class, this.queue.getId(),
-                    this.engine.getNode().getId());
+            res.put(rm.getKey(), rm.getSlotsAvailable());
         }
+        return res;
     }
 
     @Override
@@ -0,0 +1,155 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.engine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.QueueEvents;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The queue watcher wakes up the pollers of a queue as soon as new job instances are submitted inside it, instead of letting them wait for
+ * the end of their polling period. Signals come from the database (see {@link DbConn#waitForQueueSignals(Map, int)}) for job instances
+ * submitted anywhere, and from {@link QueueEvents} for job instances submitted inside this JVM.<br>
+ * Polling periods are still used as a safety net, as signals may be lost (database failure, signal sent while the watcher was not
+ * listening...).<br>
+ * The watcher keeps a dedicated session for its waits, so that databases with a native notification system only start listening once. It
+ * is given back to the pool from time to time, so that it is never taken for an abandoned connection.
+ */
+class QueueWatcher implements Runnable, QueueEvents.Listener
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(QueueWatcher.class);
+
+    private static final long SESSION_LIFETIME_MS = 600000;
+
+    private volatile boolean run = true;
+    private JqmEngine engine;
+    private int period;
+    private Semaphore loop = new Semaphore(0);
+    private Map<Long, Long> versions = new HashMap<>();
+    private DbConn cnx = null;
+    private long cnxStart = 0;
+
+    QueueWatcher(JqmEngine e)
+    {
+        this.engine = e;
+        try (DbConn cnx = Helpers.getNewDbSession())
+        {
+            this.period = Integer.parseInt(GlobalParameter.getParameter(cnx, "wakeUpCheckPeriodMs", "1000"));
+        }
+    }
+
+    void stop()
+    {
+        jqmlogger.info("Queue watcher has received a stop request");
+        this.run = false;
+        QueueEvents.removeListener(this);
+        this.loop.release(1);
+    }
+
+    @Override
+    public void jobInstancesSubmitted(long queueId)
+    {
+        this.engine.wakeUpPollers(queueId);
+    }
+
+    @Override
+    public void run()
+    {
+        Thread.currentThread().setName("QUEUE_WATCHER;watching queues;");
+        jqmlogger.info("Start of the queue watcher - database signals are checked every {} ms", this.period);
+        QueueEvents.addListener(this);
+
+        while (run)
+        {
+            long start = System.currentTimeMillis();
+            Set<Long> signaled = Collections.emptySet();
+            try
+            {
+                if (cnx == null)
+                {
+                    cnx = Helpers.getNewDbSession();
+                    cnxStart = start;
+                }
+                signaled = cnx.waitForQueueSignals(this.versions, this.period);
+                if (System.currentTimeMillis() - cnxStart > SESSION_LIFETIME_MS)
+                {
+                    releaseSession();
+                }
+            }
+            catch (RuntimeException e)
+            {
+                // Database failures are handled by the pollers themselves. Simply try again later with a new session.
+                jqmlogger.debug("Could not check queue signals", e);
+                releaseSession();
+            }
+
+            for (Long queueId : signaled)
+            {
+                jqmlogger.trace("Queue {} has been signaled", queueId);
+                this.engine.wakeUpPollers(queueId);
+            }
+
+            // Some databases block until a signal arrives, other do not. Only wait for what remains of the period, and only if idle.
+            long remaining = this.period - (System.currentTimeMillis() - start);
+            if (signaled.isEmpty() && remaining > 0)
+            {
+                try
+                {
+                    loop.tryAcquire(remaining, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    run = false;
+                }
+            }
+        }
+
+        releaseSession();
+        QueueEvents.removeListener(this);
+        jqmlogger.info("Queue watcher has ended");
+    }
+
+    private void releaseSession()
+    {
+        if (cnx == null)
+        {
+            return;
+        }
+        try
+        {
+            cnx.stopWaitingForQueueSignals();
+        }
+        catch (RuntimeException e)
+        {
+            jqmlogger.debug("Could not stop waiting for queue signals", e);
+        }
+        finally
+        {
+            cnx.close();
+            cnx = null;
+        }
+    }
+}
@@ -99,6 +99,14 @@ public abstract class ResourceManagerBase
         return Integer.MAX_VALUE;
     }
 
+    /**
+     * The key of this RM. Also available before the first configuration refresh (which is not done for RMs hard coded inside the pollers).
+     */
+    String getKey()
+    {
+        return this.key != null ? this.key : this.definition.getKey().toLowerCase();
+    }
+
     /**
      * The prefix for all parameter names. Default is empty.
      *
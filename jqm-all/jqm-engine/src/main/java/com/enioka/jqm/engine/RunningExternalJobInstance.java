@@ -12,7 +12,7 @@ import java.util.List;
 import com.enioka.jqm.cl.ExtClassLoader;
 import com.enioka.jqm.engine.api.exceptions.JqmInitError;
 import com.enioka.jqm.jdbc.DbConn;
-import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.GlobalParameterCache;
 import com.enioka.jqm.model.JobInstance;
 
 import org.apache.commons.io.FilenameUtils;
@@ -41,9 +41,9 @@ class RunningExternalJobInstance implements Runnable
         this.ji = job;
         this.qp = qp;
         opts = job.getJD().getJavaOpts() == null
-                ? GlobalParameter.getParameter(cnx, "defaultExternalOpts", "-Xms32m -Xmx128m -XX:MaxMetaspaceSize=64m")
+                ? GlobalParameterCache.getParameter(cnx, "defaultExternalOpts", "-Xms32m -Xmx128m -XX:MaxMetaspaceSize=64m")
                 : job.getJD().getJavaOpts();
-        killCheckPeriodMs = Integer.parseInt(GlobalParameter.getParameter(cnx, "internalPollingPeriodMs", "1000"));
+        killCheckPeriodMs = Integer.parseInt(GlobalParameterCache.getParameter(cnx, "internalPollingPeriodMs", "1000"));
 
         rootPath = ExtClassLoader.getRootDir();
 
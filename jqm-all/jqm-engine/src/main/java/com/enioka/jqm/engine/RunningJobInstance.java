@@ -22,7 +22,7 @@ import com.enioka.jqm.client.shared.SimpleApiSecurity;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.DbManager;
 import com.enioka.jqm.jdbc.QueryResult;
-import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.GlobalParameterCache;
 import com.enioka.jqm.model.History;
 import com.enioka.jqm.model.Instruction;
 import com.enioka.jqm.model.JobInstance;
@@ -46,6 +46,7 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
     private RunningJobInstanceManager manager = null;
 
     private JobInstanceTracker tracker;
+    private JobInstanceEngineApi engineApi = null;
     private State resultStatus = State.ATTRIBUTED;
     private Boolean isDone = false;
     private Calendar endDate = null;
@@ -133,7 +134,8 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         }
 
         // Create tracker
-        tracker = jr.getTracker(this.ji, new JobInstanceEngineApi(this.ji), this);
+        engineApi = new JobInstanceEngineApi(this.ji);
+        tracker = jr.getTracker(this.ji, engineApi, this);
 
         // Block needing the database
         try (DbConn cnx = Helpers.getNewDbSession())
@@ -147,6 +149,7 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
             {
                 // This means the JI has been killed or has disappeared.
                 jqmlogger.warn("Trying to run a job which disappeared or is not in ATTRIBUTED state (likely killed) " + this.ji.getId());
+                tracker.wrap();
                 if (this.manager != null)
                 {
                     manager.signalEndOfRun(this);
@@ -276,8 +279,24 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
             this.engine.getHandler().onJobInstanceDone(ji);
         }
 
-        // Part needing DB connection with specific failure handling code.
-        endOfRunDb();
+        // Messages and progress sent by the payload must be stored before its history.
+        if (this.engineApi != null)
+        {
+            try
+            {
+                this.engineApi.flush();
+            }
+            catch (RuntimeException e)
+            {
+                jqmlogger.error("Could not store the last messages or progress of job instance " + this.ji.getId(), e);
+            }
+        }
+
+        // Part needing DB connection with specific failure handling code. Batched by the engine when possible.
+        if (this.engine == null || this.engine.getEndOfRunWriter() == null || !this.engine.getEndOfRunWriter().offer(this))
+        {
+            endOfRunDb();
+        }
     }
 
     /**
@@ -292,6 +311,10 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
             jqmlogger.trace("An History was just created for job instance " + this.ji.getId());
             cnx.runUpdate("ji_delete_by_id", this.ji.getId());
             cnx.commit();
+            if (this.engine != null)
+            {
+                this.engine.signalEndOfRunPersisted(endDate);
+            }
         }
         catch (RuntimeException e)
         {
@@ -309,6 +332,11 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         {
             jqmlogger.error("connection to database lost - loader " + this.ji.getId() + " will be restarted later");
             jqmlogger.trace("connection error was:", e);
+            if (this.tracker != null)
+            {
+                // The restarted loader will use a new tracker.
+                this.tracker.wrap();
+            }
             this.engine.loaderRestartNeeded(this);
             if (this.engine.getHandler() != null)
             {
@@ -442,6 +470,21 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
         return this.isDone;
     }
 
+    JobInstance getJobInstance()
+    {
+        return this.ji;
+    }
+
+    State getResultStatus()
+    {
+        return this.resultStatus;
+    }
+
+    Calendar getEndDate()
+    {
+        return this.endDate;
+    }
+
     @Override
     public Entry<String, String> getWebApiUser(DbConn cnx)
     {
@@ -454,7 +497,7 @@ class RunningJobInstance implements Runnable, JobRunnerCallback
     {
         // Do not use port from engine.getNode, as it may have been set AFTER engine startup.
         Node node = Node.select_single(cnx, "node_select_by_id", this.engine.getNode().getId());
-        boolean useSsl = Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "enableWsApiSsl", "false"));
+        boolean useSsl = Boolean.parseBoolean(GlobalParameterCache.getParameter(cnx, "enableWsApiSsl", "false"));
         return (useSsl ? "https://localhost:" : "http://localhost:") + node.getPort();
     }
 }
@@ -1,7 +1,16 @@
 package com.enioka.jqm.engine;
 
+import java.lang.reflect.Field;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.Instruction;
 import com.enioka.jqm.model.JobInstance;
 
@@ -9,7 +18,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Responsible for creating and storing references to the the {@link RunningJobInstance}.
+ * Responsible for creating and storing references to the the {@link RunningJobInstance}.<br>
+ * It also provides the threads running the job instances, according to the <code>payloadThreadMode</code> global parameter:
+ * <ul>
+ * <li><code>thread</code> (default): a new thread inside a new thread group for each job instance.</li>
+ * <li><code>pool</code>: threads are reused between job instances. Each pooled thread has a thread group of its own and only runs one job
+ * instance at a time. Name, priority, context class loader, interrupt status and thread locals are reset after each run. A thread is only
+ * reused if the job instance has left no running thread inside its group, so that the group still only contains the job instance and the
+ * threads it has created. Otherwise the thread (and its group) are dropped and replaced. At most <code>payloadThreadPoolSize</code> idle
+ * threads are kept. Clearing thread locals requires the JVM option <code>--add-opens java.base/java.lang=ALL-UNNAMED</code>, without
+ * which <code>thread</code> is used.</li>
+ * </ul>
+ * Virtual threads are not offered: they cannot be enumerated inside a thread group, so the threads left behind by a job instance could not
+ * be cleaned, and they ignore job instance priorities.
  */
 class RunningJobInstanceManager
 {
@@ -18,6 +39,80 @@ class RunningJobInstanceManager
     private ConcurrentHashMap<RunningJobInstance, RjiRegistration> instancesByTracker = new ConcurrentHashMap<>();
     private ConcurrentHashMap<Long, RjiRegistration> instancesById = new ConcurrentHashMap<Long, RjiRegistration>();
 
+    private ExecutorService pool = null;
+
+    /**
+     * The thread fields holding thread locals, only set in pool mode.
+     */
+    private Field threadLocals = null, inheritableThreadLocals = null;
+
+    /**
+     * Thrown at the end of a run to drop a pooled thread which cannot be reused. The pool then replaces it with a new one.
+     */
+    private static class PooledThreadDroppedException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        PooledThreadDroppedException()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    RunningJobInstanceManager(DbConn cnx)
+    {
+        String mode = GlobalParameter.getParameter(cnx, "payloadThreadMode", "thread");
+        switch (mode)
+        {
+        case "pool":
+            try
+            {
+                threadLocals = Thread.class.getDeclaredField("threadLocals");
+                threadLocals.setAccessible(true);
+                inheritableThreadLocals = Thread.class.getDeclaredField("inheritableThreadLocals");
+                inheritableThreadLocals.setAccessible(true);
+            }
+            catch (Exception e)
+            {
+                jqmlogger.warn("Thread locals cannot be cleared in this JVM (is --add-opens java.base/java.lang=ALL-UNNAMED missing?) - "
+                        + "job instances will run inside new platform threads");
+                break;
+            }
+            int poolSize = Integer.parseInt(GlobalParameter.getParameter(cnx, "payloadThreadPoolSize", "20"));
+            final AtomicInteger workerCount = new AtomicInteger(0);
+            // No queue: a job instance given to this manager has already been booked and must start at once, so threads are created as
+            // needed and the excess is dropped after a while. Only the core threads are kept.
+            pool = new ThreadPoolExecutor(poolSize, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            int i = workerCount.incrementAndGet();
+                            Thread t = new Thread(new ThreadGroup("jqm-pool-" + i), r, "PAYLOAD_POOL;idle;" + i);
+                            final Thread.UncaughtExceptionHandler defaultHandler = t.getUncaughtExceptionHandler();
+                            t.setUncaughtExceptionHandler((thread, e) -> {
+                                if (!(e instanceof PooledThreadDroppedException))
+                                {
+                                    defaultHandler.uncaughtException(thread, e);
+                                }
+                            });
+                            return t;
+                        }
+                    });
+            jqmlogger.info("Job instances will run inside a thread pool keeping up to {} idle threads", poolSize);
+            break;
+        case "virtual":
+            jqmlogger.warn("Virtual threads are not supported, as the threads they create cannot be cleaned at the end of a job instance - "
+                    + "job instances will run inside new platform threads");
+            break;
+        case "thread":
+            break;
+        default:
+            jqmlogger.warn("Unknown payloadThreadMode {} - job instances will run inside new platform threads", mode);
+        }
+    }
+
     void startNewJobInstance(JobInstance ji, QueuePoller qp)
     {
         RjiRegistration reg = new RjiRegistration();
@@ -29,7 +124,87 @@ class RunningJobInstanceManager
         instancesByTracker.put(reg.rji, reg);
         instancesById.put(reg.ji.getId(), reg);
 
-        (new Thread(new ThreadGroup(reg.ji.getId() + ""), reg.rji)).start();
+        startThread(reg.ji.getId(), reg.rji);
+    }
+
+    /**
+     * Run something on behalf of a job instance, inside a thread given by the configured mode.
+     */
+    void startThread(long jobInstanceId, final Runnable r)
+    {
+        if (pool != null)
+        {
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Thread t = Thread.currentThread();
+                    String name = t.getName();
+                    int priority = t.getPriority();
+                    ClassLoader cl = t.getContextClassLoader();
+                    try
+                    {
+                        r.run();
+                    }
+                    finally
+                    {
+                        t.setName(name);
+                        t.setPriority(priority);
+                        t.setContextClassLoader(cl);
+                        Thread.interrupted(); // A kill must not be inherited by the next job instance.
+                        if (!resetPooledThread(t))
+                        {
+                            throw new PooledThreadDroppedException();
+                        }
+                    }
+                }
+            });
+        }
+        else
+        {
+            (new Thread(new ThreadGroup(jobInstanceId + ""), r)).start();
+        }
+    }
+
+    /**
+     * Makes sure nothing from the previous job instance is left inside a pooled thread before it runs another one.
+     *
+     * @return false if the thread cannot be reused.
+     */
+    private boolean resetPooledThread(Thread t)
+    {
+        ThreadGroup tg = t.getThreadGroup();
+        if (tg.activeCount() > 1 || tg.activeGroupCount() > 0 || tg.getMaxPriority() != Thread.MAX_PRIORITY)
+        {
+            // The group would be shared with the threads left behind by the previous job instance.
+            jqmlogger.debug("Pooled thread {} is dropped as its thread group is still used", t.getName());
+            return false;
+        }
+
+        try
+        {
+            // They are lazily created again when needed.
+            threadLocals.set(t, null);
+            inheritableThreadLocals.set(t, null);
+        }
+        catch (IllegalAccessException e)
+        {
+            jqmlogger.debug("Pooled thread {} is dropped as its thread locals cannot be cleared", t.getName());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the pooled threads once they are idle. Running job instances are not affected.
+     */
+    void stop()
+    {
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
     }
 
     void signalEndOfRun(RunningJobInstance rji)
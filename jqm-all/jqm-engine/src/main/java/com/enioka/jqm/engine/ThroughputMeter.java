@@ -0,0 +1,85 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.engine;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory count of events (job instance ends) with a one minute sliding window, so that monitoring reads never need to query the
+ * database. The window is made of one bucket per second, which are recycled as time goes by.
+ */
+class ThroughputMeter
+{
+    private static final int WINDOW_SECONDS = 60;
+
+    private final LongAdder total = new LongAdder();
+    private final long[] bucketCounts = new long[WINDOW_SECONDS];
+    private final long[] bucketSeconds = new long[WINDOW_SECONDS];
+
+    /**
+     * Adds events which happened before the meter was created (usually loaded from the database at startup). They are not part of the
+     * rate.
+     */
+    void seed(long count)
+    {
+        total.add(count);
+    }
+
+    void mark()
+    {
+        total.increment();
+
+        long second = System.currentTimeMillis() / 1000;
+        int i = (int) (second % WINDOW_SECONDS);
+        synchronized (bucketCounts)
+        {
+            if (bucketSeconds[i] != second)
+            {
+                bucketSeconds[i] = second;
+                bucketCounts[i] = 0;
+            }
+            bucketCounts[i]++;
+        }
+    }
+
+    /**
+     * Total number of events, including the seed.
+     */
+    long getCount()
+    {
+        return total.sum();
+    }
+
+    /**
+     * Number of events during the last 60 seconds, divided by 60.
+     */
+    float getRatePerSecond()
+    {
+        long now = System.currentTimeMillis() / 1000;
+        long res = 0;
+        synchronized (bucketCounts)
+        {
+            for (int i = 0; i < WINDOW_SECONDS; i++)
+            {
+                if (now - bucketSeconds[i] < WINDOW_SECONDS)
+                {
+                    res += bucketCounts[i];
+                }
+            }
+        }
+        return res / (float) WINDOW_SECONDS;
+    }
+}
@@ -22,6 +22,7 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -29,6 +30,8 @@ import com.enioka.admin.MetaService;
 import com.enioka.api.admin.JobDefDto;
 import com.enioka.jqm.client.api.JobDef;
 import com.enioka.jqm.client.api.JobInstance;
+import com.enioka.jqm.client.api.JobRequest;
+import com.enioka.jqm.client.api.JqmInvalidRequestException;
 import com.enioka.jqm.client.api.Query.Sort;
 import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.client.api.Queue;
@@ -200,6 +203,62 @@ public class ClientApiTestJdbc extends JqmBaseTest
         Assert.assertEquals(State.ENDED, res.get(1).getState());
     }
 
+    @Test
+    public void testEnqueueBatch() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                "Nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        GlobalParameter.setParameter(cnx, "enqueueBatchCommitSize", "2");
+        cnx.commit();
+
+        List<JobRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            requests.add(jqmClient.newJobRequest("Nothing", "TestUser").addParameter("arg", "value" + i).setKeyword1("k" + i));
+        }
+        List<Long> ids = jqmClient.enqueueBatch(requests);
+
+        Assert.assertEquals(5, ids.size());
+        Assert.assertEquals(5, TestHelpers.getQueueAllCount(cnx));
+        for (int i = 0; i < 5; i++)
+        {
+            JobInstance ji = jqmClient.getJob(ids.get(i));
+            Assert.assertEquals("k" + i, ji.getKeyword1());
+            Assert.assertEquals("value" + i, ji.getParameters().get("arg"));
+        }
+
+        addAndStartEngine();
+        TestHelpers.waitFor(5, 10000, cnx);
+        Assert.assertEquals(5, TestHelpers.getOkCount(cnx));
+    }
+
+    @Test
+    public void testEnqueueBatchInvalidRequestCreatesNothing() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                "Nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        GlobalParameter.setParameter(cnx, "enqueueBatchCommitSize", "2");
+        cnx.commit();
+
+        List<JobRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+        {
+            requests.add(jqmClient.newJobRequest("Nothing", "TestUser"));
+        }
+        requests.add(jqmClient.newJobRequest("Nothing", "TestUser").setQueueName("NoSuchQueue"));
+
+        try
+        {
+            jqmClient.enqueueBatch(requests);
+            Assert.fail("the batch should have been refused");
+        }
+        catch (JqmInvalidRequestException e)
+        {
+            // Expected.
+        }
+        Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
+    }
+
     @Test
     public void testChangeQueue() throws Exception
     {
@@ -78,7 +78,6 @@ public class DeliverableTest extends JqmBaseTest
 
         InputStream tmp = jqmClient.getDeliverableContent(files.get(0));
 
-        Assert.assertTrue(tmp.available() > 0);
         String res = IOUtils.toString(tmp, Charset.defaultCharset());
         Assert.assertTrue(res.startsWith("Hello World!"));
 
@@ -106,7 +105,6 @@ public class DeliverableTest extends JqmBaseTest
         Assert.assertEquals(1, files.size());
 
         InputStream tmp = jqmClient.getDeliverableContent(files.get(0));
-        Assert.assertTrue(tmp.available() > 0);
         String res = IOUtils.toString(tmp, Charset.defaultCharset());
         Assert.assertTrue(res.startsWith("Hello World!"));
 
@@ -139,7 +137,6 @@ public class DeliverableTest extends JqmBaseTest
         Assert.assertEquals(1, files.size());
 
         InputStream tmp = jqmClient.getDeliverableContent(files.get(0));
-        Assert.assertTrue(tmp.available() > 0);
         String res = IOUtils.toString(tmp, Charset.defaultCharset());
         Assert.assertTrue(res.startsWith("Hello World!"));
 
@@ -16,11 +16,13 @@
 package com.enioka.jqm.integration.tests;
 
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
 
 import com.enioka.jqm.client.api.JobInstance;
 import com.enioka.jqm.client.api.Query.Sort;
 import com.enioka.jqm.client.api.State;
+import com.enioka.jqm.model.GlobalParameter;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -67,6 +69,21 @@ public class EngineApiTest extends JqmBaseTest
         Assert.assertEquals((Integer) 50, res.get(0).getProgress());
     }
 
+    @Test
+    public void testSendManyMessagesAndProgress() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "payloadApiFlushPeriodMs", "200");
+        Long i = JqmSimpleTest.create(cnx, "pyl.EngineApiSendManyMsg").run(this);
+
+        // Nothing is lost or duplicated by the coalescing of the writes.
+        JobInstance ji = jqmClient.getJob(i);
+        Assert.assertEquals((Integer) 499, ji.getProgress());
+        Assert.assertEquals(500, ji.getMessages().size());
+        Assert.assertEquals(500, new HashSet<>(ji.getMessages()).size());
+        Assert.assertTrue(ji.getMessages().contains("message 0"));
+        Assert.assertTrue(ji.getMessages().contains("message 499"));
+    }
+
     /**
      * To stop a job, just throw an exception
      */
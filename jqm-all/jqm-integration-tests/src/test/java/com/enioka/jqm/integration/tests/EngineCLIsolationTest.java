@@ -1,5 +1,6 @@
 package com.enioka.jqm.integration.tests;
 
+import com.enioka.jqm.model.Cl;
 import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
@@ -120,6 +121,64 @@ public class EngineCLIsolationTest extends JqmBaseTest
         Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
     }
 
+    /**
+     * Run test setting global parameter launch_isolation_default to SharedJar with at most one shared CL. A job from another jar runs between
+     * the two jobs of the same jar.
+     *
+     * Expected : isolation, as the first CL is evicted.
+     */
+    @Test
+    public void testGlobalSharedJarEvicted() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "launch_isolation_default", "SharedJar");
+        GlobalParameter.setParameter(cnx, "sharedClMaxCount", "1");
+        cnx.commit();
+
+        addAndStartEngine();
+
+        createSubmitSetJob(null);
+        TestHelpers.waitFor(1, 10000, cnx);
+        CreationTools.createJobDef(null, true, "pyl.EngineCLIsolationGet", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                -1, "EngineCLIsolationGet", null, null, null, null, null, false, cnx);
+        jqmClient.newJobRequest("EngineCLIsolationGet", null).enqueue();
+        TestHelpers.waitFor(2, 10000, cnx);
+        createSubmitGetJob(null);
+        TestHelpers.waitFor(3, 10000, cnx);
+
+        Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
+    /**
+     * Same as {@link #testGlobalSharedJarEvicted()}, but the first payload leaves another context class loader on its thread.
+     *
+     * Expected : isolation, as the first CL is still released and evicted.
+     */
+    @Test
+    public void testGlobalSharedJarEvictedAfterContextSwap() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "launch_isolation_default", "SharedJar");
+        GlobalParameter.setParameter(cnx, "sharedClMaxCount", "1");
+        cnx.commit();
+
+        addAndStartEngine();
+
+        CreationTools.createJobDef(null, true, "com.enioka.jqm.TestCLIsolation.TestSetSwapContext", null,
+                "jqm-tests/jqm-test-cl-isolation/target/test.jar", TestHelpers.qVip, -1, "TestSetSwapContext", null, null, null, null, null,
+                false, cnx);
+        jqmClient.newJobRequest("TestSetSwapContext", null).enqueue();
+        TestHelpers.waitFor(1, 10000, cnx);
+        CreationTools.createJobDef(null, true, "pyl.EngineCLIsolationGet", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                -1, "EngineCLIsolationGet", null, null, null, null, null, false, cnx);
+        jqmClient.newJobRequest("EngineCLIsolationGet", null).enqueue();
+        TestHelpers.waitFor(2, 10000, cnx);
+        createSubmitGetJob(null);
+        TestHelpers.waitFor(3, 10000, cnx);
+
+        Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
     /**
      * Run test setting global parameter launch_isolation_default to Shared with two jobs in the same jar.
      *
@@ -230,6 +289,31 @@ public class EngineCLIsolationTest extends JqmBaseTest
         Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
     }
 
+    /**
+     * Recycled isolation: the static context is kept between successive runs of the same job definition, until the max number of runs.
+     */
+    @Test
+    public void testJobDefRecycled() throws Exception
+    {
+        Cl.create(cnx, "recycled", false, null, false, false, null, 3);
+        CreationTools.createJobDef(null, true, "com.enioka.jqm.TestCLIsolation.TestCount", null,
+                "jqm-tests/jqm-test-cl-isolation/target/test.jar", TestHelpers.qVip, -1, "TestCount", null, null, null, null, null, false,
+                cnx, "recycled");
+
+        addAndStartEngine();
+
+        // Three runs inside the same CL, then a new CL.
+        String[] expected = new String[] { "1", "2", "3", "1", "2" };
+        for (int i = 0; i < expected.length; i++)
+        {
+            jqmClient.newJobRequest("TestCount", null).addParameter("expected", expected[i]).enqueue();
+            TestHelpers.waitFor(i + 1, 10000, cnx);
+        }
+
+        Assert.assertEquals(5, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
     /**
      * Tests that using a static field for the JobManager API works even with shared CL, but shows a warning.
      */
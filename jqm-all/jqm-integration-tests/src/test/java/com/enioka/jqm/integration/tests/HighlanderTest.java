@@ -18,6 +18,7 @@
 
 package com.enioka.jqm.integration.tests;
 
+import java.sql.ResultSet;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
@@ -29,6 +30,7 @@ import com.enioka.jqm.client.api.JobRequest;
 import com.enioka.jqm.client.api.Query.Sort;
 import com.enioka.jqm.client.api.State;
 import com.enioka.jqm.model.DeploymentParameter;
+import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.Queue;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
@@ -93,6 +95,47 @@ public class HighlanderTest extends JqmBaseTest
         jqmlogger.info("there were n histories: " + res.size());
     }
 
+    @Test
+    public void testHighlanderMultiNodeBatchedAttribution() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "batchedAttribution", "true");
+
+        HashMap<String, String> parameters = new HashMap<String, String>();
+        parameters.put("delay_ms", "200");
+        CreationTools.createJobDef(null, true, "pyl.Wait", parameters, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication1", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        CreationTools.createJobDef(null, true, "pyl.Wait", parameters, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication2", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+
+        JobRequest j1 = jqmClient.newJobRequest("MarsuApplication1", "TestUser");
+        JobRequest j2 = jqmClient.newJobRequest("MarsuApplication2", "TestUser");
+
+        addAndStartEngine();
+        addAndStartEngine("localhost4");
+        addAndStartEngine("localhost5");
+
+        for (int i = 0; i < 100; i++)
+        {
+            j1.enqueue();
+            j2.enqueue();
+        }
+        TestHelpers.waitFor(100, 30000, cnx);
+
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+
+        List<com.enioka.jqm.client.api.JobInstance> res = jqmClient.newQuery().addSortAsc(Sort.ID).setApplicationName("MarsuApplication1")
+                .invoke();
+        Calendar prevEnd = null;
+        for (com.enioka.jqm.client.api.JobInstance h : res)
+        {
+            if (h.getBeganRunningDate().before(prevEnd))
+            {
+                Assert.fail("executions were not exclusive");
+            }
+            prevEnd = h.getEndDate();
+        }
+    }
+
     @Test
     public void testHighlanderenqueueEngineDead() throws Exception
     {
@@ -192,4 +235,90 @@ public class HighlanderTest extends JqmBaseTest
         jqmClient.killJob(i3);
         TestHelpers.waitFor(2, 20000, cnx);
     }
+
+    // Many highlander JD inside the same poll heads, on two nodes. Second JI of each JD must wait for the end of the first one.
+    @Test
+    public void testHighlanderManyJobDefs() throws Exception
+    {
+        highlanderManyJobDefs();
+    }
+
+    @Test
+    public void testHighlanderManyJobDefsBatchedAttribution() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "batchedAttribution", "true");
+        highlanderManyJobDefs();
+    }
+
+    private void highlanderManyJobDefs() throws Exception
+    {
+        int jdCount = 100;
+
+        long qId = Queue.create(cnx, "testqueue", " ", false);
+        DeploymentParameter.create(cnx, TestHelpers.node.getId(), 60, 10, qId);
+        DeploymentParameter.create(cnx, TestHelpers.nodeMix.getId(), 60, 10, qId);
+        HashMap<String, String> parameters = new HashMap<String, String>();
+        parameters.put("delay_ms", "10000");
+        for (int i = 0; i < jdCount; i++)
+        {
+            CreationTools.createJobDef(null, true, "pyl.Wait", parameters, "jqm-tests/jqm-test-pyl/target/test.jar", qId, 42, "Marsu" + i,
+                    null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        }
+        cnx.commit();
+        for (int i = 0; i < jdCount; i++)
+        {
+            jqmClient.newJobRequest("Marsu" + i, "TestUser").enqueue();
+        }
+
+        addAndStartEngine();
+        addAndStartEngine("localhost4");
+
+        // Attribution throughput (run start is slower as each JD has its own class loader).
+        long start = System.currentTimeMillis();
+        while (cnx.runSelectSingle("ji_select_count_by_node", Integer.class, TestHelpers.node.getId())
+                + cnx.runSelectSingle("ji_select_count_by_node", Integer.class, TestHelpers.nodeMix.getId()) < jdCount
+                && System.currentTimeMillis() - start < 20000)
+        {
+            assertNoHighlanderOverlap();
+            Thread.sleep(10);
+        }
+        jqmlogger.info("{} highlander job instances were attributed in {} ms", jdCount, System.currentTimeMillis() - start);
+        assertNoHighlanderOverlap();
+
+        // All first JI are attributed, so these are new JI which must wait.
+        for (int i = 0; i < jdCount; i++)
+        {
+            jqmClient.newJobRequest("Marsu" + i, "TestUser").enqueue();
+        }
+
+        start = System.currentTimeMillis();
+        while (TestHelpers.getHistoryAllCount(cnx) < 2 * jdCount && System.currentTimeMillis() - start < 60000)
+        {
+            assertNoHighlanderOverlap();
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(2 * jdCount, TestHelpers.getOkCount(cnx));
+
+        for (int i = 0; i < jdCount; i++)
+        {
+            List<com.enioka.jqm.client.api.JobInstance> res = jqmClient.newQuery().addSortAsc(Sort.ID).setApplicationName("Marsu" + i)
+                    .invoke();
+            Assert.assertEquals(2, res.size());
+            Assert.assertFalse(res.get(1).getBeganRunningDate().before(res.get(0).getEndDate()));
+        }
+    }
+
+    // At most one instance of each highlander JD may be attributed or running, whatever the node.
+    private void assertNoHighlanderOverlap() throws Exception
+    {
+        try (ResultSet rs = cnx.runRawSelect("SELECT JOBDEF, COUNT(1) FROM __T__JOB_INSTANCE WHERE STATUS IN('ATTRIBUTED', 'RUNNING') "
+                + "GROUP BY JOBDEF HAVING COUNT(1) > 1"))
+        {
+            if (rs.next())
+            {
+                Assert.fail("Job definition " + rs.getLong(1) + " has " + rs.getInt(2) + " attributed or running instances");
+            }
+        }
+        cnx.commit();
+    }
 }
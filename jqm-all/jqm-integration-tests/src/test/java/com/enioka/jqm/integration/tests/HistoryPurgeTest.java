@@ -0,0 +1,134 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.integration.tests;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.enioka.jqm.engine.api.jmx.HistoryPurgerMBean;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.test.helpers.CreationTools;
+import com.enioka.jqm.test.helpers.TestHelpers;
+
+/**
+ * Tests of the history retention service.
+ */
+public class HistoryPurgeTest extends JqmBaseTest
+{
+    @Test
+    public void testPurgeWithArchive() throws Exception
+    {
+        File archiveDir = new File("./target/history-archive");
+        FileUtils.deleteDirectory(archiveDir);
+
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                "Nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        GlobalParameter.setParameter(cnx, "historyRetentionDays", "30");
+        GlobalParameter.setParameter(cnx, "historyPurgeBatchSize", "2");
+        GlobalParameter.setParameter(cnx, "historyArchiveDirectory", archiveDir.getPath());
+
+        // The purger is only reachable through JMX.
+        ServerSocket s1 = new ServerSocket(0);
+        int port1 = s1.getLocalPort();
+        ServerSocket s2 = new ServerSocket(0);
+        int port2 = s2.getLocalPort();
+        s1.close();
+        s2.close();
+        cnx.runUpdate("node_update_jmx_by_id", port1, port2, TestHelpers.node.getId());
+        cnx.commit();
+
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            ids.add(jqmClient.newJobRequest("Nothing", "TestUser").addParameter("arg", "value" + i).enqueue());
+        }
+        addAndStartEngine();
+        TestHelpers.waitFor(5, 20000, cnx);
+
+        // Three of them are now old.
+        cnx.runRawUpdate("UPDATE __T__HISTORY SET DATE_END = DATE_END - INTERVAL '100' DAY WHERE ID IN("
+                + StringUtils.join(ids.subList(0, 3), ",") + ")");
+        cnx.commit();
+
+        HistoryPurgerMBean purger = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName("com.enioka.jqm:type=Node.HistoryPurger,Node=" + TestHelpers.node.getName()), HistoryPurgerMBean.class);
+        purge(purger);
+
+        Assert.assertEquals("OK", purger.getLastRunResult());
+        Assert.assertEquals(3, purger.getPurgeableCountAtLastRunStart());
+        Assert.assertEquals(3, purger.getPurgedCountLastRun());
+        Assert.assertEquals(2, TestHelpers.getHistoryAllCount(cnx));
+        for (int i = 0; i < 5; i++)
+        {
+            try (ResultSet rs = cnx.runSelect("jiprm_select_by_ji", ids.get(i)))
+            {
+                Assert.assertEquals(i >= 3, rs.next());
+            }
+        }
+
+        // Archive: a header line and a line per purged job instance.
+        File[] histories = archiveDir.listFiles((d, n) -> n.startsWith("history."));
+        Assert.assertEquals(1, histories.length);
+        try (GZIPInputStream is = new GZIPInputStream(new FileInputStream(histories[0])))
+        {
+            List<String> lines = IOUtils.readLines(is, StandardCharsets.UTF_8);
+            Assert.assertEquals(4, lines.size());
+            Assert.assertTrue(lines.get(0).startsWith("ID,"));
+        }
+        File[] parameters = archiveDir.listFiles((d, n) -> n.startsWith("job_instance_parameter."));
+        Assert.assertEquals(1, parameters.length);
+
+        // Nothing left to purge.
+        purge(purger);
+        Assert.assertEquals("OK", purger.getLastRunResult());
+        Assert.assertEquals(0, purger.getPurgedCountLastRun());
+        Assert.assertEquals(3, purger.getPurgedCountTotal());
+
+        // A new purge never overwrites the archive of a previous one, even inside the same second.
+        cnx.runRawUpdate("UPDATE __T__HISTORY SET DATE_END = DATE_END - INTERVAL '100' DAY");
+        cnx.commit();
+        purge(purger);
+        Assert.assertEquals(5, purger.getPurgedCountTotal());
+        Assert.assertEquals(2, archiveDir.listFiles((d, n) -> n.startsWith("history.")).length);
+    }
+
+    // The purge runs inside its own thread, and is running as soon as purge() returns.
+    private void purge(HistoryPurgerMBean purger) throws InterruptedException
+    {
+        purger.purge();
+        for (int i = 0; i < 200 && purger.isRunning(); i++)
+        {
+            Thread.sleep(50);
+        }
+        Assert.assertFalse(purger.isRunning());
+    }
+}
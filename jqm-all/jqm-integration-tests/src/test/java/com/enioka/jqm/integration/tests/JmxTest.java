@@ -111,25 +111,38 @@ public class JmxTest extends JqmBaseTest
 
         // Kill it though JMX
         proxy.kill();
-        Thread.sleep(4000);
+        TestHelpers.waitFor(1, 10000, cnx);
 
         // //////////////////
         // Engine bean
         ObjectName engine = new ObjectName("com.enioka.jqm:type=Node,name=" + TestHelpers.node.getName());
         JqmEngineMBean proxyEngine = JMX.newMBeanProxy(mbsc, engine, JqmEngineMBean.class);
-        Assert.assertEquals(1, proxyEngine.getCumulativeJobInstancesCount() + proxyEngine.getCurrentlyRunningJobCount());
+        // The history is written before the end of the job instance is counted.
+        for (int j = 0; j < 100 && proxyEngine.getCumulativeJobInstancesCount() == 0; j++)
+        {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(1, proxyEngine.getCumulativeJobInstancesCount());
+        Assert.assertEquals(0, proxyEngine.getCurrentlyRunningJobCount());
         Assert.assertTrue(proxyEngine.getUptime() > 0);
         proxyEngine.getVersion();
         Assert.assertTrue(proxyEngine.isAllPollersPolling());
         Assert.assertTrue(!proxyEngine.isFull());
+        Assert.assertNotEquals(0, proxyEngine.getWaitTime95thPercentileMilliseconds()); // One launch was recorded.
+        Assert.assertTrue(proxyEngine.getMeanWaitTimeMilliseconds() >= 0);
+        Assert.assertTrue(proxyEngine.getJobsFinishedPerSecondLastMinute() > 0);
+        Assert.assertNotEquals(0, proxyEngine.getRunTime95thPercentileMilliseconds());
 
         // //////////////////
         // Poller bean
         ObjectName poller = new ObjectName("com.enioka.jqm:type=Node.Queue,Node=" + TestHelpers.node.getName() + ",name=VIPQueue");
         QueuePollerMBean proxyPoller = JMX.newMBeanProxy(mbsc, poller, QueuePollerMBean.class);
-        Assert.assertEquals(1, proxyPoller.getCumulativeJobInstancesCount() + proxyPoller.getCurrentActiveThreadCount());
+        Assert.assertEquals(1, proxyPoller.getCumulativeJobInstancesCount());
+        Assert.assertEquals((Integer) 0, proxyPoller.getCurrentActiveThreadCount());
         proxyPoller.getCurrentlyRunningJobCount();
         proxyPoller.getJobsFinishedPerSecondLastMinute();
+        proxyPoller.getMeanRunTimeMilliseconds();
+        Assert.assertNotEquals(0, proxyPoller.getWaitTime95thPercentileMilliseconds());
         Assert.assertEquals((Integer) 40, proxyPoller.getMaxConcurrentJobInstanceCount());
         Assert.assertEquals((Integer) 1, proxyPoller.getPollingIntervalMilliseconds());
 
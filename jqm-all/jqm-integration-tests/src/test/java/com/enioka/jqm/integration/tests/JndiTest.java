@@ -26,10 +26,12 @@ import java.util.Map;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.spi.NamingManager;
 
 import com.enioka.jqm.client.api.State;
+import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
 
@@ -160,6 +162,40 @@ public class JndiTest extends JqmBaseTest
         JqmSimpleTest.create(cnx, "pyl.JndiFile", "jqm-test-pyl-nodep").run(this);
     }
 
+    @Test
+    public void testJndiDefinitionCache() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "internalPollingPeriodMs", "500");
+        CreationTools.createJndiString(cnx, "string/test", "test string", "value1"); // Not a singleton
+        CreationTools.createJndiUrl(cnx, "url/testurl", "test url", "http://www.marsupilami.com"); // Singleton
+        cnx.commit();
+        addAndStartEngine();
+
+        // Definitions are only read once.
+        Context ctx = NamingManager.getInitialContext(null);
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.enioka.jqm:type=JndiContext");
+        long misses = (Long) mbs.getAttribute(name, "DescriptorCacheMisses");
+        long hits = (Long) mbs.getAttribute(name, "DescriptorCacheHits");
+        for (int i = 0; i < 10; i++)
+        {
+            Assert.assertEquals("value1", ctx.lookup("string/test"));
+        }
+        Assert.assertEquals(misses + 1, (long) (Long) mbs.getAttribute(name, "DescriptorCacheMisses"));
+        Assert.assertEquals(hits + 9, (long) (Long) mbs.getAttribute(name, "DescriptorCacheHits"));
+        Assert.assertEquals("http://www.marsupilami.com", ctx.lookup("url/testurl").toString());
+
+        // Changed definitions are seen by the engine, which refreshes the cache and the changed singletons.
+        sleep(1);
+        cnx.runUpdate("jndiprm_update_value_by_key", "value2", "STRING");
+        cnx.runUpdate("jndiprm_update_value_by_key", "http://www.enioka.com", "URL");
+        cnx.commit();
+        sleep(2);
+
+        Assert.assertEquals("value2", ctx.lookup("string/test"));
+        Assert.assertEquals("http://www.enioka.com", ctx.lookup("url/testurl").toString());
+    }
+
     @Test
     public void testJndiServerName() throws Exception
     {
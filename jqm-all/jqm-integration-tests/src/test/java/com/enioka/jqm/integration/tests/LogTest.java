@@ -6,6 +6,7 @@ import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Assert;
 import org.junit.Before;
@@ -14,11 +15,15 @@ import org.junit.Test;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * All tests directly concerning payload logging.
@@ -205,4 +210,139 @@ public class LogTest extends JqmBaseTest {
         }
     }
 
+    @Test
+    public void testMultiLogConcurrentPayloads() throws Exception {
+        PrintStream out_ini = System.out;
+        PrintStream err_ini = System.err;
+
+        try {
+            // Small buffers, so that they are written many times during the run.
+            GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
+            GlobalParameter.setParameter(cnx, "logFileBufferSize", "1000");
+            CreationTools.createJobDef(null, true, "pyl.PrintALot", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                    "PrintALot", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+            cnx.commit();
+
+            int nbLines = 5000;
+            List<Long> ids = new ArrayList<>();
+            for (int j = 0; j < 10; j++) {
+                ids.add(jqmClient.newJobRequest("PrintALot", "TestUser").addParameter("lines", "" + nbLines).enqueue());
+            }
+            addAndStartEngine();
+            TestHelpers.waitFor(10, 60000, cnx);
+            Assert.assertEquals(10, TestHelpers.getOkCount(cnx));
+
+            // Every payload must have its own lines, complete and in order. (Engine logging on the payload thread may be there too.)
+            for (long i : ids) {
+                File f = new File(FilenameUtils.concat("./target/server/logs", StringUtils.leftPad("" + i, 10, "0") + ".stdout.log"));
+                List<String> lines = new ArrayList<>();
+                for (String line : Files.readAllLines(f.toPath())) {
+                    if (!line.contains("|")) {
+                        lines.add(line);
+                    }
+                }
+                Assert.assertEquals(nbLines, lines.size());
+                for (int l = 0; l < nbLines; l++) {
+                    Assert.assertEquals("line " + l, lines.get(l));
+                }
+
+                File fErr = new File(FilenameUtils.concat("./target/server/logs", StringUtils.leftPad("" + i, 10, "0") + ".stderr.log"));
+                Assert.assertTrue(FileUtils.readFileToString(fErr, "UTF-8").trim().endsWith("done"));
+            }
+        } finally {
+            System.setErr(err_ini);
+            System.setOut(out_ini);
+        }
+    }
+
+    @Test
+    public void testGetLogPart() throws Exception {
+        PrintStream out_ini = System.out;
+        PrintStream err_ini = System.err;
+
+        try {
+            GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
+            GlobalParameter.setParameter(cnx, "disableWsApi", "false");
+            GlobalParameter.setParameter(cnx, "enableWsApiAuth", "false");
+            GlobalParameter.setParameter(cnx, "enableWsApiSsl", "false");
+            CreationTools.createJobDef(null, true, "pyl.PrintALot", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                    "PrintALot", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+            cnx.commit();
+
+            long i = jqmClient.newJobRequest("PrintALot", "TestUser").addParameter("lines", "1000").enqueue();
+            addAndStartEngine();
+            TestHelpers.waitFor(1, 20000, cnx);
+            Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+
+            byte[] full;
+            try (InputStream is = jqmClient.getJobLogStdOut(i)) {
+                full = IOUtils.toByteArray(is);
+            }
+            Assert.assertTrue(full.length > 1000);
+
+            // Middle of the file.
+            try (InputStream is = jqmClient.getJobLogStdOut(i, 100, 50)) {
+                Assert.assertArrayEquals(Arrays.copyOfRange(full, 100, 150), IOUtils.toByteArray(is));
+            }
+
+            // Tail of the file.
+            try (InputStream is = jqmClient.getJobLogStdOut(i, -200, 0)) {
+                Assert.assertArrayEquals(Arrays.copyOfRange(full, full.length - 200, full.length), IOUtils.toByteArray(is));
+            }
+
+            // From an offset to the end.
+            try (InputStream is = jqmClient.getJobLogStdOut(i, full.length - 10, 0)) {
+                Assert.assertArrayEquals(Arrays.copyOfRange(full, full.length - 10, full.length), IOUtils.toByteArray(is));
+            }
+
+            // Beyond the end: nothing.
+            try (InputStream is = jqmClient.getJobLogStdOut(i, full.length + 10, 0)) {
+                Assert.assertEquals(0, IOUtils.toByteArray(is).length);
+            }
+        } finally {
+            System.setErr(err_ini);
+            System.setOut(out_ini);
+        }
+    }
+
+    @Test
+    public void testFollowLog() throws Exception {
+        PrintStream out_ini = System.out;
+        PrintStream err_ini = System.err;
+
+        try {
+            GlobalParameter.setParameter(cnx, "logFilePerLaunch", "true");
+            GlobalParameter.setParameter(cnx, "logFileFlushPeriodMs", "100");
+            GlobalParameter.setParameter(cnx, "disableWsApi", "false");
+            GlobalParameter.setParameter(cnx, "enableWsApiAuth", "false");
+            GlobalParameter.setParameter(cnx, "enableWsApiSsl", "false");
+            CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                    "Wait", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+            cnx.commit();
+
+            long i = jqmClient.newJobRequest("Wait", "TestUser").addParameter("ms", "3000").enqueue();
+            addAndStartEngine();
+            TestHelpers.waitForRunning(1, 20000, cnx);
+
+            // The stream is opened while the job instance runs, and must only end with it.
+            String content;
+            try (InputStream is = jqmClient.followJobLogStdOut(i, 0)) {
+                content = IOUtils.toString(is, StandardCharsets.UTF_8);
+            }
+            Assert.assertTrue(content.contains("Starting to wait for 3000ms."));
+            Assert.assertTrue(content.contains("Done waiting"));
+            Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
+
+            // Following an ended job instance simply gives the end of its log.
+            try (InputStream is = jqmClient.followJobLogStdOut(i, -5)) {
+                Assert.assertEquals(content.substring(content.length() - 5), IOUtils.toString(is, StandardCharsets.UTF_8));
+            }
+            try (InputStream is = jqmClient.followJobLogStdOut(i, content.getBytes(StandardCharsets.UTF_8).length)) {
+                Assert.assertEquals(0, IOUtils.toByteArray(is).length);
+            }
+        } finally {
+            System.setErr(err_ini);
+            System.setOut(out_ini);
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.integration.tests;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.Node;
+import com.enioka.jqm.test.helpers.CreationTools;
+import com.enioka.jqm.test.helpers.TestHelpers;
+
+/**
+ * Tests of the metrics web API.
+ */
+public class MetricsTest extends JqmBaseTest
+{
+    @Test
+    public void testMetrics() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "disableWsApi", "false");
+        GlobalParameter.setParameter(cnx, "enableWsApiAuth", "false");
+
+        // Metrics are read from the JMX beans.
+        ServerSocket s1 = new ServerSocket(0);
+        int port1 = s1.getLocalPort();
+        ServerSocket s2 = new ServerSocket(0);
+        int port2 = s2.getLocalPort();
+        s1.close();
+        s2.close();
+        cnx.runUpdate("node_update_jmx_by_id", port1, port2, TestHelpers.node.getId());
+        cnx.commit();
+
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", TestHelpers.qVip, 42,
+                "Nothing", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        jqmClient.newJobRequest("Nothing", "TestUser").enqueue();
+        jqmClient.newJobRequest("Nothing", "TestUser").enqueue();
+
+        addAndStartEngine();
+        TestHelpers.waitFor(2, 20000, cnx);
+        this.sleep(1);
+
+        int port = Node.select_single(cnx, "node_select_by_id", TestHelpers.node.getId()).getPort();
+        var uri = URI.create("http://" + TestHelpers.node.getDns() + ":" + port + "/ws/metrics");
+        var res = HttpClient.newHttpClient().send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+        jqmlogger.debug(res.body());
+
+        Assert.assertEquals(res.body(), 200, res.statusCode());
+        Assert.assertTrue(res.headers().firstValue("Content-Type").get().startsWith("text/plain"));
+
+        String node = "node=\"" + TestHelpers.node.getName() + "\"";
+        String body = res.body();
+        Assert.assertTrue(body.contains("# TYPE jqm_engine_ended_job_instances_total counter"));
+        Assert.assertTrue(body.contains("jqm_engine_ended_job_instances_total{" + node + "} 2\n"));
+        Assert.assertTrue(body.contains("jqm_queue_ended_job_instances_total{" + node + ",queue=\"VIPQueue\"} 2\n"));
+        Assert.assertTrue(body.contains("jqm_queue_attributed_job_instances_total{" + node + ",queue=\"VIPQueue\"} 2\n"));
+        Assert.assertTrue(body.contains("jqm_queue_free_slots{" + node + ",queue=\"VIPQueue\"} 40\n"));
+        Assert.assertTrue(body.contains("jqm_engine_run_time_seconds_count{" + node + "} 2\n"));
+        Assert.assertTrue(body.contains("jqm_engine_wait_time_seconds_bucket{" + node + ",le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(body.contains("# TYPE jqm_engine_end_of_run_persistence_seconds histogram"));
+        String rm = "jqm_resource_manager_slots_available{" + node + ",queue=\"VIPQueue\",resource_manager=";
+        Assert.assertTrue(body.contains(rm + "\"thread\"} 40\n"));
+        Assert.assertTrue(body.contains(rm + "\"highlander\"} +Inf\n"));
+        Assert.assertTrue(body.contains("jqm_queue_poll_loops_total{"));
+        Assert.assertTrue(body.contains("jqm_java_shared_class_loaders{" + node + "} 0\n"));
+        Assert.assertTrue(body.contains("jqm_jvm_metaspace_used_bytes{" + node + "} "));
+    }
+}
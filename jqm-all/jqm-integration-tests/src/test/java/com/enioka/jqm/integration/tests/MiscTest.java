@@ -15,11 +15,17 @@
  */
 package com.enioka.jqm.integration.tests;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Properties;
 
+import javax.management.JMX;
+import javax.management.ObjectName;
+
 import com.enioka.api.admin.RUserDto;
 import jakarta.mail.Folder;
 import jakarta.mail.Session;
@@ -28,18 +34,26 @@ import jakarta.mail.Store;
 import com.enioka.admin.MetaService;
 import com.enioka.api.admin.JndiObjectResourceDto;
 import com.enioka.jqm.engine.api.exceptions.JqmInitErrorTooSoon;
+import com.enioka.jqm.model.DeploymentParameter;
 import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.JobDef.PathType;
+import com.enioka.jqm.model.Queue;
+import com.enioka.jqm.runner.java.api.jmx.ClassloaderManagerMBean;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
 import com.enioka.jqm.xml.XmlJobDefParser;
 
 import org.junit.Assert;
 import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class MiscTest extends JqmBaseTest
 {
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
     @Test
     public void testEmail() throws Exception
     {
@@ -257,6 +271,52 @@ public class MiscTest extends JqmBaseTest
         Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
     }
 
+    @Test
+    public void testMavenArtifactClasspathCache() throws Exception
+    {
+        // The cache lives inside the node repository: use an empty one rather than the source tree.
+        File repo = tmpFolder.newFolder("repo");
+        File cacheDir = new File(repo, ".maven-classpath-cache");
+        cnx.runRawUpdate("UPDATE __T__NODE SET REPO_JOB_DEF='" + repo.getAbsolutePath() + "' WHERE ID=" + TestHelpers.node.getId());
+
+        // Beans are only registered when JMX is enabled. No registry port: no remote agent, so the engine can be restarted at once.
+        ServerSocket s = new ServerSocket(0);
+        int port = s.getLocalPort();
+        s.close();
+        cnx.runUpdate("node_update_jmx_by_id", 0, port, TestHelpers.node.getId());
+        cnx.commit();
+
+        CreationTools.createJobDef(null, true, "pyl.Nothing", null, "com.enioka.jqm:jqm-test-pyl-nodep:1.3.2", TestHelpers.qVip, 42,
+                "jqm-test-maven", null, "Franquin", "ModuleMachin", "other", "other", false, cnx, null, false, null, false, PathType.MAVEN);
+        jqmClient.newJobRequest("jqm-test-maven", null).enqueue();
+        addAndStartEngine();
+        TestHelpers.waitFor(1, 10000, cnx);
+        jqmClient.newJobRequest("jqm-test-maven", null).enqueue();
+        TestHelpers.waitFor(2, 10000, cnx);
+
+        ObjectName name = new ObjectName("com.enioka.jqm:type=Node.JavaRunner,Node=" + TestHelpers.node.getName());
+        ClassloaderManagerMBean bean = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), name, ClassloaderManagerMBean.class);
+        Assert.assertEquals(1, bean.getMavenCacheMisses());
+        Assert.assertEquals(1, bean.getMavenCacheHits());
+        Assert.assertEquals(1, bean.getMavenCacheSize());
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+
+        // The resolved class path survives a restart.
+        stopAndRemoveEngine("localhost");
+        jqmClient.newJobRequest("jqm-test-maven", null).enqueue();
+        addAndStartEngine();
+        TestHelpers.waitFor(3, 10000, cnx);
+
+        bean = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), name, ClassloaderManagerMBean.class);
+        Assert.assertEquals(0, bean.getMavenCacheMisses());
+        Assert.assertEquals(1, bean.getMavenCacheHits());
+        Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+
+        bean.clearMavenCache();
+        Assert.assertEquals(0, bean.getMavenCacheSize());
+        Assert.assertFalse(cacheDir.exists());
+    }
+
     @Test
     public void testMetaJndiBug()
     {
@@ -374,4 +434,98 @@ public class MiscTest extends JqmBaseTest
         Assert.assertEquals("free", userUpdated.getFreeText());
         Assert.assertEquals(userSaved.getExpirationDate(), userUpdated.getExpirationDate());
     }
+
+    // Pooled threads are reused: a killed JI must not leave anything behind for the next ones.
+    @Test
+    public void testPooledPayloadThreads() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "payloadThreadMode", "pool");
+        GlobalParameter.setParameter(cnx, "payloadThreadPoolSize", "1");
+        long qId = Queue.create(cnx, "testqueue", " ", false);
+        DeploymentParameter.create(cnx, TestHelpers.node.getId(), 1, 10, qId);
+        CreationTools.createJobDef(null, true, "pyl.KillMe", null, "jqm-tests/jqm-test-pyl/target/test.jar", qId, 42, "jqm-test-kill",
+                null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSend3Msg", null, "jqm-tests/jqm-test-pyl/target/test.jar", qId, 42,
+                "jqm-test-msg", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        addAndStartEngine();
+
+        long killed = jqmClient.enqueue("jqm-test-kill", "test");
+        TestHelpers.waitForRunning(1, 10000, cnx);
+        jqmClient.killJob(killed);
+        TestHelpers.waitFor(1, 10000, cnx);
+
+        for (int i = 0; i < 20; i++)
+        {
+            jqmClient.enqueue("jqm-test-msg", "test");
+        }
+        TestHelpers.waitFor(21, 30000, cnx);
+
+        Assert.assertEquals(20, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(1, TestHelpers.getNonOkCount(cnx));
+    }
+
+    // Pooled threads are reused: a JI must not share its thread group with the threads left behind by a previous one.
+    @Test
+    public void testPooledPayloadThreadsLeftBehind() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "payloadThreadMode", "pool");
+        GlobalParameter.setParameter(cnx, "payloadThreadPoolSize", "1");
+        CreationTools.createJobDef(null, true, "pyl.ThreadLeftBehind", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                42, "jqm-test-left", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        addAndStartEngine();
+
+        for (int i = 1; i <= 3; i++)
+        {
+            jqmClient.enqueue("jqm-test-left", "test");
+            TestHelpers.waitFor(i, 10000, cnx);
+        }
+
+        Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+    }
+
+    // Virtual threads are not supported and platform threads are used instead - JI must run.
+    @Test
+    public void testVirtualPayloadThreads() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "payloadThreadMode", "virtual");
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSend3Msg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                42, "jqm-test-msg", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        addAndStartEngine();
+
+        for (int i = 0; i < 10; i++)
+        {
+            jqmClient.enqueue("jqm-test-msg", "test");
+        }
+        TestHelpers.waitFor(10, 30000, cnx);
+
+        Assert.assertEquals(10, TestHelpers.getOkCount(cnx));
+    }
+
+    // Results of many short JI are stored by batches - nothing must be lost or left inside the queue.
+    @Test
+    public void testEndOfRunBatches() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "endOfRunBatchSize", "10");
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSend3Msg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                42, "jqm-test-msg", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        cnx.commit();
+
+        addAndStartEngine();
+
+        for (int i = 0; i < 95; i++)
+        {
+            jqmClient.enqueue("jqm-test-msg", "test");
+        }
+        TestHelpers.waitFor(95, 60000, cnx);
+        sleep(1); // Let a potential duplicate appear.
+
+        Assert.assertEquals(95, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
+    }
 }
@@ -116,6 +116,72 @@ public class MultiNodeTest extends JqmBaseTest
         Assert.assertTrue(jqmClient.newQuery().setNodeName("localhost5").invoke().size() > 0L);
     }
 
+    @Test
+    public void testOneQueueThreeNodesBatchedAttribution() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "batchedAttribution", "true");
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42,
+                "AppliNode1-1", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        JobRequest j11 = jqmClient.newJobRequest("AppliNode1-1", "TestUser");
+        for (int i = 0; i < 10; i++)
+        {
+            j11.enqueue();
+        }
+
+        addAndStartEngine("localhost");
+        addAndStartEngine("localhost4");
+        addAndStartEngine("localhost5");
+
+        for (int j = 0; j < 3; j++)
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                j11.enqueue();
+            }
+            Thread.sleep(200);
+        }
+        TestHelpers.waitFor(40, 60000, cnx);
+        Thread.sleep(2000); // to ensure there are no additional runs
+
+        // Each JI must have been claimed by exactly one node.
+        Assert.assertEquals(40, (int) cnx.runSelectSingle("message_select_count_all", Integer.class));
+        Assert.assertEquals(40, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
+    @Test
+    public void testOneQueueThreeNodesPrefetch() throws Exception
+    {
+        GlobalParameter.setParameter(cnx, "pollerPrefetchSize", "20");
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42,
+                "AppliNode1-1", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        JobRequest j11 = jqmClient.newJobRequest("AppliNode1-1", "TestUser");
+        for (int i = 0; i < 10; i++)
+        {
+            j11.enqueue();
+        }
+
+        addAndStartEngine("localhost");
+        addAndStartEngine("localhost4");
+        addAndStartEngine("localhost5");
+
+        for (int j = 0; j < 3; j++)
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                j11.enqueue();
+            }
+            Thread.sleep(200);
+        }
+        TestHelpers.waitFor(40, 60000, cnx);
+        Thread.sleep(2000); // to ensure there are no additional runs
+
+        // Each JI must have been claimed by exactly one node.
+        Assert.assertEquals(40, (int) cnx.runSelectSingle("message_select_count_all", Integer.class));
+        Assert.assertEquals(40, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
     @Test
     public void testTwoNodesTwoQueues() throws Exception
     {
@@ -364,4 +430,47 @@ public class MultiNodeTest extends JqmBaseTest
 
         jqmlogger.info("" + (Calendar.getInstance().getTimeInMillis() - c.getTimeInMillis()) / 1000);
     }
+
+    @Test
+    public void testPollHeadContention()
+    {
+        long size = 300;
+
+        long qId = Queue.create(cnx, "testqueue", "super test queue", false);
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar", qId, 42, "appliname",
+                null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+
+        Node n0 = Node.create(cnx, "n0", 0, "./target/outputfiles/", "./../", "./target/tmp", "localhost", "INFO");
+        Node n1 = Node.create(cnx, "n1", 0, "./target/outputfiles/", "./../", "./target/tmp", "localhost", "INFO");
+        Node n2 = Node.create(cnx, "n2", 0, "./target/outputfiles/", "./../", "./target/tmp", "localhost", "INFO");
+        Node n3 = Node.create(cnx, "n3", 0, "./target/outputfiles/", "./../", "./target/tmp", "localhost", "INFO");
+        DeploymentParameter.create(cnx, n0.getId(), 3, 1, qId);
+        DeploymentParameter.create(cnx, n1.getId(), 3, 1, qId);
+        DeploymentParameter.create(cnx, n2.getId(), 3, 1, qId);
+        DeploymentParameter.create(cnx, n3.getId(), 3, 1, qId);
+        cnx.commit();
+
+        for (int i = 0; i < size; i++)
+        {
+            jqmClient.newJobRequest("appliname", "user").enqueue();
+        }
+
+        // The poll must only return the head of the queue, not the whole queue.
+        Queue q = Queue.select(cnx, "q_select_by_id", qId).get(0);
+        int headSize = cnx.poll(q, 10).size();
+        Assert.assertTrue(headSize > 0 && headSize <= 10);
+        cnx.rollback();
+
+        // All engines poll the same (deep) queue at the same time: each JI must still run exactly once.
+        this.addAndStartEngine("n0");
+        this.addAndStartEngine("n1");
+        this.addAndStartEngine("n2");
+        this.addAndStartEngine("n3");
+
+        TestHelpers.waitFor(size, 120000, cnx);
+
+        Assert.assertEquals(size, (long) cnx.runSelectSingle("message_select_count_all", Long.class));
+        Assert.assertEquals(size, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
 }
@@ -15,6 +15,13 @@
  */
 package com.enioka.jqm.integration.tests;
 
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+
+import com.enioka.jqm.runner.java.api.jmx.ClassloaderManagerMBean;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
 
@@ -79,6 +86,34 @@ public class PackageTest extends JqmBaseTest
         Assert.assertEquals(1, TestHelpers.getNonOkCount(cnx));
     }
 
+    @Test
+    public void testConcurrentLaunchesResolveOnce() throws Exception
+    {
+        // Beans are only registered when JMX is enabled.
+        ServerSocket s = new ServerSocket(0);
+        int port = s.getLocalPort();
+        s.close();
+        cnx.runUpdate("node_update_jmx_by_id", 0, port, TestHelpers.node.getId());
+        cnx.commit();
+
+        CreationTools.createJobDef(null, true, "App", null, "jqm-tests/jqm-test-datetimemaven/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        for (int i = 0; i < 20; i++)
+        {
+            jqmClient.newJobRequest("MarsuApplication", "TestUser").enqueue();
+        }
+
+        addAndStartEngine();
+        TestHelpers.waitFor(20, 30000, cnx);
+
+        Assert.assertEquals(20, TestHelpers.getOkCount(cnx));
+        ClassloaderManagerMBean bean = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName("com.enioka.jqm:type=Node.JavaRunner,Node=" + TestHelpers.node.getName()), ClassloaderManagerMBean.class);
+        Assert.assertEquals(1, bean.getFsCacheMisses());
+        Assert.assertEquals(19, bean.getFsCacheHits());
+        Assert.assertEquals(1, bean.getFsCacheSize());
+    }
+
     @Test
     public void testInheritedLegacyPayload() throws Exception
     {
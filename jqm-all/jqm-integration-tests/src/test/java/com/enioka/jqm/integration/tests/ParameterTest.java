@@ -18,6 +18,11 @@
 
 package com.enioka.jqm.integration.tests;
 
+import com.enioka.jqm.client.api.JobRequest;
+import com.enioka.jqm.test.helpers.CreationTools;
+import com.enioka.jqm.test.helpers.TestHelpers;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 public class ParameterTest extends JqmBaseTest
@@ -50,4 +55,24 @@ public class ParameterTest extends JqmBaseTest
                 .addRuntimeParameter("arg1", "argument1").addRuntimeParameter("arg2", "argument2").run(this);
     }
 
+    // Parameters of a polled queue head are loaded in bulk - check each JI still gets its own.
+    @Test
+    public void testRuntimeParametersManyInstances() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "pyl.JobBaseGetParam", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, 42,
+                "jqm-test-prm", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+
+        for (int i = 0; i < 100; i++)
+        {
+            JobRequest jr = jqmClient.newJobRequest("jqm-test-prm", "test").addParameter("arg1", "argument1");
+            jr.addParameter("arg2", i % 2 == 0 ? "argument2" : "Franquin").enqueue();
+        }
+
+        addAndStartEngine();
+        TestHelpers.waitFor(100, 60000, cnx);
+
+        Assert.assertEquals(50, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(50, TestHelpers.getNonOkCount(cnx));
+    }
+
 }
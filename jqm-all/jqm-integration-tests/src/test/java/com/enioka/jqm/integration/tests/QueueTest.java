@@ -1,14 +1,18 @@
 package com.enioka.jqm.integration.tests;
 
+import java.sql.ResultSet;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.enioka.admin.MetaService;
 import com.enioka.jqm.client.api.JobInstance;
 import com.enioka.jqm.client.api.JqmInvalidRequestException;
 import com.enioka.jqm.client.api.State;
 import com.enioka.jqm.model.DeploymentParameter;
 import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.Instruction;
 import com.enioka.jqm.model.Queue;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
@@ -158,6 +162,37 @@ public class QueueTest extends JqmBaseTest
                 Assert.assertTrue(ji1.getBeganRunningDate().compareTo(ji2.getEndDate()) >= 0);
         }
 
+        @Test
+        public void testDeploymentParameterChangeWhileRunning() throws Exception
+        {
+                // Single thread available at first.
+                long qId = Queue.create(cnx, "testqueue", " ", false);
+                DeploymentParameter dp = DeploymentParameter.create(cnx, TestHelpers.node.getId(), 1, 1, qId);
+
+                CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId, 42,
+                                "jqm-test-wait", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                for (int i = 0; i < 3; i++)
+                {
+                        jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "6000").enqueue();
+                }
+                addAndStartEngine();
+                TestHelpers.waitForRunning(1, 10000, cnx);
+                this.sleep(1);
+                Assert.assertEquals(1, TestHelpers.getQueueRunningCount(cnx));
+
+                // Changed directly inside the database, without any notification: seen by the configuration version check.
+                cnx.runUpdate("dp_update_threads_by_id", 3, dp.getId());
+                cnx.commit();
+
+                TestHelpers.waitForRunning(3, 4000, cnx);
+                Assert.assertEquals(3, TestHelpers.getQueueRunningCount(cnx));
+
+                TestHelpers.waitFor(3, 20000, cnx);
+                Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+        }
+
         @Test(expected = JqmInvalidRequestException.class)
         public void testPriorityLimits()
         {
@@ -329,4 +364,170 @@ public class QueueTest extends JqmBaseTest
                 Assert.assertEquals(0, TestHelpers.getQueueRunningCount(cnx));
                 Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
         }
+
+        // Discrete RM with many items, each JI taking a lot of them.
+        @Test
+        public void testRmDiscreteManyItems() throws Exception
+        {
+                long qId = Queue.create(cnx, "testqueue", " ", false);
+                DeploymentParameter.create(cnx, TestHelpers.node.getId(), 40, 1, qId);
+
+                StringBuilder items = new StringBuilder();
+                for (int i = 0; i < 200; i++)
+                {
+                        items.append(i == 0 ? "" : ",").append("p").append(i); // Parameter values are limited to 1000 characters.
+                }
+                GlobalParameter.setParameter(cnx, "discreteRmName", "ports");
+                GlobalParameter.setParameter(cnx, "discreteRmList", items.toString());
+
+                Map<String, String> prms = new HashMap<>(1);
+                prms.put("com.enioka.jqm.rm.discrete.consumption", "80");
+                CreationTools.createJobDef(null, true, "pyl.KillMe", prms, "jqm-tests/jqm-test-pyl/target/test.jar", qId, 42,
+                                "jqm-test-kill", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                jqmClient.newJobRequest("jqm-test-kill", "test").setPriority(null).enqueue();
+                jqmClient.newJobRequest("jqm-test-kill", "test").setPriority(null).enqueue();
+                jqmClient.newJobRequest("jqm-test-kill", "test").setPriority(null).enqueue();
+
+                addAndStartEngine();
+                TestHelpers.waitForRunning(2, 60000, cnx);
+                sleep(1); // Time for bugs to happen.
+
+                // Only two can run: 200 items, 80 per JI.
+                Assert.assertEquals(2, TestHelpers.getQueueRunningCount(cnx));
+
+                // Kill one, the last JI should start with the released items.
+                long toKill = jqmClient.newQuery().setQueryHistoryInstances(false).setQueryLiveInstances(true).addStatusFilter(State.RUNNING)
+                                .invoke().get(0).getId();
+                jqmClient.killJob(toKill);
+                TestHelpers.waitFor(1, 60000, cnx);
+                TestHelpers.waitForRunning(2, 60000, cnx);
+                Assert.assertEquals(2, TestHelpers.getQueueRunningCount(cnx));
+
+                for (JobInstance ji : jqmClient.newQuery().setQueryHistoryInstances(false).setQueryLiveInstances(true)
+                                .addStatusFilter(State.RUNNING).invoke())
+                {
+                        jqmClient.killJob(ji.getId());
+                }
+                TestHelpers.waitFor(3, 60000, cnx);
+                Assert.assertEquals(3, TestHelpers.getNonOkCount(cnx));
+        }
+
+        // Buffered JI must be revalidated when claimed: here one has been moved to another queue and one paused while buffered.
+        @Test
+        public void testPollerPrefetch() throws Exception
+        {
+                GlobalParameter.setParameter(cnx, "pollerPrefetchSize", "10");
+                long qId = Queue.create(cnx, "testqueue", " ", false);
+                long otherQId = Queue.create(cnx, "otherqueue", " ", false);
+                DeploymentParameter.create(cnx, TestHelpers.node.getId(), 1, 60000, qId); // One poll per minute.
+                CreationTools.createJobDef(null, true, "pyl.Wait", null, "jqm-tests/jqm-test-pyl-nodep/target/test.jar", qId, 42,
+                                "jqm-test-wait", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "3000").enqueue();
+                long i2 = jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "100").enqueue();
+                long i3 = jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "100").enqueue();
+                jqmClient.newJobRequest("jqm-test-wait", "test").addParameter("ms", "100").enqueue();
+
+                addAndStartEngine();
+                sleep(1); // First JI is running, the three others are buffered.
+                jqmClient.setJobQueue(i2, otherQId);
+                jqmClient.pauseQueuedJob(i3);
+
+                // The end of the first JI starts the next valid one from the buffer, long before the next poll.
+                TestHelpers.waitFor(2, 15000, cnx);
+                sleep(1);
+
+                Assert.assertEquals(2, TestHelpers.getOkCount(cnx));
+                Assert.assertEquals(2, TestHelpers.getQueueAllCount(cnx));
+                Assert.assertEquals(State.SUBMITTED, jqmClient.getJob(i2).getState());
+                Assert.assertEquals(State.HOLDED, jqmClient.getJob(i3).getState());
+        }
+
+        // An invalid prefetch size only disables prefetch.
+        @Test
+        public void testPollerPrefetchInvalidSize() throws Exception
+        {
+                GlobalParameter.setParameter(cnx, "pollerPrefetchSize", "many");
+                CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar",
+                                TestHelpers.qVip, 42, "jqm-test-msg", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                jqmClient.newJobRequest("jqm-test-msg", "test").enqueue();
+                jqmClient.newJobRequest("jqm-test-msg", "test").enqueue();
+                addAndStartEngine();
+                TestHelpers.waitFor(2, 15000, cnx);
+
+                Assert.assertEquals(2, TestHelpers.getOkCount(cnx));
+        }
+
+        // New JI enqueued from the same JVM must not wait for the end of the polling period.
+        @Test
+        public void testWakeUpOnLocalEnqueue() throws Exception
+        {
+                long qId = Queue.create(cnx, "testqueue", " ", false);
+                DeploymentParameter.create(cnx, TestHelpers.node.getId(), 5, 60000, qId); // One poll per minute.
+                CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar", qId, 42,
+                                "jqm-test-msg", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                addAndStartEngine();
+                sleep(2); // First poll is done at startup.
+
+                jqmClient.newJobRequest("jqm-test-msg", "test").enqueue();
+                TestHelpers.waitFor(1, 15000, cnx);
+
+                Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        }
+
+        // Same, but the JI is submitted without the in-JVM signal, as if it came from another node.
+        @Test
+        public void testWakeUpOnDatabaseSignal() throws Exception
+        {
+                long qId = Queue.create(cnx, "testqueue", " ", false);
+                DeploymentParameter.create(cnx, TestHelpers.node.getId(), 5, 60000, qId); // One poll per minute.
+                long jdId = CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar",
+                                qId, 42, "jqm-test-msg", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+                cnx.commit();
+
+                addAndStartEngine();
+                sleep(2); // First poll is done at startup.
+
+                com.enioka.jqm.model.JobInstance.enqueue(cnx, com.enioka.jqm.model.State.SUBMITTED, qId, jdId, null, null, null, null,
+                                null, null, null, "test", null, false, false, null, 0, Instruction.RUN, new HashMap<>());
+                cnx.commit();
+                cnx.signalQueue(qId);
+                cnx.commit();
+                TestHelpers.waitFor(1, 15000, cnx);
+
+                Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        }
+
+        // Deleting a queue must not leave its signal row behind.
+        @Test
+        public void testDeleteQueueRemovesVersion() throws Exception
+        {
+                long qId = Queue.create(cnx, "testqueue", " ", false);
+                cnx.commit();
+                Assert.assertTrue(getQueueVersionIds().contains(qId));
+
+                MetaService.deleteQueue(cnx, qId);
+                cnx.commit();
+                Assert.assertFalse(getQueueVersionIds().contains(qId));
+        }
+
+        private List<Long> getQueueVersionIds() throws Exception
+        {
+                List<Long> res = new ArrayList<>();
+                try (ResultSet rs = cnx.runSelect("qv_select_all"))
+                {
+                        while (rs.next())
+                        {
+                                res.add(rs.getLong(1));
+                        }
+                }
+                return res;
+        }
 }
@@ -24,10 +24,12 @@ import java.rmi.Remote;
 import java.rmi.registry.Registry;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -37,10 +39,12 @@ import javax.naming.InitialContext;
 import javax.naming.Name;
 import javax.naming.NameParser;
 import javax.naming.NamingException;
+import javax.naming.RefAddr;
 import javax.naming.spi.InitialContextFactory;
 import javax.naming.spi.InitialContextFactoryBuilder;
 
 import com.enioka.jqm.cl.ExtClassLoader;
+import com.enioka.jqm.jndi.api.JndiContextMBean;
 import com.enioka.jqm.runner.java.api.jndi.JavaPayloadClassLoader;
 
 import org.apache.commons.lang.StringUtils;
@@ -49,15 +53,22 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This class implements a basic JNDI context, using a class loader seeing only JQM_ROOT/ext or the payload classloader (which includes
- * /ext)
- *
+ * /ext)<br>
+ * <br>
+ * Resource definitions (descriptors) are cached by alias, so that non-singleton resources looked up in a loop by payloads do not cause a
+ * database query each time. Engines drop this cache when resource definitions change in the database (see the special name
+ * <code>internal://refresh</code>), which also resets the singletons created from a definition which has changed.
  */
-class JndiContext extends InitialContext implements InitialContextFactoryBuilder, InitialContextFactory, NameParser
+class JndiContext extends InitialContext implements InitialContextFactoryBuilder, InitialContextFactory, NameParser, JndiContextMBean
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(JndiContext.class);
 
-    private Map<String, Object> singletons = new HashMap<>();
-    private List<ObjectName> jmxNames = new ArrayList<>();
+    private final Map<String, Object> singletons = new ConcurrentHashMap<>();
+    private final Map<String, JndiResourceDescriptor> singletonDescriptors = new ConcurrentHashMap<>();
+    private final Map<String, ObjectName> jmxNames = new ConcurrentHashMap<>();
+    private volatile Map<String, JndiResourceDescriptor> descriptors = new ConcurrentHashMap<>();
+    private final LongAdder descriptorHits = new LongAdder();
+    private final LongAdder descriptorMisses = new LongAdder();
     private Registry r = null;
     private final ClassLoader extResources = ExtClassLoader.classLoaderInstance;
     private final ModuleLayer extLayer = ExtClassLoader.moduleLayerInstance;
@@ -71,6 +82,15 @@ class JndiContext extends InitialContext implements InitialContextFactoryBuilder
     JndiContext() throws NamingException
     {
         super();
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.enioka.jqm:type=JndiContext"));
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Could not register JMX MBean for the JNDI context", e);
+        }
     }
 
     @Override
@@ -111,6 +131,11 @@ class JndiContext extends InitialContext implements InitialContextFactoryBuilder
             resetSingletons();
             return null;
         }
+        if (name.startsWith("internal://refresh")) // Resource definitions have changed in the database. Used by engines.
+        {
+            refresh();
+            return null;
+        }
         if (name.equals("cl://ext")) // special case needed for tests, as the ext CL will always be the same (shared between all CLs)
         {
             return this.extResources;
@@ -127,8 +152,8 @@ class JndiContext extends InitialContext implements InitialContextFactoryBuilder
             return singletons.get(name);
         }
 
-        // Retrieve the resource description from the database or the XML file
-        JndiResourceDescriptor d = ResourceParser.getDescriptor(name);
+        // Retrieve the resource description from the cache, or from the database or the XML file
+        JndiResourceDescriptor d = getDescriptor(name);
         jqmlogger.trace("JNDI element named " + name + " not found in cache. Will be created. Singleton status: " + d.isSingleton());
 
         // Singleton handling is synchronized to avoid double creation
@@ -169,6 +194,7 @@ class JndiContext extends InitialContext implements InitialContextFactoryBuilder
                 else
                 {
                     singletons.put(name, res);
+                    singletonDescriptors.put(name, d);
 
                     // Pool JMX registration (only if cached - avoids leaks)
                     if ("org.apache.tomcat.jdbc.pool.DataSourceFactory".equals(d.getFactoryClassName())
@@ -180,7 +206,7 @@ class JndiContext extends InitialContext implements InitialContextFactoryBuilder
                             ObjectName jmxname = new ObjectName("com.enioka.jqm:type=JdbcPool,name=" + name);
                             mbs.registerMBean(res.getClass().getMethod("getPool").invoke(res).getClass().getMethod("getJmxPool")
                                     .invoke(res.getClass().getMethod("getPool").invoke(res)), jmxname);
-                            jmxNames.add(jmxname);
+                            jmxNames.put(name, jmxname);
                         }
                         catch (Exception e)
                         {
@@ -214,23 +240,133 @@ class JndiContext extends InitialContext implements InitialContextFactoryBuilder
         }
     }
 
+    private JndiResourceDescriptor getDescriptor(String name) throws NamingException
+    {
+        // The map is replaced (not cleared) on refresh, so a descriptor read before a refresh can never be put inside the new map.
+        Map<String, JndiResourceDescriptor> cache = this.descriptors;
+        JndiResourceDescriptor d = cache.get(name);
+        if (d != null)
+        {
+            descriptorHits.increment();
+            return d;
+        }
+
+        descriptorMisses.increment();
+        d = ResourceParser.getDescriptor(name);
+        cache.put(name, d);
+        return d;
+    }
+
     public void resetSingletons()
     {
         jqmlogger.info("Resetting singleton JNDI resource cache");
-        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
-        for (ObjectName n : this.jmxNames)
+        synchronized (singletons)
         {
-            try
+            this.descriptors = new ConcurrentHashMap<>();
+            for (String name : new ArrayList<>(this.jmxNames.keySet()))
             {
-                mbs.unregisterMBean(n);
+                unregisterPool(name);
             }
-            catch (Exception e)
+            this.singletons.clear();
+            this.singletonDescriptors.clear();
+        }
+    }
+
+    /**
+     * Drop the resource definition cache, and the singletons which were created from a definition which has changed or has been removed
+     * since. Singletons with an unchanged definition are kept, as recreating them (connection pools...) is costly.
+     */
+    void refresh()
+    {
+        jqmlogger.debug("Refreshing JNDI resource definitions");
+        synchronized (singletons)
+        {
+            this.descriptors = new ConcurrentHashMap<>();
+            for (Map.Entry<String, JndiResourceDescriptor> e : new ArrayList<>(this.singletonDescriptors.entrySet()))
             {
-                jqmlogger.error("could not unregister bean", e);
+                JndiResourceDescriptor current;
+                try
+                {
+                    current = ResourceParser.getDescriptor(e.getKey());
+                }
+                catch (NamingException ex)
+                {
+                    current = null;
+                }
+                if (!sameDefinition(e.getValue(), current))
+                {
+                    jqmlogger.info("Definition of singleton JNDI resource {} has changed - it will be created again on next lookup",
+                            e.getKey());
+                    unregisterPool(e.getKey());
+                    this.singletons.remove(e.getKey());
+                    this.singletonDescriptors.remove(e.getKey());
+                }
             }
         }
-        this.jmxNames = new ArrayList<>();
-        this.singletons = new HashMap<>();
+    }
+
+    private void unregisterPool(String name)
+    {
+        ObjectName n = this.jmxNames.remove(name);
+        if (n == null)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(n);
+        }
+        catch (Exception e)
+        {
+            jqmlogger.error("could not unregister bean", e);
+        }
+    }
+
+    private static boolean sameDefinition(JndiResourceDescriptor d1, JndiResourceDescriptor d2)
+    {
+        if (d2 == null || d1.isSingleton() != d2.isSingleton() || !Objects.equals(d1.getClassName(), d2.getClassName())
+                || !Objects.equals(d1.getFactoryClassName(), d2.getFactoryClassName()) || d1.size() != d2.size())
+        {
+            return false;
+        }
+        for (Enumeration<RefAddr> addrs = d1.getAll(); addrs.hasMoreElements();)
+        {
+            RefAddr a = addrs.nextElement();
+            RefAddr b = d2.get(a.getType());
+            if (b == null || !Objects.equals(a.getContent(), b.getContent()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // JMX
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public long getDescriptorCacheHits()
+    {
+        return descriptorHits.sum();
+    }
+
+    @Override
+    public long getDescriptorCacheMisses()
+    {
+        return descriptorMisses.sum();
+    }
+
+    @Override
+    public int getDescriptorCacheSize()
+    {
+        return descriptors.size();
+    }
+
+    @Override
+    public int getSingletonCount()
+    {
+        return singletons.size();
     }
 
     @Override
@@ -346,6 +482,7 @@ class JndiContext extends InitialContext implements InitialContextFactoryBuilder
         else
         {
             this.singletons.remove(name);
+            this.singletonDescriptors.remove(name);
         }
     }
 
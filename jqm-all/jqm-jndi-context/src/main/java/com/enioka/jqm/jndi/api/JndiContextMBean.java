@@ -0,0 +1,45 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.jndi.api;
+
+import javax.management.MXBean;
+
+/**
+ * Monitoring interface for the JNDI directory of the JVM, mostly about its cache of resource definitions.
+ */
+@MXBean
+public interface JndiContextMBean
+{
+    /**
+     * Number of lookups which have found the resource definition inside the cache.
+     */
+    long getDescriptorCacheHits();
+
+    /**
+     * Number of lookups which had to read the resource definition from the resource files or the database.
+     */
+    long getDescriptorCacheMisses();
+
+    /**
+     * Number of resource definitions currently inside the cache.
+     */
+    int getDescriptorCacheSize();
+
+    /**
+     * Number of singleton resources currently instantiated.
+     */
+    int getSingletonCount();
+}
@@ -8,7 +8,7 @@ public interface JqmJndiContextControlService
     void registerIfNeeded();
 
     /**
-     * Clean all singleton resources from the JNDI context.
+     * Clean all singleton resources and cached resource definitions from the JNDI context.
      */
     void reset();
 }
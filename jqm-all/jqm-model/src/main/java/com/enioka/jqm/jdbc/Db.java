@@ -377,6 +377,29 @@ public class Db
         return this.product;
     }
 
+    /**
+     * Closes all the connections of the pool - the ones in use once they are given back to the pool. Needed after a schema change on
+     * databases which invalidate prepared statements (HSQLDB), as these would otherwise stay inside the statement cache of the pool. Does
+     * nothing if the DataSource is not a pool which can be purged.
+     */
+    public void purgePool()
+    {
+        try
+        {
+            Method m = _ds.getClass().getMethod("purge");
+            m.invoke(_ds);
+            jqmlogger.debug("Connection pool was purged");
+        }
+        catch (NoSuchMethodException e)
+        {
+            // nothing to do - this DS cannot be purged.
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Could not purge the connection pool", e);
+        }
+    }
+
     /**
      * For tests we allow trying to close the datasource. As it is often a pooled connection, we may need to free the pool between tests.
      */
@@ -3,12 +3,15 @@ package com.enioka.jqm.jdbc;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.Queue;
@@ -143,7 +146,10 @@ public abstract class DbAdapter
      * method allows to fully change the polling method. <br>
      * <br>
      * Default implementation uses the ji_select_poll SQL template query and does retrieve the whole queue without using headSize, so is a
-     * performance waste.
+     * performance waste.<br>
+     * <br>
+     * Implementations should only return the head of the queue and may lock the returned rows (ideally skipping rows already locked by
+     * other nodes) so that concurrent pollers get disjoint heads. Such locks are held until the poller commits or rolls back.
      *
      * @param cnx
      *                     a session without active TX.
@@ -157,4 +163,77 @@ public abstract class DbAdapter
     {
         return JobInstance.select(cnx, "ji_select_poll", queue.getId());
     }
+
+    /**
+     * Tells the nodes polling a queue that new job instances are waiting inside it. Called inside the submission transaction, right before
+     * it is committed by the caller: the signal must only be seen with the job instances, and must not be held for the whole submission
+     * transaction, as all submissions to the same queue would then be serialized.<br>
+     * <br>
+     * Default implementation increments the queue row inside the QUEUE_VERSION table.
+     *
+     * @param cnx
+     *                    the session used to submit the job instances.
+     * @param queueId
+     *                    the queue which has received new job instances.
+     */
+    public void signalQueue(DbConn cnx, long queueId)
+    {
+        cnx.runUpdate("qv_update_increment", queueId);
+    }
+
+    /**
+     * Waits for signals sent by {@link #signalQueue(DbConn, long)}. Implementations may block up to the given timeout if the database
+     * allows it.<br>
+     * <br>
+     * Default implementation does not block: it simply compares the content of the QUEUE_VERSION table (a single, very cheap, query) with
+     * the versions given as a parameter.
+     *
+     * @param cnx
+     *                      a session without active TX. It is left without active TX. The caller keeps it for its successive waits
+     *                      (implementations may keep listening on it) until {@link #stopWaitingForQueueSignals(DbConn)} is called.
+     * @param versions
+     *                      the last known version of each queue. Empty on first call, in which case it is simply initialized. Updated
+     *                      by this method.
+     * @param timeoutMs
+     *                      maximum wait, in milliseconds. Strictly positive.
+     * @return the IDs of the queues which have been signaled since the previous call. Never null.
+     */
+    public Set<Long> waitForQueueSignals(DbConn cnx, Map<Long, Long> versions, int timeoutMs)
+    {
+        Set<Long> res = new HashSet<>();
+        boolean init = versions.isEmpty();
+        try (ResultSet rs = cnx.runSelect("qv_select_all"))
+        {
+            while (rs.next())
+            {
+                Long previous = versions.put(rs.getLong(1), rs.getLong(2));
+                if (!init && (previous == null || previous != rs.getLong(2)))
+                {
+                    res.add(rs.getLong(1));
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+        finally
+        {
+            // Do not keep a snapshot open (repeatable read databases would never see new versions).
+            cnx.rollback();
+        }
+        return res;
+    }
+
+    /**
+     * Called before a session used by {@link #waitForQueueSignals(DbConn, Map, int)} is given back to the pool. Default implementation
+     * does nothing.
+     *
+     * @param cnx
+     *                the session used for the waits.
+     */
+    public void stopWaitingForQueueSignals(DbConn cnx)
+    {
+        // Nothing to do.
+    }
 }
@@ -8,6 +8,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
@@ -17,6 +18,7 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import com.enioka.jqm.model.JobInstance;
@@ -42,6 +44,54 @@ public class DbConn implements Closeable
     private boolean rollbackOnly = false;
     private List<Statement> toClose = new ArrayList<>();
 
+    /**
+     * Update statements are reused for the whole life of the session, as the same queries are often run many times (poller loops...).
+     * Keyed by final SQL text. Across sessions, reuse is provided by the statement cache of the connection pool.
+     */
+    private Map<String, PreparedStatement> updateStatements = new HashMap<>();
+
+    /**
+     * Same for select statements, but a statement is only reused once the result set it has last returned is closed. Otherwise, a new
+     * statement is used. Keyed by final SQL text, prefixed for statements with updatable result sets. All are also inside toClose.
+     */
+    private Map<String, CachedSelect> selectStatements = new HashMap<>();
+
+    private static class CachedSelect
+    {
+        private final PreparedStatement ps;
+        private ResultSet lastResult;
+
+        private CachedSelect(PreparedStatement ps)
+        {
+            this.ps = ps;
+        }
+
+        private boolean isAvailable() throws SQLException
+        {
+            return !ps.isClosed() && (lastResult == null || lastResult.isClosed());
+        }
+    }
+
+    /**
+     * How to bind each simple parameter type. Avoids a long chain of class comparisons for each parameter.
+     */
+    private static final Map<Class<?>, ParameterBinder> binders = new HashMap<>();
+
+    private interface ParameterBinder
+    {
+        void bind(PreparedStatement s, int position, Object value) throws SQLException;
+    }
+
+    static
+    {
+        binders.put(Integer.class, (s, position, value) -> s.setInt(position, (Integer) value));
+        binders.put(Long.class, (s, position, value) -> s.setLong(position, (Long) value));
+        binders.put(String.class, (s, position, value) -> s.setString(position, (String) value));
+        binders.put(Timestamp.class, (s, position, value) -> s.setTimestamp(position, (Timestamp) value));
+        binders.put(Time.class, (s, position, value) -> s.setTime(position, (Time) value));
+        binders.put(Boolean.class, (s, position, value) -> s.setBoolean(position, (Boolean) value));
+    }
+
     DbConn(Db parent, Connection cnx)
     {
         this.parent = parent;
@@ -79,6 +129,34 @@ public class DbConn implements Closeable
         }
     }
 
+    /**
+     * Marks the current point of the transaction, so that the work done afterwards (including the locks taken, on most databases) can be
+     * undone alone by {@link #rollback(Savepoint)}.
+     */
+    public Savepoint setSavepoint()
+    {
+        try
+        {
+            return _cnx.setSavepoint();
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+    }
+
+    public void rollback(Savepoint savepoint)
+    {
+        try
+        {
+            _cnx.rollback(savepoint);
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+    }
+
     public void setRollbackOnly()
     {
         rollbackOnly = true;
@@ -100,7 +178,8 @@ public class DbConn implements Closeable
     {
         transac_open = true;
         QueryPreparation qp = adapterPreparation(query_key, false, params);
-        try (PreparedStatement ps = prepare(qp))
+        PreparedStatement ps = prepareUpdate(qp);
+        try
         {
             QueryResult qr = new QueryResult();
             qr.nbUpdated = ps.executeUpdate();
@@ -128,10 +207,80 @@ public class DbConn implements Closeable
         }
         catch (SQLException e)
         {
+            // Do not reuse a statement in an unknown state.
+            updateStatements.remove(qp.sqlText);
+            closeQuietly(ps);
             throw new DatabaseException(qp.sqlText, e);
         }
     }
 
+    /**
+     * Runs the same update query once per parameter set, using JDBC batches. Generated keys are not retrieved.
+     *
+     * @param query_key
+     *            the query to run.
+     * @param paramSets
+     *            one array of parameters per execution.
+     * @return the total count of updated rows (executions for which the driver does not return a count are counted as one row).
+     */
+    public int runBatchUpdate(String query_key, List<Object[]> paramSets)
+    {
+        transac_open = true;
+        int res = 0;
+        PreparedStatement ps = null;
+        String sql = null;
+        try
+        {
+            for (Object[] params : paramSets)
+            {
+                QueryPreparation qp = adapterPreparation(query_key, false, params);
+
+                // Adapters may rewrite a query depending on its parameters. A new batch is needed each time the text changes.
+                if (!qp.sqlText.equals(sql))
+                {
+                    res += executeBatch(ps);
+                    Closer.closeQuietly(ps);
+                    sql = qp.sqlText;
+                    jqmlogger.debug("Running batch {} : {}", query_key, sql);
+                    ps = _cnx.prepareStatement(sql);
+                }
+
+                int i = 0;
+                for (Object prm : qp.parameters)
+                {
+                    addParameter(prm, ++i, ps);
+                }
+                ps.addBatch();
+            }
+            res += executeBatch(ps);
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(sql, e);
+        }
+        finally
+        {
+            Closer.closeQuietly(ps);
+        }
+
+        jqmlogger.debug("Updated rows: {}. Key: {}. Batch size: {}", res, query_key, paramSets.size());
+        return res;
+    }
+
+    private int executeBatch(PreparedStatement ps) throws SQLException
+    {
+        int res = 0;
+        if (ps == null)
+        {
+            return res;
+        }
+        for (int count : ps.executeBatch())
+        {
+            res += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return res;
+    }
+
     public void runRawUpdate(String query_sql)
     {
         transac_open = true;
@@ -153,11 +302,27 @@ public class DbConn implements Closeable
     }
 
     public ResultSet runRawSelect(String rawQuery, Object... params)
+    {
+        return runAdaptedSelect(this.parent.getAdapter().adaptSql(rawQuery), params);
+    }
+
+    /**
+     * Runs a named query, only returning a page of its results. See {@link #paginateQuery(String, int, int, List)} for the page bounds.
+     */
+    public ResultSet runSelectPaginated(String query_key, int start, int stopBefore, Object... params)
+    {
+        List<Object> prms = new ArrayList<>(Arrays.asList(params));
+        String sql = paginateQuery(parent.getQuery(query_key), start, stopBefore, prms);
+        return runAdaptedSelect(sql, prms.toArray());
+    }
+
+    // Helper. The SQL text must have already gone through the adapter.
+    private ResultSet runAdaptedSelect(String sqlText, Object... params)
     {
         PreparedStatement ps = null;
         QueryPreparation q = new QueryPreparation();
         q.parameters = new ArrayList<>(Arrays.asList(params));
-        q.sqlText = this.parent.getAdapter().adaptSql(rawQuery);
+        q.sqlText = sqlText;
         this.parent.getAdapter().beforeUpdate(_cnx, q);
 
         try
@@ -202,26 +367,68 @@ public class DbConn implements Closeable
 
     public ResultSet runSelect(boolean for_update, String query_key, Object... params)
     {
-        PreparedStatement ps = null;
+        return runSelect(for_update, 0, query_key, params);
+    }
+
+    /**
+     * Same as {@link #runSelect(boolean, String, Object...)}, with a hint on the number of rows fetched from the database at each round
+     * trip. Useful when rows are locked as they are fetched (SKIP LOCKED on Oracle) and only the first ones will be read.
+     *
+     * @param fetchSize
+     *            0 for the driver default.
+     */
+    public ResultSet runSelect(boolean for_update, int fetchSize, String query_key, Object... params)
+    {
         QueryPreparation qp = adapterPreparation(query_key, for_update, params);
+        String cacheKey = for_update ? "U:" + qp.sqlText : qp.sqlText;
+        CachedSelect cached = selectStatements.get(cacheKey);
         try
         {
-            ps = prepare(qp);
-            toClose.add(ps);
+            PreparedStatement ps;
+            if (cached != null && cached.isAvailable())
+            {
+                jqmlogger.debug("Reusing statement for {}", query_key);
+                ps = cached.ps;
+            }
+            else
+            {
+                ps = createStatement(qp);
+                toClose.add(ps);
+                if (cached == null || cached.ps.isClosed())
+                {
+                    cached = new CachedSelect(ps);
+                    selectStatements.put(cacheKey, cached);
+                }
+                else
+                {
+                    // The cached statement is still in use, this one is only used once.
+                    cached = null;
+                }
+            }
+            bindParameters(qp, ps);
+            ps.setFetchSize(fetchSize);
             if (for_update)
             {
                 transac_open = true;
             }
-            return ps.executeQuery();
+
+            ResultSet rs = ps.executeQuery();
+            if (cached != null)
+            {
+                cached.lastResult = rs;
+            }
+            return rs;
         }
         catch (SQLException e)
         {
+            // Do not reuse a statement in an unknown state.
+            if (cached != null)
+            {
+                selectStatements.remove(cacheKey);
+                closeQuietly(cached.ps);
+            }
             throw new DatabaseException(qp.sqlText, e);
         }
-        finally
-        {
-            // closeQuietly(ps);
-        }
     }
 
     public Map<String, Object> runSelectSingleRow(String query_key, Object... params)
@@ -399,6 +606,12 @@ public class DbConn implements Closeable
             closeQuietly(s);
         }
         toClose.clear();
+        for (Statement s : updateStatements.values())
+        {
+            closeQuietly(s);
+        }
+        updateStatements.clear();
+        selectStatements.clear();
 
         closeQuietly(_cnx);
         _cnx = null;
@@ -448,9 +661,28 @@ public class DbConn implements Closeable
         DbHelper.closeQuietly(ps);
     }
 
-    private PreparedStatement prepare(QueryPreparation q)
+    /**
+     * Returns a statement with bound parameters, reused if the same update was already run inside this session. The statement must not be
+     * closed by the caller.
+     */
+    private PreparedStatement prepareUpdate(QueryPreparation q)
+    {
+        PreparedStatement ps = updateStatements.get(q.sqlText);
+        if (ps == null)
+        {
+            ps = createStatement(q);
+            updateStatements.put(q.sqlText, ps);
+        }
+        else if (jqmlogger.isDebugEnabled())
+        {
+            jqmlogger.debug("Reusing statement for {}", q.queryKey);
+        }
+        bindParameters(q, ps);
+        return ps;
+    }
+
+    private PreparedStatement createStatement(QueryPreparation q)
     {
-        PreparedStatement ps = null;
         if (_cnx == null)
         {
             throw new IllegalStateException("Connection does not exist");
@@ -461,35 +693,41 @@ public class DbConn implements Closeable
             throw new DatabaseException("unknown query key");
         }
 
-        // Debug
-        jqmlogger.debug("Running {} : {} with {} parameters.", q.queryKey, q.sqlText, q.parameters.size());
-        for (Object o : q.parameters)
-        {
-            if (o == null)
-            {
-                jqmlogger.debug("      null");
-            }
-            else
-            {
-                jqmlogger.debug("      {} - {}", o.toString(), o.getClass());
-            }
-        }
-
         try
         {
             if (q.forUpdate)
             {
-                ps = _cnx.prepareStatement(q.sqlText, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+                return _cnx.prepareStatement(q.sqlText, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
             }
             else
             {
-                ps = _cnx.prepareStatement(q.sqlText, this.parent.getAdapter().keyRetrievalColumn());
+                return _cnx.prepareStatement(q.sqlText, this.parent.getAdapter().keyRetrievalColumn());
             }
         }
         catch (SQLException e)
         {
             throw new DatabaseException(e);
         }
+    }
+
+    private void bindParameters(QueryPreparation q, PreparedStatement ps)
+    {
+        // Debug
+        if (jqmlogger.isDebugEnabled())
+        {
+            jqmlogger.debug("Running {} : {} with {} parameters.", q.queryKey, q.sqlText, q.parameters.size());
+            for (Object o : q.parameters)
+            {
+                if (o == null)
+                {
+                    jqmlogger.debug("      null");
+                }
+                else
+                {
+                    jqmlogger.debug("      {} - {}", o.toString(), o.getClass());
+                }
+            }
+        }
 
         // Add parameters
         int i = 0;
@@ -497,31 +735,19 @@ public class DbConn implements Closeable
         {
             addParameter(prm, ++i, ps);
         }
-
-        return ps;
     }
 
     private void addParameter(Object value, int position, PreparedStatement s)
     {
-        // TODO: cache meta call and use setObject.
         try
         {
+            ParameterBinder binder = value == null ? null : binders.get(value.getClass());
             if (value == null)
             {
                 parent.getAdapter().setNullParameter(position, s);
             }
-            else if (Integer.class == value.getClass())
-                s.setInt(position, (Integer) value);
-            else if (Long.class == value.getClass())
-                s.setLong(position, (Long) value);
-            else if (String.class == value.getClass())
-                s.setString(position, (String) value);
-            else if (Timestamp.class == value.getClass())
-                s.setTimestamp(position, (Timestamp) value);
-            else if (Time.class == value.getClass())
-                s.setTime(position, (Time) value);
-            else if (Boolean.class == value.getClass())
-                s.setBoolean(position, (Boolean) value);
+            else if (binder != null)
+                binder.bind(s, position, value);
             else if (value instanceof Calendar)
                 s.setTimestamp(position, new Timestamp(((Calendar) value).getTimeInMillis()), utcZone);
             else if (value instanceof List<?>)
@@ -598,8 +824,49 @@ public class DbConn implements Closeable
         }
     }
 
+    /**
+     * See {@link DbAdapter#signalQueue(DbConn, long)}
+     */
+    public void signalQueue(long queueId)
+    {
+        this.parent.getAdapter().signalQueue(this, queueId);
+    }
+
+    /**
+     * See {@link DbAdapter#waitForQueueSignals(DbConn, Map, int)}
+     */
+    public Set<Long> waitForQueueSignals(Map<Long, Long> versions, int timeoutMs)
+    {
+        return this.parent.getAdapter().waitForQueueSignals(this, versions, timeoutMs);
+    }
+
+    /**
+     * See {@link DbAdapter#stopWaitingForQueueSignals(DbConn)}
+     */
+    public void stopWaitingForQueueSignals()
+    {
+        this.parent.getAdapter().stopWaitingForQueueSignals(this);
+    }
+
+    /**
+     * Access to driver-specific features of the underlying JDBC connection. Only for use by database adapters.
+     */
+    public <T> T unwrap(Class<T> iface)
+    {
+        try
+        {
+            return _cnx.unwrap(iface);
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+    }
+
     public List<JobInstance> poll(Queue queue, int nbSlots)
     {
+        // Polling may lock the head of the queue (SKIP LOCKED and the like), so locks must be released on close if nothing is committed.
+        transac_open = true;
         return this.parent.getAdapter().poll(this, queue, nbSlots);
     }
 }
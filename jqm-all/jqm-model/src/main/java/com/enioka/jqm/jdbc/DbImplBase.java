@@ -65,15 +65,22 @@ class DbImplBase
         queries.put("q_select_by_key", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME FROM __T__QUEUE WHERE NAME=?");
         queries.put("q_select_by_id", "SELECT ID, DEFAULT_QUEUE, DESCRIPTION, NAME FROM __T__QUEUE WHERE ID=?");
 
+        // QUEUE VERSION
+        queries.put("qv_insert", "INSERT INTO __T__QUEUE_VERSION(ID, VERSION) VALUES(?, 0)");
+        queries.put("qv_delete_all", "DELETE FROM __T__QUEUE_VERSION");
+        queries.put("qv_delete_by_id", "DELETE FROM __T__QUEUE_VERSION WHERE ID=?");
+        queries.put("qv_update_increment", "UPDATE __T__QUEUE_VERSION SET VERSION=VERSION+1 WHERE ID=?");
+        queries.put("qv_select_all", "SELECT ID, VERSION FROM __T__QUEUE_VERSION");
+
         // DEPLOYMENT
         queries.put("dp_insert", "INSERT INTO __T__QUEUE_NODE_MAPPING(ID, ENABLED, LAST_MODIFIED, MAX_THREAD, POLLING_INTERVAL, NODE, QUEUE) VALUES(JQM_PK.nextval, ?, CURRENT_TIMESTAMP, ?, ?, ?, ?)");
         queries.put("dp_delete_all", "DELETE FROM __T__QUEUE_NODE_MAPPING");
         queries.put("dp_delete_for_node", "DELETE FROM __T__QUEUE_NODE_MAPPING WHERE NODE=?");
         queries.put("dp_delete_for_queue", "DELETE FROM __T__QUEUE_NODE_MAPPING WHERE QUEUE=?");
         queries.put("dp_delete_by_id", "DELETE FROM __T__QUEUE_NODE_MAPPING WHERE ID=?");
-        queries.put("dp_update_interval_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET POLLING_INTERVAL=? WHERE ID=?");
-        queries.put("dp_update_enable_by_queue_id", "UPDATE __T__QUEUE_NODE_MAPPING SET ENABLED=? WHERE QUEUE=?");
-        queries.put("dp_update_threads_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET MAX_THREAD=? WHERE ID=?");
+        queries.put("dp_update_interval_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET POLLING_INTERVAL=?, LAST_MODIFIED=CURRENT_TIMESTAMP WHERE ID=?");
+        queries.put("dp_update_enable_by_queue_id", "UPDATE __T__QUEUE_NODE_MAPPING SET ENABLED=?, LAST_MODIFIED=CURRENT_TIMESTAMP WHERE QUEUE=?");
+        queries.put("dp_update_threads_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET MAX_THREAD=?, LAST_MODIFIED=CURRENT_TIMESTAMP WHERE ID=?");
         queries.put("dp_update_changed_by_id", "UPDATE __T__QUEUE_NODE_MAPPING SET ENABLED=?, LAST_MODIFIED=CURRENT_TIMESTAMP, MAX_THREAD=?, POLLING_INTERVAL=?, NODE=?, QUEUE=? WHERE ID=? AND NOT "
                 + "(ENABLED=? AND MAX_THREAD=? AND POLLING_INTERVAL=? AND NODE=? AND QUEUE=?)");
         queries.put("dp_select_by_id", "SELECT ID, ENABLED, LAST_MODIFIED, MAX_THREAD, POLLING_INTERVAL, NODE, QUEUE FROM __T__QUEUE_NODE_MAPPING WHERE ID=?");
@@ -86,11 +93,11 @@ class DbImplBase
         queries.put("dp_select_with_names_by_node_id", queries.get("dp_select_all_with_names") + " WHERE dp.NODE=?");
 
         // CL
-        queries.put("cl_insert", "INSERT INTO __T__CL(ID, NAME, CHILD_FIRST, HIDDEN_CLASSES, TRACING, PERSISTENT, ALLOWED_RUNNERS) VALUES(JQM_PK.nextval, ?, ?, ?, ?, ?, ?)");
+        queries.put("cl_insert", "INSERT INTO __T__CL(ID, NAME, CHILD_FIRST, HIDDEN_CLASSES, TRACING, PERSISTENT, ALLOWED_RUNNERS, RECYCLED_RUNS) VALUES(JQM_PK.nextval, ?, ?, ?, ?, ?, ?, ?)");
         queries.put("cl_delete_all", "DELETE FROM __T__CL");
         queries.put("cl_delete_by_id", "DELETE FROM __T__CL WHERE ID=?");
-        queries.put("cl_update_all_fields_by_id", "UPDATE __T__CL SET NAME=?, CHILD_FIRST=?, HIDDEN_CLASSES=?, TRACING=?, PERSISTENT=?, ALLOWED_RUNNERS=? WHERE ID=?");
-        queries.put("cl_select_all", "SELECT ID, NAME, CHILD_FIRST, HIDDEN_CLASSES, TRACING, PERSISTENT, ALLOWED_RUNNERS FROM __T__CL ");
+        queries.put("cl_update_all_fields_by_id", "UPDATE __T__CL SET NAME=?, CHILD_FIRST=?, HIDDEN_CLASSES=?, TRACING=?, PERSISTENT=?, ALLOWED_RUNNERS=?, RECYCLED_RUNS=? WHERE ID=?");
+        queries.put("cl_select_all", "SELECT ID, NAME, CHILD_FIRST, HIDDEN_CLASSES, TRACING, PERSISTENT, ALLOWED_RUNNERS, RECYCLED_RUNS FROM __T__CL ");
         queries.put("cl_select_by_id", queries.get("cl_select_all") + " WHERE ID=?");
         queries.put("cl_select_by_key", queries.get("cl_select_all") + " WHERE NAME=?");
 
@@ -219,6 +226,10 @@ class DbImplBase
         queries.put("ji_update_delayed", "UPDATE __T__JOB_INSTANCE SET STATUS='SUBMITTED' WHERE STATUS='SCHEDULED' AND DATE_NOT_BEFORE <= CURRENT_TIMESTAMP");
         queries.put("ji_select_poll",queries.get("ji_select_all") + " WHERE ji.QUEUE = ? AND ji.STATUS='SUBMITTED' ORDER BY ji.PRIORITY DESC, ji.INTERNAL_POSITION");
         queries.put("ji_update_status_by_id", "UPDATE __T__JOB_INSTANCE SET STATUS='ATTRIBUTED', NODE=? WHERE STATUS='SUBMITTED' AND ID=?");
+        queries.put("ji_update_status_by_id_list", "UPDATE __T__JOB_INSTANCE SET STATUS='ATTRIBUTED', NODE=? WHERE STATUS='SUBMITTED' AND ID IN(UNNEST(?))");
+        queries.put("ji_update_status_by_id_and_queue", "UPDATE __T__JOB_INSTANCE SET STATUS='ATTRIBUTED', NODE=? WHERE STATUS='SUBMITTED' AND ID=? AND QUEUE=?");
+        queries.put("ji_update_status_by_id_list_and_queue", "UPDATE __T__JOB_INSTANCE SET STATUS='ATTRIBUTED', NODE=? WHERE STATUS='SUBMITTED' AND ID IN(UNNEST(?)) AND QUEUE=?");
+        queries.put("ji_select_attributed_id_by_id_list", "SELECT ID FROM __T__JOB_INSTANCE WHERE STATUS='ATTRIBUTED' AND NODE=? AND ID IN(UNNEST(?))");
 
         // HISTORY
         queries.put("history_insert_with_end_date", "INSERT INTO __T__HISTORY(ID, JD_APPLICATION, JD_KEY, DATE_ATTRIBUTION, EMAIL, "
@@ -231,22 +242,27 @@ class DbImplBase
 
         queries.put("history_delete_all", "DELETE FROM __T__HISTORY");
         queries.put("history_delete_by_id", "DELETE FROM __T__HISTORY WHERE ID=?");
+        queries.put("history_delete_by_id_list", "DELETE FROM __T__HISTORY WHERE ID IN(UNNEST(?))");
         queries.put("history_select_count_all", "SELECT COUNT(1) FROM __T__HISTORY");
         queries.put("history_select_count_for_poller", "SELECT COUNT(1) FROM __T__HISTORY WHERE QUEUE=? AND NODE=?");
-        queries.put("history_select_count_last_mn_for_poller", "SELECT COUNT(1)/60 FROM __T__HISTORY WHERE QUEUE=? AND NODE=? AND DATE_END > (CURRENT_TIMESTAMP - 1 MINUTE)");
         queries.put("history_select_count_ended", "SELECT COUNT(1) FROM __T__HISTORY WHERE STATUS='ENDED'");
         queries.put("history_select_count_notended", "SELECT COUNT(1) FROM __T__HISTORY WHERE STATUS<>'ENDED'");
         queries.put("history_select_reenqueue_by_id", "SELECT JD_APPLICATION, JD_KEY, EMAIL, INSTANCE_KEYWORD1, INSTANCE_KEYWORD2, INSTANCE_KEYWORD3, INSTANCE_MODULE, PARENT, SESSION_KEY, USERNAME, STATUS FROM __T__HISTORY WHERE ID=?");
         queries.put("history_select_cnx_data_by_id", "SELECT DNS||':'||PORT AS HOST FROM __T__HISTORY h LEFT JOIN __T__NODE n ON h.NODE = n.ID WHERE h.ID=?");
         queries.put("history_select_state_by_id", "SELECT STATUS FROM __T__HISTORY WHERE ID=?");
+        queries.put("history_select_count_ended_before", "SELECT COUNT(1) FROM __T__HISTORY WHERE DATE_END < ?");
+        queries.put("history_select_id_ended_before", "SELECT ID FROM __T__HISTORY WHERE DATE_END < ? ORDER BY DATE_END");
+        queries.put("history_select_archive_by_id_list", "SELECT * FROM __T__HISTORY WHERE ID IN(UNNEST(?))");
 
         // DELIVERABLE
         queries.put("deliverable_insert",  "INSERT INTO __T__DELIVERABLE(ID, FILE_FAMILY, PATH, JOB_INSTANCE, ORIGINAL_FILE_NAME, RANDOM_ID) VALUES(JQM_PK.nextval, ?, ?, ?, ?, ?)");
         queries.put("deliverable_delete_all", "DELETE FROM __T__DELIVERABLE");
+        queries.put("deliverable_delete_by_ji_list", "DELETE FROM __T__DELIVERABLE WHERE JOB_INSTANCE IN(UNNEST(?))");
         queries.put("deliverable_select_all",  "SELECT ID, FILE_FAMILY, PATH, JOB_INSTANCE, ORIGINAL_FILE_NAME, RANDOM_ID FROM __T__DELIVERABLE");
         queries.put("deliverable_select_by_id", queries.get("deliverable_select_all") +  " WHERE ID=?");
         queries.put("deliverable_select_by_randomid", queries.get("deliverable_select_all") +  " WHERE RANDOM_ID=?");
         queries.put("deliverable_select_all_for_ji", queries.get("deliverable_select_all") +  " WHERE JOB_INSTANCE=?");
+        queries.put("deliverable_select_archive_by_ji_list", "SELECT * FROM __T__DELIVERABLE WHERE JOB_INSTANCE IN(UNNEST(?))");
 
         // INPUT FILES
         queries.put("inputfile_insert",  "INSERT INTO __T__INPUT_FILE(ID, FILE_FAMILY, PATH, JOB_INSTANCE, ORIGINAL_FILE_NAME, STORAGE_NODE) VALUES(JQM_PK.nextval, ?, ?, ?, ?, ?)");
@@ -257,15 +273,19 @@ class DbImplBase
         queries.put("jiprm_insert", "INSERT INTO __T__JOB_INSTANCE_PARAMETER(ID, JOB_INSTANCE, KEYNAME, VALUE) VALUES(JQM_PK.nextval, ?, ?, ?)");
         queries.put("jiprm_delete_all", "DELETE FROM __T__JOB_INSTANCE_PARAMETER ");
         queries.put("jiprm_delete_by_ji",queries.get("jiprm_delete_all") + " WHERE JOB_INSTANCE=?");
+        queries.put("jiprm_delete_by_ji_list",queries.get("jiprm_delete_all") + " WHERE JOB_INSTANCE IN(UNNEST(?))");
         queries.put("jiprm_select_by_ji", "SELECT ID, JOB_INSTANCE, KEYNAME, VALUE FROM __T__JOB_INSTANCE_PARAMETER WHERE JOB_INSTANCE=?");
         queries.put("jiprm_select_by_ji_list", "SELECT ID, JOB_INSTANCE, KEYNAME, VALUE FROM __T__JOB_INSTANCE_PARAMETER WHERE JOB_INSTANCE IN(UNNEST(?))");
+        queries.put("jiprm_select_archive_by_ji_list", "SELECT * FROM __T__JOB_INSTANCE_PARAMETER WHERE JOB_INSTANCE IN(UNNEST(?))");
 
         // MESSAGE
         queries.put("message_insert",  "INSERT INTO __T__MESSAGE(ID, JOB_INSTANCE, TEXT_MESSAGE) VALUES(JQM_PK.nextval, ?, ?)");
         queries.put("message_delete_all", "DELETE FROM __T__MESSAGE");
         queries.put("message_delete_by_ji",queries.get("message_delete_all") + " WHERE JOB_INSTANCE=?");
+        queries.put("message_delete_by_ji_list",queries.get("message_delete_all") + " WHERE JOB_INSTANCE IN(UNNEST(?))");
         queries.put("message_select_all", "SELECT ID, JOB_INSTANCE, TEXT_MESSAGE FROM __T__MESSAGE");
         queries.put("message_select_by_ji_list", queries.get("message_select_all") + " WHERE JOB_INSTANCE IN(UNNEST(?))");
+        queries.put("message_select_archive_by_ji_list", "SELECT * FROM __T__MESSAGE WHERE JOB_INSTANCE IN(UNNEST(?))");
         queries.put("message_select_count_all", "SELECT COUNT(1) FROM __T__MESSAGE");
 
         // JNDI
@@ -339,6 +359,7 @@ class DbImplBase
         queries.put("globalprm_select_all", "SELECT ID, KEYNAME, VALUE, LAST_MODIFIED FROM __T__GLOBAL_PARAMETER");
         queries.put("globalprm_select_by_key", queries.get("globalprm_select_all") + " WHERE KEYNAME=?");
         queries.put("globalprm_select_by_id", queries.get("globalprm_select_all") + " WHERE ID=?");
+        queries.put("config_select_version", "SELECT 1, COUNT(1), MAX(LAST_MODIFIED) FROM __T__GLOBAL_PARAMETER UNION ALL SELECT 2, COUNT(1), MAX(LAST_MODIFIED) FROM __T__QUEUE_NODE_MAPPING WHERE NODE=?");
         queries.put("globalprm_select_count_modified_jetty", "SELECT COUNT(1) FROM __T__GLOBAL_PARAMETER WHERE LAST_MODIFIED > ? AND KEYNAME IN('disableWsApi', 'enableWsApiSsl', 'enableInternalPki', 'pfxPassword', 'enableWsApiAuth')");
 
         // WITNESS
@@ -33,6 +33,8 @@ public class Cl implements Serializable
 
     private String allowedRunners;
 
+    private int recycledRuns = 0;
+
     /**
      * A technical ID without any meaning. Generated by the database.
      */
@@ -162,6 +164,24 @@ public class Cl implements Serializable
         this.allowedRunners = allowedRunners;
     }
 
+    /**
+     * Only used by non-persistent class loaders. Default is 0, meaning the class loader is thrown out after a single job instance. When
+     * greater than 1 ("recycled isolation"), a class loader may be reused by up to this number of successive job instances of the same
+     * {@link JobDef} - never at the same time - so that they do not have to load their classes again.
+     */
+    public int getRecycledRuns()
+    {
+        return recycledRuns;
+    }
+
+    /**
+     * See {@link #getRecycledRuns()}
+     */
+    public void setRecycledRuns(int recycledRuns)
+    {
+        this.recycledRuns = recycledRuns;
+    }
+
     /**
      * ResultSet is not modified (no rs.next called).
      *
@@ -181,6 +201,7 @@ public class Cl implements Serializable
             tmp.tracingEnabled = rs.getBoolean(5 + colShift);
             tmp.persistent = rs.getBoolean(6 + colShift);
             tmp.allowedRunners = rs.getString(7 + colShift);
+            tmp.recycledRuns = rs.getInt(8 + colShift);
         }
         catch (SQLException e)
         {
@@ -228,7 +249,13 @@ public class Cl implements Serializable
     public static Long create(DbConn cnx, String name, boolean childFirst, String hiddenClasses, boolean tracing, boolean persistent,
                               String allowedRunners)
     {
-        QueryResult r = cnx.runUpdate("cl_insert", name, childFirst, hiddenClasses, tracing, persistent, allowedRunners);
+        return create(cnx, name, childFirst, hiddenClasses, tracing, persistent, allowedRunners, 0);
+    }
+
+    public static Long create(DbConn cnx, String name, boolean childFirst, String hiddenClasses, boolean tracing, boolean persistent,
+                              String allowedRunners, int recycledRuns)
+    {
+        QueryResult r = cnx.runUpdate("cl_insert", name, childFirst, hiddenClasses, tracing, persistent, allowedRunners, recycledRuns);
         Long newId = r.getGeneratedId();
 
         return newId;
@@ -238,11 +265,12 @@ public class Cl implements Serializable
     {
         if (id == 0)
         {
-            this.id = Cl.create(cnx, name, childFirst, hiddenClasses, tracingEnabled, persistent, allowedRunners);
+            this.id = Cl.create(cnx, name, childFirst, hiddenClasses, tracingEnabled, persistent, allowedRunners, recycledRuns);
         }
         else
         {
-            cnx.runUpdate("cl_update_all_fields_by_id", name, childFirst, hiddenClasses, tracingEnabled, persistent, allowedRunners, id);
+            cnx.runUpdate("cl_update_all_fields_by_id", name, childFirst, hiddenClasses, tracingEnabled, persistent, allowedRunners,
+                    recycledRuns, id);
         }
     }
 }
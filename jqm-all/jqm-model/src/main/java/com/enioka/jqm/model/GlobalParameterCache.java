@@ -0,0 +1,108 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.enioka.jqm.jdbc.DbConn;
+
+/**
+ * <strong>Not part of any API - this an internal JQM class and may change without notice.</strong> <br>
+ * A JVM-wide copy of the {@link GlobalParameter} table, so that parameters can be read on hot paths (poller loops, job instance launches...)
+ * without any SQL query. It is only used while at least one engine runs inside the JVM, as engines are the ones keeping it up to date
+ * (through a cheap version check, see the <code>config_select_version</code> query). Otherwise, reads simply go to the database.
+ */
+public final class GlobalParameterCache
+{
+    private static int users = 0;
+    private static volatile Map<String, String> values = null;
+    private static volatile Set<String> duplicates = Collections.emptySet();
+
+    private GlobalParameterCache()
+    {
+        // Static helper class.
+    }
+
+    /**
+     * Retrieve the value of a single-valued parameter, from the cache if it is loaded, from the database otherwise. Same contract as
+     * {@link GlobalParameter#getParameter(DbConn, String, String)}.
+     */
+    public static String getParameter(DbConn cnx, String key, String defaultValue)
+    {
+        Map<String, String> current = values;
+        if (current == null || duplicates.contains(key))
+        {
+            // Not loaded, or a multi-valued key: keep the database behaviour.
+            return GlobalParameter.getParameter(cnx, key, defaultValue);
+        }
+        if (!current.containsKey(key))
+        {
+            return defaultValue;
+        }
+        return current.get(key);
+    }
+
+    /**
+     * Declare a new user of the cache (an engine) and load it if needed. Each call must be matched with a call to {@link #release()}.
+     */
+    public static synchronized void acquire(DbConn cnx)
+    {
+        users++;
+        reload(cnx);
+    }
+
+    /**
+     * Declare the end of a user of the cache. The cache is dropped when no user remains, as nobody would keep it up to date anymore.
+     */
+    public static synchronized void release()
+    {
+        users = Math.max(users - 1, 0);
+        if (users == 0)
+        {
+            values = null;
+            duplicates = Collections.emptySet();
+        }
+    }
+
+    /**
+     * Load the whole table again. Does nothing if there is no user.
+     */
+    public static synchronized void reload(DbConn cnx)
+    {
+        if (users == 0)
+        {
+            return;
+        }
+
+        Map<String, String> newValues = new HashMap<>();
+        Set<String> newDuplicates = new HashSet<>();
+        for (GlobalParameter gp : GlobalParameter.select(cnx, "globalprm_select_all"))
+        {
+            if (newValues.containsKey(gp.getKey()))
+            {
+                newDuplicates.add(gp.getKey());
+            }
+            newValues.put(gp.getKey(), gp.getValue());
+        }
+
+        duplicates = newDuplicates;
+        values = newValues;
+    }
+}
@@ -603,15 +603,24 @@ public class History implements Serializable
         }
         else
         {
-            cnx.runUpdate("history_insert_with_end_date", ji.getId(), jd.getApplication(), jd.getApplicationName(), ji.getAttributionDate(),
-                    ji.getEmail(), endDate, ji.getCreationDate(), ji.getExecutionDate(), jd.isHighlander(), ji.getApplication(),
-                    ji.getKeyword1(), ji.getKeyword2(), ji.getKeyword3(), ji.getModule(), jd.getKeyword1(), jd.getKeyword2(),
-                    jd.getKeyword3(), jd.getModule(), n.getName(), ji.getParentId(), ji.getProgress(), q.getName(), 0, ji.getSessionID(),
-                    finalState.toString(), ji.getUserName(), ji.getJdId(), ji.getNode().getId(), ji.getQueue(), ji.isFromSchedule(),
-                    ji.getPriority(), ji.getNotBefore());
+            cnx.runUpdate("history_insert_with_end_date", getInsertWithEndDateParameters(ji, finalState, endDate));
         }
     }
 
+    /**
+     * The parameters of the <code>history_insert_with_end_date</code> query for a given {@link JobInstance}. Used for batch inserts.
+     */
+    public static Object[] getInsertWithEndDateParameters(JobInstance ji, State finalState, Calendar endDate)
+    {
+        JobDef jd = ji.getJD();
+        return new Object[] { ji.getId(), jd.getApplication(), jd.getApplicationName(), ji.getAttributionDate(), ji.getEmail(), endDate,
+                ji.getCreationDate(), ji.getExecutionDate(), jd.isHighlander(), ji.getApplication(), ji.getKeyword1(), ji.getKeyword2(),
+                ji.getKeyword3(), ji.getModule(), jd.getKeyword1(), jd.getKeyword2(), jd.getKeyword3(), jd.getModule(),
+                ji.getNode().getName(), ji.getParentId(), ji.getProgress(), ji.getQ().getName(), 0, ji.getSessionID(),
+                finalState.toString(), ji.getUserName(), ji.getJdId(), ji.getNode().getId(), ji.getQueue(), ji.isFromSchedule(),
+                ji.getPriority(), ji.getNotBefore() };
+    }
+
     /**
      * Create an History object from a {@link JobInstance}. (if it does not exist, exception).
      *
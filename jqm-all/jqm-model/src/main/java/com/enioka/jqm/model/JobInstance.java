@@ -470,6 +470,47 @@ public class JobInstance implements Serializable
         }
     }
 
+    public boolean isPrmCacheLoaded()
+    {
+        return this.prmCache != null;
+    }
+
+    /**
+     * Same as {@link #loadPrmCache(DbConn)} but for many JI at once, with a single query. The list should stay within the IN clause limits
+     * of the database.
+     *
+     * @param cnx
+     *            an open session
+     * @param jis
+     *            the JI to load. Their cache is replaced.
+     */
+    public static void loadPrmCache(DbConn cnx, List<JobInstance> jis)
+    {
+        if (jis.isEmpty())
+        {
+            return;
+        }
+
+        Map<Long, JobInstance> byId = new HashMap<>(jis.size());
+        for (JobInstance ji : jis)
+        {
+            ji.prmCache = new HashMap<>();
+            byId.put(ji.id, ji);
+        }
+
+        try (ResultSet rs = cnx.runSelect("jiprm_select_by_ji_list", new ArrayList<>(byId.keySet())))
+        {
+            while (rs.next())
+            {
+                byId.get(rs.getLong(2)).prmCache.put(rs.getString(3), rs.getString(4));
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+    }
+
     public void addEnvVar(String key, String value)
     {
         if (envVarCache == null)
@@ -485,11 +526,24 @@ public class JobInstance implements Serializable
     }
 
     public static List<JobInstance> select(DbConn cnx, String query_key, Object... args)
+    {
+        return select(cnx, Integer.MAX_VALUE, 0, query_key, args);
+    }
+
+    /**
+     * Same as {@link #select(DbConn, String, Object...)}, but only fetches and reads the first rows of the result.
+     */
+    public static List<JobInstance> selectHead(DbConn cnx, int maxRows, String query_key, Object... args)
+    {
+        return select(cnx, maxRows, Math.max(maxRows, 1), query_key, args);
+    }
+
+    private static List<JobInstance> select(DbConn cnx, int maxRows, int fetchSize, String query_key, Object... args)
     {
         List<JobInstance> res = new ArrayList<>();
-        try (ResultSet rs = cnx.runSelect(query_key, args))
+        try (ResultSet rs = cnx.runSelect(false, fetchSize, query_key, args))
         {
-            while (rs.next())
+            while (res.size() < maxRows && rs.next())
             {
                 JobInstance tmp = new JobInstance();
 
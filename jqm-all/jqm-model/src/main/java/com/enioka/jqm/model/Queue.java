@@ -133,6 +133,7 @@ public class Queue implements Serializable
         QueryResult r = cnx.runUpdate("q_insert", defaultQ, description, name);
         Queue res = new Queue();
         res.id = r.getGeneratedId();
+        cnx.runUpdate("qv_insert", res.id);
         res.name = name;
         res.description = description;
         res.defaultQueue = defaultQ;
@@ -0,0 +1,86 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.model;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <strong>Not part of any API - this an internal JQM class and may change without notice.</strong> <br>
+ * In-JVM notification of new job instances inside a queue. Clients running inside the same JVM as an engine (child job instances, web
+ * services...) use it to wake up the pollers of the queue at once, without waiting for a database round trip. Also used to signal queue
+ * configuration changes (pause, resume...) so that engines do not wait for their next configuration check.
+ */
+public final class QueueEvents
+{
+    /**
+     * Something interested in new job instances or configuration changes.
+     */
+    public interface Listener
+    {
+        /**
+         * Called after the commit of the transaction which has submitted the job instances. Must not block.
+         *
+         * @param queueId
+         *            the queue which has received new job instances.
+         */
+        default void jobInstancesSubmitted(long queueId)
+        {
+            // Nothing by default.
+        }
+
+        /**
+         * Called after the commit of a transaction which has changed the deployment parameters of queues. Must not block.
+         */
+        default void configurationChanged()
+        {
+            // Nothing by default.
+        }
+    }
+
+    private static Set<Listener> listeners = new CopyOnWriteArraySet<>();
+
+    private QueueEvents()
+    {
+        // Static helper class.
+    }
+
+    public static void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    public static void jobInstancesSubmitted(long queueId)
+    {
+        for (Listener listener : listeners)
+        {
+            listener.jobInstancesSubmitted(queueId);
+        }
+    }
+
+    public static void configurationChanged()
+    {
+        for (Listener listener : listeners)
+        {
+            listener.configurationChanged();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.runner.java.api.jmx;
+
+import javax.management.MXBean;
+
+/**
+ * Monitoring interface for the class loaders and class paths used by the Java runner of a node.
+ */
+@MXBean
+public interface ClassloaderManagerMBean
+{
+    /**
+     * Number of launches of FS job definitions which have used an already resolved class path (including the launches which have waited
+     * for a resolution done at the same time by another launch).
+     */
+    long getFsCacheHits();
+
+    /**
+     * Number of class path resolutions of FS job definitions: first launches, and launches after a change of the jar or its libraries.
+     */
+    long getFsCacheMisses();
+
+    /**
+     * Number of payload jars whose class path is currently inside the cache.
+     */
+    int getFsCacheSize();
+
+    /**
+     * Number of launches of MAVEN job definitions which have used an already resolved class path.
+     */
+    long getMavenCacheHits();
+
+    /**
+     * Number of launches of MAVEN job definitions which had to resolve their class path with Maven.
+     */
+    long getMavenCacheMisses();
+
+    /**
+     * Number of resolved MAVEN class paths currently inside the cache.
+     */
+    int getMavenCacheSize();
+
+    /**
+     * Total time spent resolving MAVEN class paths since engine start.
+     */
+    long getMavenResolutionTimeTotalMilliseconds();
+
+    /**
+     * Time spent by the latest MAVEN class path resolution.
+     */
+    long getMavenResolutionTimeLastMilliseconds();
+
+    /**
+     * Forgets all resolved MAVEN class paths, in memory and on disk. The next launches will resolve them again.
+     */
+    void clearMavenCache();
+
+    /**
+     * Number of class loaders which may be used by multiple job instances (shared, shared per jar or persistent contexts) currently kept.
+     */
+    int getSharedClassLoaderCount();
+
+    /**
+     * Number of shared class loaders closed since engine start because they were not used anymore.
+     */
+    long getSharedClassLoaderEvictions();
+
+    /**
+     * Number of idle class loaders of recycled contexts waiting for the next launch of their job definition.
+     */
+    int getIdleRecycledClassLoaderCount();
+
+    /**
+     * Memory used by class metadata (metaspace) inside the whole JVM, in bytes. -1 if not available.
+     */
+    long getMetaspaceUsedBytes();
+
+    /**
+     * Number of classes currently loaded inside the whole JVM.
+     */
+    int getLoadedClassCount();
+
+    /**
+     * Number of classes unloaded since the start of the JVM.
+     */
+    long getUnloadedClassCount();
+}
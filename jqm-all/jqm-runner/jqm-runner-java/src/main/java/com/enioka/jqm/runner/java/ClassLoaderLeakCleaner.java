@@ -52,15 +52,15 @@ class ClassLoaderLeakCleaner
         Introspector.flushCaches();
 
         // Runaway threads
-        cleanThreads();
+        cleanThreads(cl);
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    static void cleanJdbc(Thread t)
+    static void cleanJdbc(Thread t, ClassLoader cl)
     {
         try
         {
-            Class c = t.getContextClassLoader().loadClass("com.enioka.jqm.providers.PayloadInterceptor");
+            Class c = cl.loadClass("com.enioka.jqm.providers.PayloadInterceptor");
             Method m = c.getMethod("forceCleanup", Thread.class);
             int i = (Integer) m.invoke(null, t);
             if (i > 0)
@@ -80,8 +80,14 @@ class ClassLoaderLeakCleaner
         }
     }
 
-    private static void cleanThreads()
+    /**
+     * Interrupts the threads (other than the current one) which still use the given class loader, as they prevent its garbage collection.
+     *
+     * @return the number of such threads.
+     */
+    static int cleanThreads(ClassLoader cl)
     {
+        int res = 0;
         ThreadGroup tg = Thread.currentThread().getThreadGroup();
 
         synchronized (tg)
@@ -92,7 +98,7 @@ class ClassLoaderLeakCleaner
             for (int i = 0; i < tCount; i++)
             {
                 Thread t = threads[i];
-                if (t == null || t == Thread.currentThread() || t.getContextClassLoader() != Thread.currentThread().getContextClassLoader())
+                if (t == null || t == Thread.currentThread() || t.getContextClassLoader() != cl)
                 {
                     // Only kill threads that are not the current one and that are an issue, that is prevent GC of the classloader.
                     continue;
@@ -101,7 +107,9 @@ class ClassLoaderLeakCleaner
                 jqmlogger.warn("Runaway thread. Cleaner has interrupted thread {}", t.getName());
                 t.setContextClassLoader(null);
                 t.interrupt();
+                res++;
             }
         }
+        return res;
     }
 }
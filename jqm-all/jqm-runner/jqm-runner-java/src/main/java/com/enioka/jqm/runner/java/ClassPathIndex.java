@@ -0,0 +1,263 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.runner.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Attributes.Name;
+import java.util.jar.Manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.cl.ExtClassLoader;
+
+/**
+ * The set of packages which can be found inside a class path. It allows {@link PayloadClassLoader} to avoid looking for a class where it
+ * cannot be.<br>
+ * An index is only complete if it knows every package of its class path. When in doubt (a non-file URL, a jar with a Class-Path manifest
+ * entry, an unknown class loader...) it is marked as incomplete and then never prevents a lookup.<br>
+ * The packages of each jar are computed once per version of the jar (path, size and date), as the same jars are used by many launches.
+ */
+class ClassPathIndex
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(ClassPathIndex.class);
+
+    private static class JarPackages
+    {
+        long length;
+        long lastModified;
+        Set<String> packages;
+        boolean complete;
+    }
+
+    private static final Map<String, JarPackages> jarCache = new ConcurrentHashMap<>();
+    private static final Map<ClassLoader, ClassPathIndex> parentCache = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Set<String> packages = ConcurrentHashMap.newKeySet();
+    private final Set<URL> indexedUrls = ConcurrentHashMap.newKeySet();
+    private volatile boolean complete = true;
+
+    /**
+     * True if the class path may contain classes of the given package.
+     */
+    boolean mayContain(String packageName)
+    {
+        return !complete || packages.contains(packageName);
+    }
+
+    synchronized void add(URL url)
+    {
+        if (!indexedUrls.add(url))
+        {
+            return;
+        }
+
+        File f;
+        try
+        {
+            f = "file".equals(url.getProtocol()) ? new File(url.toURI()) : null;
+        }
+        catch (URISyntaxException | IllegalArgumentException e)
+        {
+            f = null;
+        }
+        if (f == null)
+        {
+            jqmlogger.debug("Class path element {} cannot be indexed", url);
+            complete = false;
+            return;
+        }
+
+        if (f.isDirectory())
+        {
+            addDirectory(f, "");
+        }
+        else if (f.isFile())
+        {
+            JarPackages jp = getJarPackages(f);
+            packages.addAll(jp.packages);
+            complete &= jp.complete;
+        }
+        // Non existing elements are ignored by class loaders.
+    }
+
+    private void addDirectory(File dir, String packageName)
+    {
+        File[] children = dir.listFiles();
+        if (children == null)
+        {
+            complete = false;
+            return;
+        }
+        for (File child : children)
+        {
+            if (child.isDirectory())
+            {
+                addDirectory(child, packageName.isEmpty() ? child.getName() : packageName + "." + child.getName());
+            }
+            else if (child.getName().endsWith(".class"))
+            {
+                packages.add(packageName);
+            }
+        }
+    }
+
+    private static JarPackages getJarPackages(File f)
+    {
+        String key = f.getAbsolutePath();
+        JarPackages res = jarCache.get(key);
+        if (res != null && res.length == f.length() && res.lastModified == f.lastModified())
+        {
+            return res;
+        }
+
+        res = new JarPackages();
+        res.length = f.length();
+        res.lastModified = f.lastModified();
+        res.packages = new HashSet<>();
+        res.complete = true;
+        try (JarFile jar = new JarFile(f))
+        {
+            Manifest manifest = jar.getManifest();
+            if (manifest != null && manifest.getMainAttributes().getValue(Name.CLASS_PATH) != null)
+            {
+                // Class loaders follow this attribute, so the class path is larger than the jar itself.
+                res.complete = false;
+            }
+
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements())
+            {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(".class"))
+                {
+                    continue;
+                }
+                if (name.startsWith("META-INF/versions/"))
+                {
+                    // Multi-release jar: META-INF/versions/11/a/b/C.class is inside package a.b
+                    int i = name.indexOf('/', "META-INF/versions/".length());
+                    name = i < 0 ? name : name.substring(i + 1);
+                }
+                int i = name.lastIndexOf('/');
+                res.packages.add(i < 0 ? "" : name.substring(0, i).replace('/', '.'));
+            }
+        }
+        catch (IOException e)
+        {
+            jqmlogger.debug("Jar file " + f.getAbsolutePath() + " cannot be indexed", e);
+            res.complete = false;
+        }
+
+        jarCache.put(key, res);
+        return res;
+    }
+
+    /**
+     * The index of everything a parent class loader (and its own parents) can load. It is incomplete if the hierarchy contains an unknown
+     * type of class loader.
+     */
+    static ClassPathIndex forParent(ClassLoader parent)
+    {
+        if (parent == null)
+        {
+            parent = ClassLoader.getPlatformClassLoader();
+        }
+        return parentCache.computeIfAbsent(parent, ClassPathIndex::indexParent);
+    }
+
+    private static ClassPathIndex indexParent(ClassLoader parent)
+    {
+        ClassPathIndex res = new ClassPathIndex();
+
+        // JDK and modules given on the command line. It is larger than what the platform CL can load, which is not an issue.
+        for (Module m : ModuleLayer.boot().modules())
+        {
+            res.packages.addAll(m.getPackages());
+        }
+
+        for (ClassLoader cl = parent; cl != null && cl != ClassLoader.getPlatformClassLoader(); cl = cl.getParent())
+        {
+            if (cl == ClassLoader.getSystemClassLoader())
+            {
+                for (String element : System.getProperty("java.class.path", "").split(File.pathSeparator))
+                {
+                    if (!element.isEmpty())
+                    {
+                        try
+                        {
+                            res.add(new File(element).toURI().toURL());
+                        }
+                        catch (IOException e)
+                        {
+                            res.complete = false;
+                        }
+                    }
+                }
+            }
+            else if (cl instanceof URLClassLoader)
+            {
+                for (URL url : ((URLClassLoader) cl).getURLs())
+                {
+                    res.add(url);
+                }
+            }
+            else if (ExtClassLoader.moduleLayerInstance != null && isModuleLoader(ExtClassLoader.moduleLayerInstance, cl))
+            {
+                for (Module m : ExtClassLoader.moduleLayerInstance.modules())
+                {
+                    if (m.getClassLoader() == cl)
+                    {
+                        res.packages.addAll(m.getPackages());
+                    }
+                }
+            }
+            else
+            {
+                jqmlogger.debug("Class loader {} cannot be indexed", cl);
+                res.complete = false;
+                break;
+            }
+        }
+
+        return res;
+    }
+
+    private static boolean isModuleLoader(ModuleLayer layer, ClassLoader cl)
+    {
+        for (Module m : layer.modules())
+        {
+            if (m.getClassLoader() == cl)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,12 +1,20 @@
 package com.enioka.jqm.runner.java;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import com.enioka.jqm.api.JavaJobRunner;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.DbManager;
@@ -15,6 +23,7 @@ import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.JobDef;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.runner.api.JobRunnerCallback;
+import com.enioka.jqm.runner.java.api.jmx.ClassloaderManagerMBean;
 
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
@@ -25,24 +34,27 @@ import org.slf4j.LoggerFactory;
  * We use a specific object rather than static objects in the {@link JavaJobInstanceTracker} class to allow multiple engine instantiations.
  * It also allows to centralise all CL creation methods and have cleaner code in Loader and in JCL.
  */
-public class ClassloaderManager
+public class ClassloaderManager implements ClassloaderManagerMBean
 {
     private Logger jqmlogger = LoggerFactory.getLogger(ClassloaderManager.class);
 
     /**
-     * The CL corresponding to "one CL to rule them all" mode.
+     * The CLs which may be used by multiple job instances: the CL corresponding to "one CL to rule them all" mode (key is "shared"), the
+     * CLs corresponding to "one CL per jar" mode (key is "jar:" + jar path) and the CLs corresponding to persistent specific contexts (key
+     * is "cl:" + Cl object ID).
      */
-    private PayloadClassLoader sharedClassLoader = null;
+    private SharedClassLoaderRegistry sharedClassLoaders;
 
     /**
-     * The CLs corresponding to "one CL per jar" mode.
+     * The idle CLs of non-persistent contexts with recycled runs, waiting for the next launch of their job definition. Key is Cl object ID
+     * + JobDef ID. A CL is only inside this map when no job instance uses it.
      */
-    private Map<String, PayloadClassLoader> sharedJarClassLoader = new HashMap<>();
+    private Map<String, Deque<PayloadClassLoader>> recycledClassLoaders = new HashMap<>();
 
     /**
-     * The CLs corresponding to specific keys (specified inside {@link JobDef#getSpecificIsolationContext()}). Key is Cl object ID.
+     * Max number of idle recycled CLs kept for a given job definition.
      */
-    private Map<Long, PayloadClassLoader> persistentClassLoaders = new HashMap<Long, PayloadClassLoader>();
+    private int recycledPoolSize;
 
     /**
      * The different runners which may be involved inside the class loaders.
@@ -57,12 +69,17 @@ public class ClassloaderManager
     private final LibraryResolverFS fsResolver;
     private final LibraryResolverMaven mavenResolver;
 
+    /**
+     * The JMX bean name, set on the first launch as the node is only known at this time.
+     */
+    private volatile ObjectName name = null;
+
     public ClassloaderManager(List<JavaJobRunner> javaJobRunners)
     {
         try (DbConn cnx = DbManager.getDb().getConn())
         {
             this.mavenResolver = new LibraryResolverMaven(cnx);
-            this.fsResolver = new LibraryResolverFS(this.mavenResolver);
+            this.fsResolver = new LibraryResolverFS(this.mavenResolver, cnx);
 
             setIsolationDefault(cnx);
         }
@@ -72,6 +89,10 @@ public class ClassloaderManager
     private void setIsolationDefault(DbConn cnx)
     {
         this.launchIsolationDefault = GlobalParameter.getParameter(cnx, "launch_isolation_default", "Isolated");
+        this.recycledPoolSize = Integer.parseInt(GlobalParameter.getParameter(cnx, "recycledClPoolSize", "2"));
+        this.sharedClassLoaders = new SharedClassLoaderRegistry(
+                Integer.parseInt(GlobalParameter.getParameter(cnx, "sharedClMaxCount", "0")),
+                Long.parseLong(GlobalParameter.getParameter(cnx, "sharedClIdleTimeoutMin", "0")) * 60000);
     }
 
     public PayloadClassLoader getClassloader(JobInstance ji, JobRunnerCallback cb)
@@ -79,6 +100,7 @@ public class ClassloaderManager
     {
         final PayloadClassLoader jobClassLoader;
         JobDef jd = ji.getJD();
+        registerJmxBean(ji, cb);
 
         // Extract the jar actual path
         File jarFile = new File(FilenameUtils.concat(new File(ji.getNode().getRepo()).getAbsolutePath(), jd.getJarPath()));
@@ -87,6 +109,9 @@ public class ClassloaderManager
         // payloads)
         ClassLoader parent = getParentClassLoader(ji, cb);
 
+        // Resolve the libraries (they are added to the classpath at the end)
+        final URL[] classpath = getClasspath(ji, cb);
+
         // Priority is:
         // 1 - a specific context
         // 2 - general mode (jar or global)
@@ -99,37 +124,23 @@ public class ClassloaderManager
             // Specific CL options were given
             String clSharingKey = cldef.getName();
 
-            // We take great care to reduce locking as much as possible, so this code may seem to be too complicated at first glance.
             if (cldef.isPersistent())
             {
-                if (persistentClassLoaders.containsKey(cldef.getId()))
-                {
-                    jqmlogger.info("Using an existing specific isolation context : " + clSharingKey);
-                    jobClassLoader = persistentClassLoaders.get(cldef.getId());
-                }
-                else
-                {
-                    synchronized (persistentClassLoaders)
-                    {
-                        if (persistentClassLoaders.containsKey(cldef.getId()))
-                        {
-                            jqmlogger.info("Using an existing specific isolation context : " + clSharingKey);
-                            jobClassLoader = persistentClassLoaders.get(cldef.getId());
-                        }
-                        else
-                        {
-                            jqmlogger.info("Creating a new persistent specific isolation context: " + clSharingKey);
-                            jobClassLoader = new PayloadClassLoader(parent);
-                            jobClassLoader.setReferenceJobDefName(jd.getApplicationName());
-                            jobClassLoader.mayBeShared(cldef.isPersistent());
-                            jobClassLoader.setHiddenJavaClasses(cldef.getHiddenClasses());
-                            jobClassLoader.setTracing(cldef.isTracingEnabled());
-                            jobClassLoader.setChildFirstClassLoader(cldef.isChildFirst());
-
-                            persistentClassLoaders.put(cldef.getId(), jobClassLoader);
-                        }
-                    }
-                }
+                jobClassLoader = sharedClassLoaders.acquire("cl:" + cldef.getId(), () -> {
+                    jqmlogger.info("Creating a new persistent specific isolation context: " + clSharingKey);
+                    PayloadClassLoader res = new PayloadClassLoader(parent);
+                    res.setReferenceJobDefName(jd.getApplicationName());
+                    res.mayBeShared(cldef.isPersistent());
+                    res.setHiddenJavaClasses(cldef.getHiddenClasses());
+                    res.setTracing(cldef.isTracingEnabled());
+                    res.setChildFirstClassLoader(cldef.isChildFirst());
+                    return res;
+                });
+                jqmlogger.info("Using specific isolation context : " + clSharingKey);
+            }
+            else if (cldef.getRecycledRuns() > 1)
+            {
+                jobClassLoader = getRecycledClassloader(cldef, jd, parent, jarFile, classpath);
             }
             else
             {
@@ -146,37 +157,26 @@ public class ClassloaderManager
         }
         else
         {
-            // Use default CL options. We accept double creation on edge sync states in this case.
+            // Use default CL options.
             if ("Shared".equals(launchIsolationDefault))
             {
-                if (sharedClassLoader != null)
-                {
-                    jqmlogger.info("Using sharedClassLoader");
-                    jobClassLoader = sharedClassLoader;
-                }
-                else
-                {
+                jobClassLoader = sharedClassLoaders.acquire("shared", () -> {
                     jqmlogger.info("Creating sharedClassLoader");
-                    jobClassLoader = new PayloadClassLoader(parent);
-                    jobClassLoader.mayBeShared(true);
-                    sharedClassLoader = jobClassLoader;
-                }
+                    PayloadClassLoader res = new PayloadClassLoader(parent);
+                    res.mayBeShared(true);
+                    return res;
+                });
+                jqmlogger.info("Using sharedClassLoader");
             }
             else if ("SharedJar".equals(launchIsolationDefault))
             {
-                if (sharedJarClassLoader.containsKey(jd.getJarPath()))
-                {
-                    // check if jarUrl has already a class loader
-                    jqmlogger.info("Using shared Jar CL");
-                    jobClassLoader = sharedJarClassLoader.get(jd.getJarPath());
-                }
-                else
-                {
+                jobClassLoader = sharedClassLoaders.acquire("jar:" + jd.getJarPath(), () -> {
                     jqmlogger.info("Creating shared Jar CL");
-                    jobClassLoader = new PayloadClassLoader(parent);
-                    jobClassLoader.mayBeShared(true);
-                    sharedJarClassLoader.put(jd.getJarPath(), jobClassLoader);
-                }
+                    PayloadClassLoader res = new PayloadClassLoader(parent);
+                    res.mayBeShared(true);
+                    return res;
+                });
+                jqmlogger.info("Using shared Jar CL");
             }
             else
             {
@@ -187,11 +187,17 @@ public class ClassloaderManager
             }
         }
 
-        // Resolve the libraries and add them to the classpath
-        final URL[] classpath = getClasspath(ji, cb);
-
         // Remember to also add the jar file itself... as CL can be shared, there is no telling if it already present or not.
-        jobClassLoader.extendUrls(jarFile.toURI().toURL(), classpath);
+        try
+        {
+            jobClassLoader.extendUrls(jarFile.toURI().toURL(), classpath);
+        }
+        catch (MalformedURLException | RuntimeException e)
+        {
+            // The caller will never get the CL, so it cannot release it.
+            releaseClassloader(jobClassLoader);
+            throw e;
+        }
 
         // Some debug display
         jqmlogger.trace("CL URLs:");
@@ -203,6 +209,101 @@ public class ClassloaderManager
         return jobClassLoader;
     }
 
+    /**
+     * Recycled isolation: a transient CL which is used by successive launches of the same job definition (never at the same time) until
+     * it has run {@link Cl#getRecycledRuns()} job instances, or until the payload jar or its libraries change.
+     */
+    private PayloadClassLoader getRecycledClassloader(Cl cldef, JobDef jd, ClassLoader parent, File jarFile, URL[] classpath)
+    {
+        String key = cldef.getId() + "/" + jd.getId();
+        String jarStamp = jarFile.lastModified() + "/" + jarFile.length();
+
+        PayloadClassLoader res = null;
+        synchronized (recycledClassLoaders)
+        {
+            Deque<PayloadClassLoader> idle = recycledClassLoaders.get(key);
+            while (res == null && idle != null && !idle.isEmpty())
+            {
+                PayloadClassLoader candidate = idle.poll();
+                if (candidate.canBeRecycledFor(jarStamp, classpath))
+                {
+                    res = candidate;
+                }
+                else
+                {
+                    jqmlogger.info("Retiring a recycled isolation context of {} as its payload has changed", jd.getApplicationName());
+                    // Its last job instance was cleaned when it released it, and this is not its thread.
+                    candidate.evict();
+                }
+            }
+        }
+
+        if (res != null)
+        {
+            jqmlogger.info("Using a recycled isolation context: " + cldef.getName());
+        }
+        else
+        {
+            jqmlogger.info("Creating a new recycled isolation context: " + cldef.getName());
+            res = new PayloadClassLoader(parent);
+            res.setReferenceJobDefName(jd.getApplicationName());
+            res.mayBeShared(false);
+            res.setHiddenJavaClasses(cldef.getHiddenClasses());
+            res.setTracing(cldef.isTracingEnabled());
+            res.setChildFirstClassLoader(cldef.isChildFirst());
+            res.setRecycling(key, cldef.getRecycledRuns(), jarStamp, classpath);
+        }
+        res.incrementRunCount();
+        return res;
+    }
+
+    /**
+     * Called at the end of a launch with the CL which was used by the job instance. Transient CLs are closed, except recycled ones which
+     * are kept for the next launch if they can still be used. Shared CLs are kept until evicted.
+     */
+    void releaseClassloader(PayloadClassLoader cl)
+    {
+        if (cl.getSharedKey() != null)
+        {
+            // The CL stays open, but the connections this job instance has left open are its own.
+            ClassLoaderLeakCleaner.cleanJdbc(Thread.currentThread(), cl);
+            sharedClassLoaders.release(cl);
+            return;
+        }
+        if (cl.getRecycleKey() == null)
+        {
+            cl.tryClose();
+            return;
+        }
+
+        // Leaks which can be fixed without throwing the CL out (the static context is kept, that is the point).
+        ClassLoaderLeakCleaner.cleanJdbc(Thread.currentThread(), cl);
+        if (ClassLoaderLeakCleaner.cleanThreads(cl) > 0)
+        {
+            jqmlogger.info("Retiring a recycled isolation context as the job instance has left running threads");
+            cl.tryClose();
+            return;
+        }
+        if (!cl.canBeRecycled())
+        {
+            jqmlogger.debug("Retiring a recycled isolation context as it has reached its max number of runs");
+            cl.tryClose();
+            return;
+        }
+
+        synchronized (recycledClassLoaders)
+        {
+            Deque<PayloadClassLoader> idle = recycledClassLoaders.computeIfAbsent(cl.getRecycleKey(), k -> new ArrayDeque<>());
+            if (idle.size() < recycledPoolSize)
+            {
+                idle.push(cl);
+                return;
+            }
+        }
+        jqmlogger.debug("Retiring a recycled isolation context as there are already enough idle ones");
+        cl.tryClose();
+    }
+
     /**
      * Returns all the URL that should be inside the classpath. This includes the jar itself if any.
      *
@@ -241,22 +342,175 @@ public class ClassloaderManager
         return javaJobRunners;
     }
 
+    private void registerJmxBean(JobInstance ji, JobRunnerCallback cb)
+    {
+        if (name != null || cb == null || !cb.isJmxEnabled())
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            if (name != null)
+            {
+                return;
+            }
+            try
+            {
+                MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                ObjectName n = new ObjectName("com.enioka.jqm:type=Node.JavaRunner,Node=" + ji.getNode().getName());
+                if (mbs.isRegistered(n))
+                {
+                    // Runners are not closed when an engine stops, so the bean may belong to a previous engine of the same node.
+                    mbs.unregisterMBean(n);
+                }
+                // explicitely create mbean as its interface is in another package, so conventions do not apply.
+                mbs.registerMBean(new StandardMBean(this, ClassloaderManagerMBean.class), n);
+                name = n;
+            }
+            catch (Exception e)
+            {
+                jqmlogger.warn("Could not create JMX bean for the Java runner", e);
+            }
+        }
+    }
+
     void stop()
     {
         jqmlogger.info("Closing class loader manager");
-        if (sharedClassLoader != null)
+        if (name != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+            catch (Exception e)
+            {
+                jqmlogger.error("Could not unregister Java runner JMX bean", e);
+            }
+            name = null;
+        }
+        fsResolver.stop();
+        sharedClassLoaders.evictAll();
+        synchronized (recycledClassLoaders)
         {
-            sharedClassLoader.tryClose();
+            for (Map.Entry<String, Deque<PayloadClassLoader>> e : recycledClassLoaders.entrySet())
+            {
+                jqmlogger.info("Closing idle recycled class loaders {}", e.getKey());
+                for (PayloadClassLoader cl : e.getValue())
+                {
+                    cl.evict();
+                }
+            }
+            recycledClassLoaders.clear();
         }
-        for (Map.Entry<String, PayloadClassLoader> e : sharedJarClassLoader.entrySet())
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // JMX
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public long getFsCacheHits()
+    {
+        return fsResolver.getCacheHits();
+    }
+
+    @Override
+    public long getFsCacheMisses()
+    {
+        return fsResolver.getCacheMisses();
+    }
+
+    @Override
+    public int getFsCacheSize()
+    {
+        return fsResolver.getCacheSize();
+    }
+
+    @Override
+    public long getMavenCacheHits()
+    {
+        return mavenResolver.getCacheHits();
+    }
+
+    @Override
+    public long getMavenCacheMisses()
+    {
+        return mavenResolver.getCacheMisses();
+    }
+
+    @Override
+    public int getMavenCacheSize()
+    {
+        return mavenResolver.getCacheSize();
+    }
+
+    @Override
+    public long getMavenResolutionTimeTotalMilliseconds()
+    {
+        return mavenResolver.getResolutionTimeTotalMs();
+    }
+
+    @Override
+    public long getMavenResolutionTimeLastMilliseconds()
+    {
+        return mavenResolver.getResolutionTimeLastMs();
+    }
+
+    @Override
+    public void clearMavenCache()
+    {
+        mavenResolver.clearCache();
+    }
+
+    @Override
+    public int getSharedClassLoaderCount()
+    {
+        return sharedClassLoaders.getCount();
+    }
+
+    @Override
+    public long getSharedClassLoaderEvictions()
+    {
+        return sharedClassLoaders.getEvictions();
+    }
+
+    @Override
+    public int getIdleRecycledClassLoaderCount()
+    {
+        int res = 0;
+        synchronized (recycledClassLoaders)
         {
-            jqmlogger.info("Closing persistent jar class loader {}", e.getKey());
-            e.getValue().tryClose();
+            for (Deque<PayloadClassLoader> idle : recycledClassLoaders.values())
+            {
+                res += idle.size();
+            }
         }
-        for (Map.Entry<Long, PayloadClassLoader> e : persistentClassLoaders.entrySet())
+        return res;
+    }
+
+    @Override
+    public long getMetaspaceUsedBytes()
+    {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
         {
-            jqmlogger.info("Closing persistent keyed class loader {}", e.getKey());
-            e.getValue().tryClose();
+            if ("Metaspace".equals(pool.getName()))
+            {
+                return pool.getUsage().getUsed();
+            }
         }
+        return -1;
+    }
+
+    @Override
+    public int getLoadedClassCount()
+    {
+        return ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+    }
+
+    @Override
+    public long getUnloadedClassCount()
+    {
+        return ManagementFactory.getClassLoadingMXBean().getUnloadedClassCount();
     }
 }
@@ -168,15 +168,24 @@ class JavaJobInstanceTracker implements JobInstanceTracker, JavaJobInstanceTrack
     @Override
     public void wrap()
     {
-        // Restore and clean class loaders (if needed, as CLs may be persistent)
-        if (this.classLoaderToRestoreAtEnd != null)
+        // Restore and clean class loaders (if needed, as CLs may be persistent). The payload may have changed the context CL, so the CL
+        // released is the one which was given by the manager, even if the run failed before using it.
+        try
+        {
+            if (this.classLoaderToRestoreAtEnd != null)
+            {
+                Thread.currentThread().setContextClassLoader(classLoaderToRestoreAtEnd);
+                jqmlogger.trace("Class Loader was correctly restored");
+            }
+        }
+        finally
         {
-            if (Thread.currentThread().getContextClassLoader() instanceof PayloadClassLoader)
+            if (this.jobClassLoader != null)
             {
-                ((PayloadClassLoader) Thread.currentThread().getContextClassLoader()).tryClose();
+                PayloadClassLoader cl = this.jobClassLoader;
+                this.jobClassLoader = null;
+                clm.releaseClassloader(cl);
             }
-            Thread.currentThread().setContextClassLoader(classLoaderToRestoreAtEnd);
-            jqmlogger.trace("Class Loader was correctly restored");
         }
 
         // Unregister MBean
@@ -29,6 +29,7 @@ public class JavaRunner implements JobRunner
     private ClassloaderManager classloaderManager;
     private boolean oneLogPerLaunch = false;
     private PrintStream originalStdOut, originalStdErr;
+    private MultiplexPrintStream multiplexStdOut, multiplexStdErr;
 
     @Override
     public void close()
@@ -42,6 +43,8 @@ public class JavaRunner implements JobRunner
 
         if (oneLogPerLaunch)
         {
+            multiplexStdOut.stop();
+            multiplexStdErr.stop();
             System.setOut(originalStdOut);
             System.setErr(originalStdErr);
         }
@@ -72,14 +75,16 @@ public class JavaRunner implements JobRunner
 
                 String rootPath = ExtClassLoader.getRootDir();
                 String logDirectory = FilenameUtils.concat(rootPath, "logs");
+                int bufferSize = Integer.parseInt(GlobalParameter.getParameter(cnx, "logFileBufferSize", "8192"));
+                int flushPeriod = Integer.parseInt(GlobalParameter.getParameter(cnx, "logFileFlushPeriodMs", "1000"));
 
                 // Override stdout so that we are able to capture it inside log files.
-                MultiplexPrintStream s = new MultiplexPrintStream(System.out, logDirectory, "both".equals(gp1));
-                System.setOut(s);
+                multiplexStdOut = new MultiplexPrintStream(System.out, logDirectory, "both".equals(gp1), bufferSize, flushPeriod);
+                System.setOut(multiplexStdOut);
 
                 // Same with stderr
-                s = new MultiplexPrintStream(System.err, logDirectory, "both".equals(gp1));
-                System.setErr(s);
+                multiplexStdErr = new MultiplexPrintStream(System.err, logDirectory, "both".equals(gp1), bufferSize, flushPeriod);
+                System.setErr(multiplexStdErr);
 
                 // Redirect JQM's own logging to the multiplexing stdout.
                 // That way all logging specific to a JobInstance goes to the JobInstance log file and not the main log file. //
@@ -0,0 +1,55 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.runner.java;
+
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collections;
+
+/**
+ * Not used directly by the engine: its byte code is defined inside a {@link PayloadClassLoader} which is about to be closed (see
+ * {@link PayloadClassLoader#deregisterJdbcDrivers()}). This is needed as the {@link DriverManager} only allows the code of the class loader
+ * of a driver to deregister it.<br>
+ * It must therefore only reference JDK classes.
+ */
+public final class JdbcDriverCleaner
+{
+    private JdbcDriverCleaner()
+    {
+        // Helper class only.
+    }
+
+    /**
+     * Deregisters the JDBC drivers loaded by the class loader of this class.
+     *
+     * @return the number of drivers deregistered.
+     */
+    public static int deregisterDrivers() throws SQLException
+    {
+        ClassLoader cl = JdbcDriverCleaner.class.getClassLoader();
+        int res = 0;
+        for (Driver driver : Collections.list(DriverManager.getDrivers()))
+        {
+            if (driver.getClass().getClassLoader() == cl)
+            {
+                DriverManager.deregisterDriver(driver);
+                res++;
+            }
+        }
+        return res;
+    }
+}
@@ -23,11 +23,20 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.JobDef;
 import com.enioka.jqm.model.Node;
 
@@ -42,10 +51,15 @@ import org.slf4j.LoggerFactory;
 
 /**
  * The cache is responsible for resolving the dependencies of a payload (from a pom, from a lib directory, ...). As the resolution is
- * costly, it is only done the first time and cached afterwards. <br>
- * Cache invalidation is done by analyzing the last modification date of the payload jar and of the lib directory (if any) on each call.<br>
+ * costly, it is only done the first time and cached afterwards. The cache key is the payload jar file, so job definitions sharing a jar
+ * also share its resolution.<br>
+ * Cache invalidation is done by analyzing the last modification date of the payload jar and of the lib directory (if any). This is done
+ * every <code>libCacheCheckPeriodMs</code> milliseconds by a background thread for all cached jars, so that a launch never waits for the
+ * file system. 0 means checking on each launch instead.<br>
  * There is one library cache per engine.<br>
- * This object is thread-safe.
+ * This object is thread-safe. A jar is resolved only once even if many of its job instances are launched at the same time: the first
+ * launch resolves it while the other ones wait for the result. Launches of other jars are not blocked, except by a resolution inside the
+ * same directory (as resolution may extract files inside the directory of the jar).
  */
 class LibraryResolverFS
 {
@@ -57,12 +71,30 @@ class LibraryResolverFS
         Date loadTime;
     }
 
-    private Map<String, JobDefLibrary> cache = new HashMap<>();
-    private LibraryResolverMaven mavenResolver;
+    private final ConcurrentMap<String, CompletableFuture<JobDefLibrary>> cache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> directoryLocks = new ConcurrentHashMap<>();
+    private final LibraryResolverMaven mavenResolver;
+    private final long checkPeriodMs;
+    private ScheduledExecutorService checker = null;
 
-    LibraryResolverFS(LibraryResolverMaven mavenResolver)
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    LibraryResolverFS(LibraryResolverMaven mavenResolver, DbConn cnx)
     {
         this.mavenResolver = mavenResolver;
+        this.checkPeriodMs = Long.parseLong(GlobalParameter.getParameter(cnx, "libCacheCheckPeriodMs", "10000"));
+
+        // Started here and not on first resolution, which happens inside a payload thread (and its thread group).
+        if (this.checkPeriodMs > 0)
+        {
+            checker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "LIBRARY_CACHE_CHECKER;");
+                t.setDaemon(true);
+                return t;
+            });
+            checker.scheduleWithFixedDelay(this::removeStale, checkPeriodMs, checkPeriodMs, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -71,42 +103,133 @@ class LibraryResolverFS
      *                the JQM Node that holds the binaries (local node)
      * @param jd
      *                the JobDefinition that should be resolved
-     * @param cnx
-     *                a DbConn that will be used only if not in cache, to fetch the Maven repository list from the database.
      * @throws JqmPayloadException
      */
-    synchronized URL[] getLibraries(Node n, JobDef jd) throws JqmPayloadException
+    URL[] getLibraries(Node n, JobDef jd) throws JqmPayloadException
+    {
+        String key = FilenameUtils.concat(new File(n.getRepo()).getAbsolutePath(), jd.getJarPath());
+        while (true)
+        {
+            boolean loaded = false;
+            CompletableFuture<JobDefLibrary> f = cache.get(key);
+            if (f == null)
+            {
+                CompletableFuture<JobDefLibrary> mine = new CompletableFuture<>();
+                f = cache.putIfAbsent(key, mine);
+                if (f == null)
+                {
+                    // This thread is the one doing the resolution.
+                    cacheMisses.increment();
+                    load(n, jd, key, mine);
+                    f = mine;
+                    loaded = true;
+                }
+            }
+
+            JobDefLibrary libs = waitFor(f);
+            if (!loaded && checkPeriodMs <= 0 && isStale(key, libs))
+            {
+                // Only one thread removes it, the others will wait for its new resolution.
+                cache.remove(key, f);
+                continue;
+            }
+            if (!loaded)
+            {
+                cacheHits.increment();
+            }
+            return libs.urls;
+        }
+    }
+
+    private void load(Node n, JobDef jd, String key, CompletableFuture<JobDefLibrary> result)
+    {
+        File jarDir = new File(key).getParentFile();
+        try
+        {
+            JobDefLibrary libs = new JobDefLibrary();
+            synchronized (directoryLocks.computeIfAbsent(jarDir.getAbsolutePath(), k -> new Object()))
+            {
+                libs.urls = loadCache(n, jd);
+                // After the resolution, as it may itself modify the directory.
+                libs.loadTime = new Date();
+            }
+            result.complete(libs);
+        }
+        catch (Throwable e)
+        {
+            // Failures are not cached: next launch will try again. Errors too, otherwise the threads waiting for this future would hang.
+            cache.remove(key, result);
+            result.completeExceptionally(e);
+        }
+    }
+
+    private JobDefLibrary waitFor(CompletableFuture<JobDefLibrary> f) throws JqmPayloadException
+    {
+        try
+        {
+            return f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new JqmPayloadException("Interrupted while waiting for the resolution of the class path", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof JqmPayloadException)
+            {
+                throw (JqmPayloadException) e.getCause();
+            }
+            throw new JqmPayloadException("Could not resolve the class path", e.getCause());
+        }
+    }
+
+    synchronized void stop()
     {
-        if (shouldLoad(n, jd))
+        if (checker != null)
         {
-            loadCache(n, jd);
+            checker.shutdownNow();
+            checker = null;
         }
-        return cache.get(jd.getApplicationName()).urls;
     }
 
     /**
-     * Returns true if the libraries should be loaded in cache. Two cases: never loaded and should be reloaded (jar is more recent than
-     * cache)
+     * Removes the stale libraries from the cache, so that their next launch resolves them again. Runs inside the checker thread.
      */
-    private boolean shouldLoad(Node node, JobDef jd)
+    private void removeStale()
     {
-        if (!cache.containsKey(jd.getApplicationName()))
+        try
         {
-            return true;
+            for (Map.Entry<String, CompletableFuture<JobDefLibrary>> e : cache.entrySet())
+            {
+                CompletableFuture<JobDefLibrary> f = e.getValue();
+                if (f.isDone() && !f.isCompletedExceptionally() && isStale(e.getKey(), f.getNow(null)))
+                {
+                    cache.remove(e.getKey(), f);
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // Never kill the periodic task.
+            jqmlogger.warn("Could not check the library cache", e);
         }
-        // If here: cache exists.
-        JobDefLibrary libs = cache.get(jd.getApplicationName());
+    }
 
-        // Is cache stale?
+    /**
+     * Returns true if the libraries should be loaded again, i.e. if the jar or its lib directory are more recent than the cache.
+     */
+    private boolean isStale(String jarPath, JobDefLibrary libs)
+    {
         Date lastLoaded = libs.loadTime;
-        File jarFile = new File(FilenameUtils.concat(new File(node.getRepo()).getAbsolutePath(), jd.getJarPath()));
+        File jarFile = new File(jarPath);
         File jarDir = jarFile.getParentFile();
         File libDir = new File(FilenameUtils.concat(jarDir.getAbsolutePath(), "lib"));
 
         if (lastLoaded.before(new Date(jarFile.lastModified())) || lastLoaded.before(new Date(jarDir.lastModified()))
                 || lastLoaded.before(new Date(libDir.lastModified())))
         {
-            jqmlogger.info("The cache for application " + jd.getApplicationName() + " will be reloaded");
+            jqmlogger.info("The cache for jar " + jarPath + " will be reloaded");
             return true;
         }
 
@@ -114,7 +237,22 @@ class LibraryResolverFS
         return false;
     }
 
-    private void loadCache(Node node, JobDef jd) throws JqmPayloadException
+    long getCacheHits()
+    {
+        return cacheHits.sum();
+    }
+
+    long getCacheMisses()
+    {
+        return cacheMisses.sum();
+    }
+
+    int getCacheSize()
+    {
+        return cache.size();
+    }
+
+    private URL[] loadCache(Node node, JobDef jd) throws JqmPayloadException
     {
         jqmlogger.debug("Resolving classpath for job definition " + jd.getApplicationName());
 
@@ -212,9 +350,7 @@ class LibraryResolverFS
                     throw new JqmPayloadException("Could not handle internal lib directory", e);
                 }
 
-                // Put in cache
-                putInCache(libUrls, jd.getApplicationName());
-                return;
+                return libUrls;
             }
         }
 
@@ -242,15 +378,12 @@ class LibraryResolverFS
             // Extract results
             URL[] tmp = mavenResolver.extractMavenResults(depFiles);
 
-            // Put in cache
-            putInCache(tmp, jd.getApplicationName());
-
             // Cleanup
             if (pomFromJar && !pomFile.delete())
             {
                 jqmlogger.warn("Could not delete the temp pom file extracted from the jar.");
             }
-            return;
+            return tmp;
         }
 
         // 4: if lib, use lib... (lib has priority over pom)
@@ -272,21 +405,10 @@ class LibraryResolverFS
                 }
             }
 
-            // Put in cache
-            putInCache(tmp, jd.getApplicationName());
-            return;
+            return tmp;
         }
 
         throw new JqmPayloadException(
                 "There is no lib dir or no pom.xml inside the directory containing the jar or inside the jar. The jar cannot be launched.");
     }
-
-    private void putInCache(URL[] urls, String applicationName)
-    {
-        JobDefLibrary jdl = new JobDefLibrary();
-        jdl.loadTime = new Date();
-        jdl.urls = urls;
-
-        this.cache.put(applicationName, jdl);
-    }
 }
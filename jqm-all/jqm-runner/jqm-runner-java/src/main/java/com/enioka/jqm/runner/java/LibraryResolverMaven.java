@@ -1,27 +1,65 @@
 package com.enioka.jqm.runner.java;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
 
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.JobInstance;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
 import org.jboss.shrinkwrap.resolver.api.maven.Maven;
+import org.jboss.shrinkwrap.resolver.api.maven.MavenResolvedArtifact;
 import org.jboss.shrinkwrap.resolver.api.maven.repository.MavenRemoteRepositories;
 import org.jboss.shrinkwrap.resolver.api.maven.repository.MavenUpdatePolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Resolves the class path of MAVEN job definitions, whose path is the GAV coordinates of the payload artifact.<br>
+ * As a transitive resolution is costly, its result is cached in memory and on disk (inside a directory of the node repository) so that it
+ * survives restarts. The cache key is made of the coordinates and of the repository configuration, including the version (size and date, or
+ * content for a class path resource) of the Maven settings file in use, so that editing the settings file invalidates the cache. A class
+ * path made only of release
+ * versions is never resolved again. A class path which may change without its coordinates changing - because one of the resolved
+ * artifacts is a SNAPSHOT, or because the requested version is a range or LATEST/RELEASE - is resolved again after
+ * <code>mavenSnapshotTtlMinutes</code> minutes (0, the default, means on each launch). This parameter is read once, on creation.<br>
+ * A cached class path is also resolved again if one of its files has disappeared from the local Maven repository.<br>
+ * This object is thread-safe. Two simultaneous launches of a job definition not yet in cache may both resolve it.
+ */
 class LibraryResolverMaven
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(LibraryResolverMaven.class);
 
+    private static final String CACHE_DIRECTORY = ".maven-classpath-cache";
+
+    private static class ResolvedClasspath
+    {
+        URL[] urls;
+        long resolutionDate;
+        boolean volatileVersions;
+    }
+
     private static List<String> REPO_LIST = null;
     private static String MAVEN_SETTINGS_CL = null;
     private static String MAVEN_SETTINGS_FILE = null;
@@ -29,21 +67,63 @@ class LibraryResolverMaven
     private String[] mavenRepos;
     private String mavenSettingsClPath;
     private String mavenSettingsFilePath;
+    private final long snapshotCacheMs;
+    private final String mavenSettingsClVersion;
+
+    private final ConcurrentMap<String, ResolvedClasspath> cache = new ConcurrentHashMap<>();
+    private final Set<File> cacheDirectories = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final AtomicLong resolutionTimeTotalMs = new AtomicLong();
+    private volatile long resolutionTimeLastMs = 0;
 
     LibraryResolverMaven(DbConn cnx)
     {
         mavenRepos = GlobalParameter.getParameter(cnx, "mavenRepo", "http://repo1.maven.org/maven2/").split(",");
         mavenSettingsClPath = GlobalParameter.getParameter(cnx, "mavenSettingsCL", null);
         mavenSettingsFilePath = GlobalParameter.getParameter(cnx, "mavenSettingsFile", null);
+        snapshotCacheMs = Long.parseLong(GlobalParameter.getParameter(cnx, "mavenSnapshotTtlMinutes", "0")) * 60000;
+        mavenSettingsClVersion = mavenSettingsClPath == null ? null : getResourceVersion(mavenSettingsClPath);
     }
 
     URL[] resolve(JobInstance ji) throws JqmPayloadException
     {
+        String gav = ji.getJD().getJarPath();
+        String key = gav + "|" + String.join(",", mavenRepos) + "|" + mavenSettingsClPath + "|" + mavenSettingsFilePath + "|"
+                + getSettingsVersion();
+        File cacheDirectory = new File(FilenameUtils.concat(new File(ji.getNode().getRepo()).getAbsolutePath(), CACHE_DIRECTORY));
+        cacheDirectories.add(cacheDirectory);
+
+        ResolvedClasspath res = cache.get(key);
+        if (res == null)
+        {
+            res = readCacheFile(cacheDirectory, key);
+        }
+        if (res != null && isUsable(res, gav))
+        {
+            cache.putIfAbsent(key, res);
+            cacheHits.increment();
+            return res.urls;
+        }
+        cacheMisses.increment();
+
         ConfigurableMavenResolverSystem resolver = getMavenResolver();
 
+        long start = System.currentTimeMillis();
         try
         {
-            return extractMavenResults(resolver.resolve(ji.getJD().getJarPath()).withTransitivity().asFile());
+            res = new ResolvedClasspath();
+            res.resolutionDate = start;
+            MavenResolvedArtifact[] artifacts = resolver.resolve(gav).withTransitivity().asResolvedArtifact();
+            File[] files = new File[artifacts.length];
+            res.volatileVersions = isVolatileVersion(gav);
+            for (int i = 0; i < artifacts.length; i++)
+            {
+                files[i] = artifacts[i].asFile();
+                res.volatileVersions |= artifacts[i].isSnapshotVersion();
+            }
+            res.urls = extractMavenResults(files);
         }
         catch (JqmPayloadException e)
         {
@@ -53,6 +133,212 @@ class LibraryResolverMaven
         {
             throw new JqmPayloadException("Could not resolve a Maven payload path", e);
         }
+        finally
+        {
+            resolutionTimeLastMs = System.currentTimeMillis() - start;
+            resolutionTimeTotalMs.addAndGet(resolutionTimeLastMs);
+        }
+        jqmlogger.debug("Maven class path of {} was resolved in {}ms", gav, resolutionTimeLastMs);
+
+        cache.put(key, res);
+        writeCacheFile(cacheDirectory, key, res);
+        return res.urls;
+    }
+
+    /**
+     * A cached class path can be used if it is not outdated (when it may change) and if all its files are still there.
+     */
+    private boolean isUsable(ResolvedClasspath res, String gav)
+    {
+        if (res.volatileVersions && System.currentTimeMillis() - res.resolutionDate >= snapshotCacheMs)
+        {
+            return false;
+        }
+        for (URL url : res.urls)
+        {
+            try
+            {
+                if (!new File(url.toURI()).isFile())
+                {
+                    jqmlogger.info("Cached Maven class path of {} references a missing file and will be resolved again", gav);
+                    return false;
+                }
+            }
+            catch (URISyntaxException e)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if the artifact designated by these coordinates may change without the coordinates changing: SNAPSHOT, version range, or
+     * LATEST/RELEASE meta versions.
+     */
+    static boolean isVolatileVersion(String gav)
+    {
+        String version = gav.substring(gav.lastIndexOf(':') + 1).trim();
+        return version.endsWith("SNAPSHOT") || "LATEST".equals(version) || "RELEASE".equals(version) || version.startsWith("[")
+                || version.startsWith("(");
+    }
+
+    private File getCacheFile(File cacheDirectory, String key)
+    {
+        return new File(cacheDirectory, String.format("%08x", key.hashCode()) + ".properties");
+    }
+
+    /**
+     * Returns null if there is no valid cache file for this key. Errors only mean the class path will be resolved again.
+     */
+    private ResolvedClasspath readCacheFile(File cacheDirectory, String key)
+    {
+        File f = getCacheFile(cacheDirectory, key);
+        if (!f.isFile())
+        {
+            return null;
+        }
+
+        Properties p = new Properties();
+        try (InputStream is = new FileInputStream(f))
+        {
+            p.load(is);
+            if (!key.equals(p.getProperty("key")))
+            {
+                return null; // Hash collision.
+            }
+
+            ResolvedClasspath res = new ResolvedClasspath();
+            res.resolutionDate = Long.parseLong(p.getProperty("date"));
+            res.volatileVersions = !"false".equals(p.getProperty("volatile")); // Unknown: resolve again when the TTL has expired.
+            res.urls = new URL[Integer.parseInt(p.getProperty("count"))];
+            for (int i = 0; i < res.urls.length; i++)
+            {
+                res.urls[i] = new URL(p.getProperty("url." + i));
+            }
+            return res;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            jqmlogger.warn("Could not read Maven class path cache file " + f.getAbsolutePath() + " - it will be ignored", e);
+            return null;
+        }
+    }
+
+    private void writeCacheFile(File cacheDirectory, String key, ResolvedClasspath res)
+    {
+        Properties p = new Properties();
+        p.setProperty("key", key);
+        p.setProperty("date", String.valueOf(res.resolutionDate));
+        p.setProperty("volatile", String.valueOf(res.volatileVersions));
+        p.setProperty("count", String.valueOf(res.urls.length));
+        for (int i = 0; i < res.urls.length; i++)
+        {
+            p.setProperty("url." + i, res.urls[i].toString());
+        }
+
+        File f = getCacheFile(cacheDirectory, key);
+        try
+        {
+            if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())
+            {
+                throw new IOException("Could not create directory " + cacheDirectory.getAbsolutePath());
+            }
+
+            // Written aside then moved, so that a reader never sees a partial file.
+            File tmp = File.createTempFile("classpath", ".tmp", cacheDirectory);
+            try (OutputStream os = new FileOutputStream(tmp))
+            {
+                p.store(os, null);
+            }
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            jqmlogger.warn("Could not write Maven class path cache file " + f.getAbsolutePath()
+                    + " - the class path will be resolved again after a restart", e);
+        }
+    }
+
+    void clearCache()
+    {
+        cache.clear();
+        for (File cacheDirectory : cacheDirectories)
+        {
+            FileUtils.deleteQuietly(cacheDirectory);
+        }
+        jqmlogger.info("Maven class path cache was cleared");
+    }
+
+    long getCacheHits()
+    {
+        return cacheHits.sum();
+    }
+
+    long getCacheMisses()
+    {
+        return cacheMisses.sum();
+    }
+
+    int getCacheSize()
+    {
+        return cache.size();
+    }
+
+    long getResolutionTimeTotalMs()
+    {
+        return resolutionTimeTotalMs.get();
+    }
+
+    long getResolutionTimeLastMs()
+    {
+        return resolutionTimeLastMs;
+    }
+
+    /**
+     * The version of the settings file the resolver will use (same precedence as in {@link #getMavenResolver()}). Files are only checked
+     * with a stat, class path resources cannot change while the engine runs and are hashed once.
+     */
+    private String getSettingsVersion()
+    {
+        if (mavenSettingsFilePath != null)
+        {
+            return getFileVersion(new File(mavenSettingsFilePath));
+        }
+        if (mavenSettingsClPath != null)
+        {
+            return mavenSettingsClVersion;
+        }
+        return getFileVersion(new File(FilenameUtils.concat(System.getProperty("user.home"), ".m2/settings.xml")));
+    }
+
+    private static String getFileVersion(File f)
+    {
+        return f.length() + "@" + f.lastModified();
+    }
+
+    private static String getResourceVersion(String resource)
+    {
+        try (InputStream is = LibraryResolverMaven.class.getClassLoader().getResourceAsStream(resource))
+        {
+            if (is == null)
+            {
+                return "none";
+            }
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                crc.update(buffer, 0, read);
+            }
+            return Long.toHexString(crc.getValue());
+        }
+        catch (IOException e)
+        {
+            jqmlogger.warn("Could not read Maven settings resource {} - its changes will not invalidate the class path cache", resource, e);
+            return "unknown";
+        }
     }
 
     ConfigurableMavenResolverSystem getMavenResolver()
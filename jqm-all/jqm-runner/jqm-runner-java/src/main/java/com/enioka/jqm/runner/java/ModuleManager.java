@@ -24,7 +24,24 @@ public final class ModuleManager
 
     public static ModuleLayer createModuleLayerIfNeeded(PayloadClassLoader cl, ModuleLayer parentModuleLayer, JobInstance ji)
     {
-        // TODO : cache layer if needed.
+        // A class loader cannot define the same modules twice, and resolving the configuration is costly: the layer is kept with the class
+        // loader, and reused by all the launches using it (shared, persistent or recycled class loaders).
+        synchronized (cl)
+        {
+            ModuleLayer layer = cl.getModuleLayer();
+            if (layer != null && layer.parents().contains(parentModuleLayer))
+            {
+                jqmlogger.debug("Reusing the module layer of the class loader");
+                return layer;
+            }
+            layer = createModuleLayer(cl, parentModuleLayer, ji);
+            cl.setModuleLayer(layer);
+            return layer;
+        }
+    }
+
+    private static ModuleLayer createModuleLayer(PayloadClassLoader cl, ModuleLayer parentModuleLayer, JobInstance ji)
+    {
         var loadedModuleNames = new HashSet<String>();
 
         // Test if the target is a module (just for information sake)
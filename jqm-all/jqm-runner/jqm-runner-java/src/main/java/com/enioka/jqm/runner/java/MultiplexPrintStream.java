@@ -15,17 +15,20 @@
  */
 package com.enioka.jqm.runner.java;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.Writer;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.enioka.jqm.model.GlobalParameter;
 
@@ -40,6 +43,10 @@ import org.slf4j.LoggerFactory;
  * Should a payload create a new thread, its stdout would go to the global log as the multiplexing key is the Thread. But is not a big deal
  * as creating threads inside an app server is not a good idea anyway.<br>
  * <br>
+ * Each registered thread has its own buffered channel: bytes are written as is, text is encoded directly inside the buffer, and there is no
+ * lock shared between job instances. Buffers are written to disk when full, when the thread is unregistered, on explicit flush and
+ * periodically by a background thread (so that log files can be followed while the job instance runs).<br>
+ * <br>
  * This is a variant of the SiftingAppender of logback-classic (which is not used here as way too specific)
  */
 class MultiplexPrintStream extends PrintStream
@@ -48,34 +55,41 @@ class MultiplexPrintStream extends PrintStream
     private static Logger alljobslogger = (Logger) LoggerFactory.getLogger("alljobslogger");
     private static String ls = System.getProperty("line.separator");
 
-    private BufferedWriter original = null;
     private boolean useCommonLogFile = false;
+    private int bufferSize;
+    private int flushPeriodMs;
 
-    private Map<String, BufferedWriter> writers = new HashMap<>();
+    private ThreadLocal<Channel> current = new ThreadLocal<>();
+    private Set<Channel> channels = ConcurrentHashMap.newKeySet();
+    private Thread flusher = null;
     public String rootLogDir;
 
-    MultiplexPrintStream(OutputStream out, String rootLogDir, boolean alsoWriteToCommonLog)
+    /**
+     * @param bufferSize
+     *            size in bytes of the buffer of each job instance. 0 means every write goes directly to the file.
+     * @param flushPeriodMs
+     *            maximum time a byte stays inside a buffer. 0 disables the periodic flush.
+     */
+    MultiplexPrintStream(OutputStream out, String rootLogDir, boolean alsoWriteToCommonLog, int bufferSize, int flushPeriodMs)
     {
         super(out);
         this.useCommonLogFile = alsoWriteToCommonLog;
-        this.original = new BufferedWriter(new OutputStreamWriter(out));
         this.rootLogDir = rootLogDir;
+        this.bufferSize = Math.max(bufferSize, 0);
+        this.flushPeriodMs = flushPeriodMs;
 
         File d = new File(this.rootLogDir);
         if (!d.isDirectory() && !d.mkdir())
         {
             throw new RuntimeException("could not create log dir " + this.rootLogDir);
         }
-    }
 
-    private BufferedWriter getWriter()
-    {
-        BufferedWriter res = writers.get(Thread.currentThread().getName());
-        if (res == null)
+        if (this.bufferSize > 0 && this.flushPeriodMs > 0)
         {
-            return this.original;
+            this.flusher = new Thread(this::flushLoop, "LOG_FLUSHER;flushing job instance logs;");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
         }
-        return res;
     }
 
     void registerThread(String fileName)
@@ -83,8 +97,9 @@ class MultiplexPrintStream extends PrintStream
         try
         {
             unregisterThread();
-            Writer w = new FileWriter(FilenameUtils.concat(rootLogDir, fileName), true);
-            writers.put(Thread.currentThread().getName(), new BufferedWriter(w));
+            Channel c = new Channel(new FileOutputStream(FilenameUtils.concat(rootLogDir, fileName), true), this.bufferSize);
+            this.current.set(c);
+            this.channels.add(c);
         }
         catch (IOException e)
         {
@@ -95,14 +110,16 @@ class MultiplexPrintStream extends PrintStream
 
     void unregisterThread()
     {
+        Channel c = this.current.get();
+        if (c == null)
+        {
+            return;
+        }
+        this.current.remove();
+        this.channels.remove(c);
         try
         {
-            BufferedWriter bf = getWriter();
-            if (bf != original)
-            {
-                bf.close();
-                this.writers.remove(Thread.currentThread().getName());
-            }
+            c.close();
         }
         catch (IOException e)
         {
@@ -111,6 +128,44 @@ class MultiplexPrintStream extends PrintStream
         }
     }
 
+    /**
+     * Stops the periodic flush. Registered threads can still write, their buffers being written when full or on unregistration.
+     */
+    void stop()
+    {
+        if (this.flusher != null)
+        {
+            this.flusher.interrupt();
+        }
+    }
+
+    private void flushLoop()
+    {
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(this.flushPeriodMs);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+
+            for (Channel c : this.channels)
+            {
+                try
+                {
+                    c.flush();
+                }
+                catch (IOException e)
+                {
+                    // don't log exceptions, it could trigger a StackOverflow
+                }
+            }
+        }
+    }
+
     /** Check to make sure that the stream has not been closed */
     private void ensureOpen() throws IOException
     {
@@ -120,27 +175,61 @@ class MultiplexPrintStream extends PrintStream
         }
     }
 
-    private void write(String s)
+    private void write(CharSequence s, boolean newLine)
     {
-        write(s, false);
+        Channel c = this.current.get();
+        try
+        {
+            ensureOpen();
+            if (c == null)
+            {
+                // Not a job instance thread: straight to the original stream.
+                String text = newLine ? s + ls : s.toString();
+                synchronized (this)
+                {
+                    out.write(text.getBytes());
+                    out.flush();
+                }
+                return;
+            }
+
+            c.write(s, newLine);
+            if (useCommonLogFile)
+            {
+                alljobslogger.info(s + (newLine ? ls : ""));
+            }
+        }
+        catch (InterruptedIOException x)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException x)
+        {
+            // don't log exceptions, it could trigger a StackOverflow
+        }
     }
 
-    private void write(String s, boolean newLine)
+    @Override
+    public void write(byte[] buf, int off, int len)
     {
-        BufferedWriter textOut = getWriter();
+        Channel c = this.current.get();
         try
         {
             ensureOpen();
-            textOut.write(s);
-            if (newLine)
+            if (c == null)
             {
-                textOut.newLine();
+                synchronized (this)
+                {
+                    out.write(buf, off, len);
+                    out.flush();
+                }
+                return;
             }
-            textOut.flush();
 
-            if (useCommonLogFile && textOut != original)
+            c.write(buf, off, len);
+            if (useCommonLogFile)
             {
-                alljobslogger.info(s + (newLine ? ls : ""));
+                alljobslogger.info(new String(buf, off, len));
             }
         }
         catch (InterruptedIOException x)
@@ -153,11 +242,136 @@ class MultiplexPrintStream extends PrintStream
         }
     }
 
-    // TODO: write something that's not a performance hog...
     @Override
-    public void write(byte[] buf, int off, int len)
+    public void write(int b)
     {
-        write(new String(buf, off, len));
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void flush()
+    {
+        Channel c = this.current.get();
+        if (c == null)
+        {
+            super.flush();
+            return;
+        }
+        try
+        {
+            c.flush();
+        }
+        catch (IOException x)
+        {
+            // don't log exceptions, it could trigger a StackOverflow
+        }
+    }
+
+    /**
+     * The buffered destination of a single thread. Only locked by its own thread and by the periodic flush, so never contended between job
+     * instances.
+     */
+    private static class Channel
+    {
+        private static final byte[] LS_BYTES = ls.getBytes();
+
+        private final OutputStream target;
+        private final ByteBuffer buffer;
+        private final boolean unbuffered;
+        private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private Channel(OutputStream target, int bufferSize)
+        {
+            this.target = target;
+            this.unbuffered = bufferSize == 0;
+            // The buffer is also needed to encode text when there is no buffering.
+            this.buffer = ByteBuffer.allocate(Math.max(bufferSize, 256));
+        }
+
+        private synchronized void write(byte[] buf, int off, int len) throws IOException
+        {
+            if (len > buffer.remaining())
+            {
+                flushBuffer();
+            }
+            if (len > buffer.remaining())
+            {
+                target.write(buf, off, len);
+            }
+            else
+            {
+                buffer.put(buf, off, len);
+            }
+            flushIfUnbuffered();
+        }
+
+        private synchronized void write(CharSequence s, boolean newLine) throws IOException
+        {
+            CharBuffer in = CharBuffer.wrap(s);
+            encoder.reset();
+            while (true)
+            {
+                CoderResult res = encoder.encode(in, buffer, true);
+                if (res.isOverflow())
+                {
+                    flushBuffer();
+                    continue;
+                }
+                res = encoder.flush(buffer);
+                if (res.isOverflow())
+                {
+                    flushBuffer();
+                    continue;
+                }
+                break;
+            }
+
+            if (newLine)
+            {
+                if (LS_BYTES.length > buffer.remaining())
+                {
+                    flushBuffer();
+                }
+                buffer.put(LS_BYTES);
+            }
+            flushIfUnbuffered();
+        }
+
+        private void flushIfUnbuffered() throws IOException
+        {
+            if (unbuffered)
+            {
+                flush();
+            }
+        }
+
+        private void flushBuffer() throws IOException
+        {
+            if (buffer.position() > 0)
+            {
+                target.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+
+        private synchronized void flush() throws IOException
+        {
+            flushBuffer();
+            target.flush();
+        }
+
+        private synchronized void close() throws IOException
+        {
+            try
+            {
+                flushBuffer();
+            }
+            finally
+            {
+                target.close();
+            }
+        }
     }
 
     // ///////////////////////////////////////////////////////////////////
@@ -225,7 +439,7 @@ class MultiplexPrintStream extends PrintStream
     @Override
     public void print(boolean b)
     {
-        write(b ? "true" : "false");
+        write(b ? "true" : "false", false);
     }
 
     @Override
@@ -19,14 +19,17 @@
 package com.enioka.jqm.runner.java;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,17 +44,47 @@ import com.enioka.jqm.runner.java.api.jndi.JavaPayloadClassLoader;
 
 /**
  * The {@link URLClassLoader} that will load everything related to a payload (the payload jar and all its dependencies).<br>
- * It is also responsible for launching the payload (be it a Runnable, a main function, etc).
+ * It is also responsible for launching the payload (be it a Runnable, a main function, etc).<br>
+ * <br>
+ * It is parallel capable, as it may be shared by job instances running at the same time. It keeps an index of the packages of its own
+ * class path and of its parent class path (see {@link ClassPathIndex}) so that a class is not looked for where it cannot be: classes from
+ * the payload and its libraries are not first asked to the parent, and classes from other packages are not looked for inside the payload
+ * jars. The usual delegation is still used for everything which cannot be indexed.
  */
 @SuppressWarnings({ "unchecked", "rawtypes" })
 public class PayloadClassLoader extends URLClassLoader implements JavaPayloadClassLoader
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(PayloadClassLoader.class);
 
+    /**
+     * Hidden class patterns of the form <code>prefix.*</code> give the same result for all the classes of a package whose name is at least
+     * as long as the prefix. This matches the way they are actually written (e.g. <code>org.apache.log4j.*</code>).
+     */
+    private static final Pattern PREFIX_PATTERN = Pattern.compile("\\^?((?:\\\\[.$]|[\\w.])*)\\.\\*\\$?");
+
+    static
+    {
+        registerAsParallelCapable();
+    }
+
     private boolean childFirstClassLoader = false;
 
     private ArrayList<Pattern> hiddenJavaClassesPatterns = new ArrayList<>();
 
+    /**
+     * The longest prefix of the hidden class patterns, -1 if at least one of them is not a prefix pattern.
+     */
+    private int hiddenJavaClassesPrefixLength = 0;
+
+    /**
+     * The decision of the hidden class patterns for the packages where it does not depend on the class.
+     */
+    private Map<String, Boolean> hiddenPackages = new ConcurrentHashMap<>();
+
+    private final ClassPathIndex localIndex = new ClassPathIndex();
+
+    private final ClassPathIndex parentIndex;
+
     private boolean tracing = false;
 
     private String referenceJobDefName = null;
@@ -60,19 +93,44 @@ public class PayloadClassLoader extends URLClassLoader implements JavaPayloadCla
 
     private boolean mayBeShared = false;
 
+    /**
+     * The module layer created on the first launch of a JPMS job instance. A class loader can only define a module once, so it is reused by
+     * all the launches using this class loader.
+     */
+    private ModuleLayer moduleLayer = null;
+
+    /**
+     * Recycling data, only set for class loaders of a recycled isolation context (see {@link ClassloaderManager}). The key is null for all
+     * other class loaders.
+     */
+    private String recycleKey = null;
+    private int recycleMaxRuns = 0;
+    private int recycleRunCount = 0;
+    private String recycleJarStamp = null;
+    private URL[] recycleClasspath = null;
+
+    /**
+     * The key of this class loader inside the {@link SharedClassLoaderRegistry}, null if it is not shared.
+     */
+    private String sharedKey = null;
+
     PayloadClassLoader(ClassLoader parent)
     {
         super(new URL[0], parent);
+        this.parentIndex = ClassPathIndex.forParent(parent);
     }
 
     void extendUrls(URL jarUrl, URL[] libs)
     {
+        // Index first: during the call, a package may be indexed but not yet loadable, never the opposite.
+        localIndex.add(jarUrl);
         super.addURL(jarUrl);
 
         if (libs != null)
         {
             for (URL url : libs)
             {
+                localIndex.add(url);
                 super.addURL(url);
             }
         }
@@ -225,18 +283,9 @@ public class PayloadClassLoader extends URLClassLoader implements JavaPayloadCla
                         + allowedRunners);
     }
 
-    private Class<?> loadFromParentCL(String name) throws ClassNotFoundException
+    private Class<?> loadFromParentCL(String name, String packageName) throws ClassNotFoundException
     {
-        boolean loadFromParent = true;
-        for (Pattern pattern : hiddenJavaClassesPatterns)
-        {
-            Matcher matcher = pattern.matcher(name);
-            if (matcher.matches())
-            {
-                jqmlogger.debug("Class " + name + " will not be loaded by parent CL because it matches hiddenJavaClasses parameter");
-                loadFromParent = false;
-            }
-        }
+        boolean loadFromParent = !isHidden(name, packageName);
         try
         {
             return loadFromParent
@@ -275,59 +324,100 @@ public class PayloadClassLoader extends URLClassLoader implements JavaPayloadCla
         return findResource(name);
     }
 
-    @Override
-    public Class<?> loadClass(String name) throws ClassNotFoundException
+    private boolean isHidden(String name, String packageName)
     {
-        // Check if class was already loaded
-        var c = findLoadedClass(name);
-        if (c != null)
+        if (hiddenJavaClassesPatterns.isEmpty())
         {
-            return c;
+            return false;
+        }
+        Boolean res = hiddenPackages.get(packageName);
+        if (res != null)
+        {
+            return res;
         }
 
-        if (childFirstClassLoader)
+        res = false;
+        for (Pattern pattern : hiddenJavaClassesPatterns)
         {
-            // Look here first if requested (not the default)
-            try
-            {
-                c = findClass(name);
-            }
-            catch (ClassNotFoundException e)
-            {
-                // Do nothing
-            }
-            if (c != null)
+            Matcher matcher = pattern.matcher(name);
+            if (matcher.matches())
             {
-                return c;
+                jqmlogger.debug("Class " + name + " will not be loaded by parent CL because it matches hiddenJavaClasses parameter");
+                res = true;
+                break;
             }
         }
+        if (hiddenJavaClassesPrefixLength >= 0 && hiddenJavaClassesPrefixLength <= packageName.length() + 1)
+        {
+            hiddenPackages.put(packageName, res);
+        }
+        return res;
+    }
 
-        // Default behavior: ask parent
-        c = loadFromParentCL(name);
-        if (c != null)
+    private Class<?> findLocalClass(String name)
+    {
+        try
         {
-            return c;
+            return findClass(name);
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
         }
+    }
 
-        if (!childFirstClassLoader)
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+    {
+        synchronized (getClassLoadingLock(name))
         {
-            // Default behaviour : if not found in parent, look here.
-            try
+            // Check if class was already loaded
+            var c = findLoadedClass(name);
+            if (c != null)
             {
-                c = findClass(name);
+                return c;
             }
-            catch (ClassNotFoundException e)
+
+            int i = name.lastIndexOf('.');
+            String packageName = i < 0 ? "" : name.substring(0, i);
+            boolean local = localIndex.mayContain(packageName);
+            boolean parentMayHaveIt = !local || parentIndex.mayContain(packageName);
+
+            if (childFirstClassLoader && local)
             {
-                // Do nothing
+                // Look here first if requested (not the default)
+                c = findLocalClass(name);
             }
-            if (c != null)
+
+            // Default behavior: ask parent
+            if (c == null && parentMayHaveIt)
             {
-                return c;
+                c = loadFromParentCL(name, packageName);
             }
-        }
 
-        // If here, we have lost
-        throw new ClassNotFoundException(name);
+            if (c == null && !childFirstClassLoader && local)
+            {
+                // Default behaviour : if not found in parent, look here.
+                c = findLocalClass(name);
+            }
+
+            if (c == null && !parentMayHaveIt)
+            {
+                // Safety net for classes the JVM knows of without them being on an indexed class path (agents...)
+                c = loadFromParentCL(name, packageName);
+            }
+
+            if (c == null)
+            {
+                // If here, we have lost
+                throw new ClassNotFoundException(name);
+            }
+            if (resolve)
+            {
+                resolveClass(c);
+            }
+            return c;
+        }
     }
 
     public boolean isChildFirstClassLoader()
@@ -359,7 +449,13 @@ public class PayloadClassLoader extends URLClassLoader implements JavaPayloadCla
         {
             jqmlogger.debug("Adding " + regex + " hiddenJavaClasses regex to CL");
             this.addHiddenJavaClassesPattern(Pattern.compile(regex));
+
+            Matcher m = PREFIX_PATTERN.matcher(regex);
+            int prefixLength = m.matches() ? m.group(1).replace("\\", "").length() : -1;
+            this.hiddenJavaClassesPrefixLength = prefixLength < 0 || this.hiddenJavaClassesPrefixLength < 0 ? -1
+                    : Math.max(prefixLength, this.hiddenJavaClassesPrefixLength);
         }
+        this.hiddenPackages.clear();
     }
 
     private void addHiddenJavaClassesPattern(Pattern hiddenJavaClassesPattern)
@@ -397,46 +493,151 @@ public class PayloadClassLoader extends URLClassLoader implements JavaPayloadCla
         this.mayBeShared = val;
     }
 
+    ModuleLayer getModuleLayer()
+    {
+        return moduleLayer;
+    }
+
+    void setModuleLayer(ModuleLayer moduleLayer)
+    {
+        this.moduleLayer = moduleLayer;
+    }
+
+    void setRecycling(String key, int maxRuns, String jarStamp, URL[] classpath)
+    {
+        this.recycleKey = key;
+        this.recycleMaxRuns = maxRuns;
+        this.recycleJarStamp = jarStamp;
+        this.recycleClasspath = classpath;
+    }
+
+    String getRecycleKey()
+    {
+        return recycleKey;
+    }
+
+    void setSharedKey(String sharedKey)
+    {
+        this.sharedKey = sharedKey;
+    }
+
+    String getSharedKey()
+    {
+        return sharedKey;
+    }
+
+    /**
+     * True if this class loader can run one more job instance with the given payload jar and class path.
+     */
+    boolean canBeRecycledFor(String jarStamp, URL[] classpath)
+    {
+        return recycleRunCount < recycleMaxRuns && recycleJarStamp.equals(jarStamp) && Arrays.equals(recycleClasspath, classpath);
+    }
+
+    boolean canBeRecycled()
+    {
+        return recycleRunCount < recycleMaxRuns;
+    }
+
+    int incrementRunCount()
+    {
+        return ++recycleRunCount;
+    }
+
     /**
      * Hack - in Java 7, CL.Close was introduced but is not present in earlier versions. Yet it is highly useful on Windows as it frees file
      * handlers.<br>
-     * Shared class loaders are left open.
+     * Shared class loaders are left open. Must be called by the thread of the job instance which used this class loader, as it also cleans
+     * the leaks of this thread.
      */
     public void tryClose()
     {
         if (!mayBeShared)
         {
             // First: free the hounds, er, the CL leak hunter
-            ClassLoaderLeakCleaner.cleanJdbc(Thread.currentThread());
+            ClassLoaderLeakCleaner.cleanJdbc(Thread.currentThread(), this);
             ClassLoaderLeakCleaner.clean(this);
+            deregisterDriversAndClose();
+        }
+    }
 
-            // Then try to call CL.close()
-            Method m = null;
-            try
-            {
-                m = this.getClass().getMethod("close");
-            }
-            catch (NoSuchMethodException e)
-            {
-                jqmlogger.trace("CL cannot be closed");
-                return;
-            }
-            catch (SecurityException e)
-            {
-                jqmlogger.error("Cannot access CL.close", e);
-                return;
-            }
+    /**
+     * Closes a class loader which is not used by any job instance anymore (see {@link SharedClassLoaderRegistry}). The threads of the job
+     * instances which used it were already cleaned at the end of each run, so this only deregisters its JDBC drivers before closing it.
+     */
+    void evict()
+    {
+        deregisterDriversAndClose();
+    }
 
-            try
-            {
-                m.invoke(this);
-            }
-            catch (Exception e)
+    /**
+     * Deregisters the JDBC drivers loaded by this class loader, which would otherwise keep it alive forever inside the
+     * {@link java.sql.DriverManager}.
+     *
+     * @return the number of drivers deregistered.
+     */
+    int deregisterJdbcDrivers()
+    {
+        String helperName = JdbcDriverCleaner.class.getName();
+        try
+        {
+            Class<?> helper;
+            synchronized (getClassLoadingLock(helperName))
             {
-                jqmlogger.error("Cannot close CL", e);
-                return;
+                helper = findLoadedClass(helperName);
+                if (helper == null)
+                {
+                    byte[] code;
+                    try (InputStream is = JdbcDriverCleaner.class.getResourceAsStream(JdbcDriverCleaner.class.getSimpleName() + ".class"))
+                    {
+                        code = is.readAllBytes();
+                    }
+                    helper = defineClass(helperName, code, 0, code.length);
+                }
             }
-            jqmlogger.debug("CL was closed");
+            return (Integer) helper.getMethod("deregisterDrivers").invoke(null);
+        }
+        catch (Exception | LinkageError e)
+        {
+            jqmlogger.warn("Could not deregister the JDBC drivers of a class loader - it may leak", e);
+            return 0;
+        }
+    }
+
+    private void deregisterDriversAndClose()
+    {
+        int drivers = deregisterJdbcDrivers();
+        if (drivers > 0)
+        {
+            jqmlogger.debug("{} JDBC drivers were deregistered before closing CL", drivers);
+        }
+
+        // Then try to call CL.close()
+        Method m = null;
+        try
+        {
+            m = this.getClass().getMethod("close");
+        }
+        catch (NoSuchMethodException e)
+        {
+            jqmlogger.trace("CL cannot be closed");
+            return;
+        }
+        catch (SecurityException e)
+        {
+            jqmlogger.error("Cannot access CL.close", e);
+            return;
+        }
+
+        try
+        {
+            m.invoke(this);
+        }
+        catch (Exception e)
+        {
+            jqmlogger.error("Cannot close CL", e);
+            return;
         }
+        jqmlogger.debug("CL was closed");
     }
 }
@@ -0,0 +1,214 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.runner.java;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class loaders which may be used by many job instances: the one of the "Shared" mode, the ones of the "SharedJar" mode and the ones of
+ * persistent contexts.<br>
+ * A class loader is created only once per key, even if many job instances need it at the same time. The registry knows how many job
+ * instances are using each class loader, so that the class loaders which are not used anymore can be evicted - either after an idle time,
+ * or the least recently used ones when there are too many of them. Eviction is disabled by default, as it means losing the static context
+ * of the evicted class loader. It is checked on launches and ends of job instances.<br>
+ * This object is thread-safe.
+ */
+class SharedClassLoaderRegistry
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(SharedClassLoaderRegistry.class);
+
+    /**
+     * Minimum time between two checks for idle class loaders.
+     */
+    private static final long IDLE_CHECK_PERIOD_MS = 10000;
+
+    private static class Entry
+    {
+        final PayloadClassLoader cl;
+        // Only modified inside a compute method of the map, which is atomic for a given key.
+        volatile int users = 0;
+        volatile long lastUsed;
+
+        Entry(PayloadClassLoader cl)
+        {
+            this.cl = cl;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxCount;
+    private final long idleTimeoutMs;
+    private volatile long lastIdleCheck = System.currentTimeMillis();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxCount
+     *            max number of class loaders kept when they are not used. 0 means no limit.
+     * @param idleTimeoutMs
+     *            time after which a class loader which is not used is evicted. 0 means never.
+     */
+    SharedClassLoaderRegistry(int maxCount, long idleTimeoutMs)
+    {
+        this.maxCount = maxCount;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Returns the class loader associated to the key, creating it if needed. The caller is counted as a user of the class loader until
+     * {@link #release(PayloadClassLoader)} is called.
+     */
+    PayloadClassLoader acquire(String key, Supplier<PayloadClassLoader> factory)
+    {
+        boolean[] created = new boolean[] { false };
+        Entry e = entries.compute(key, (k, old) -> {
+            Entry res = old;
+            if (res == null)
+            {
+                PayloadClassLoader cl = factory.get();
+                cl.setSharedKey(k);
+                res = new Entry(cl);
+                created[0] = true;
+            }
+            res.users++;
+            res.lastUsed = System.currentTimeMillis();
+            return res;
+        });
+
+        if (created[0])
+        {
+            evictExcess();
+        }
+        evictIdle();
+        return e.cl;
+    }
+
+    /**
+     * Signals a job instance does not use the class loader anymore.
+     */
+    void release(PayloadClassLoader cl)
+    {
+        entries.computeIfPresent(cl.getSharedKey(), (k, e) -> {
+            if (e.cl == cl)
+            {
+                e.users--;
+                e.lastUsed = System.currentTimeMillis();
+            }
+            return e;
+        });
+        evictExcess();
+        evictIdle();
+    }
+
+    private void evictIdle()
+    {
+        long now = System.currentTimeMillis();
+        if (idleTimeoutMs <= 0 || now - lastIdleCheck < IDLE_CHECK_PERIOD_MS)
+        {
+            return;
+        }
+        lastIdleCheck = now;
+
+        for (Map.Entry<String, Entry> e : entries.entrySet())
+        {
+            if (e.getValue().users == 0 && now - e.getValue().lastUsed > idleTimeoutMs)
+            {
+                evict(e.getKey(), now - idleTimeoutMs);
+            }
+        }
+    }
+
+    private void evictExcess()
+    {
+        if (maxCount <= 0 || entries.size() <= maxCount)
+        {
+            return;
+        }
+
+        // Least recently used first. Class loaders in use are never evicted, so there may be more than maxCount of them.
+        List<Map.Entry<String, Entry>> idle = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet())
+        {
+            if (e.getValue().users == 0)
+            {
+                idle.add(e);
+            }
+        }
+        idle.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+        for (Map.Entry<String, Entry> e : idle)
+        {
+            if (entries.size() <= maxCount)
+            {
+                break;
+            }
+            evict(e.getKey(), Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Evicts the class loader if it is still unused and was last used before the given date.
+     */
+    private void evict(String key, long lastUsedBefore)
+    {
+        PayloadClassLoader[] removed = new PayloadClassLoader[1];
+        entries.computeIfPresent(key, (k, e) -> {
+            if (e.users == 0 && e.lastUsed <= lastUsedBefore)
+            {
+                removed[0] = e.cl;
+                return null;
+            }
+            return e;
+        });
+
+        if (removed[0] != null)
+        {
+            jqmlogger.info("Evicting shared class loader {} as it is not used anymore", key);
+            evictions.increment();
+            removed[0].evict();
+        }
+    }
+
+    /**
+     * Evicts all the class loaders which are not currently used.
+     */
+    void evictAll()
+    {
+        for (String key : entries.keySet())
+        {
+            evict(key, Long.MAX_VALUE);
+        }
+    }
+
+    int getCount()
+    {
+        return entries.size();
+    }
+
+    long getEvictions()
+    {
+        return evictions.sum();
+    }
+}
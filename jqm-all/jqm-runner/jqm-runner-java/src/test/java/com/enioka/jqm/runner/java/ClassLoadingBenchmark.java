@@ -0,0 +1,115 @@
+package com.enioka.jqm.runner.java;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Not a functional test: measures the time needed to load all the classes of a class path through a new {@link PayloadClassLoader}, as
+ * done by each launch of an isolated job instance, and compares it to a plain {@link URLClassLoader} with the same class path (the
+ * baseline).<br>
+ * It is not run during the normal build, as timings depend on the machine. Run it with <code>mvn test -Pbenchmark</code> inside this
+ * module. The class path used is the test class path of the module. The benchmark fails if the payload class loader is slower than the
+ * baseline by more than the ratio given by the <code>jqm.benchmark.maxRatio</code> system property (default 1.5).
+ */
+public class ClassLoadingBenchmark
+{
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void benchmarkIsolatedLaunches() throws Exception
+    {
+        double maxRatio = Double.parseDouble(System.getProperty("jqm.benchmark.maxRatio", "1.5"));
+
+        List<URL> urls = new ArrayList<>();
+        List<String> classNames = new ArrayList<>();
+        for (String element : System.getProperty("java.class.path").split(File.pathSeparator))
+        {
+            if (element.endsWith(".jar") && new File(element).isFile())
+            {
+                urls.add(new File(element).toURI().toURL());
+                listClasses(new File(element), classNames);
+            }
+        }
+        Assert.assertFalse("no jar on the class path", urls.isEmpty());
+
+        long baseline = 0;
+        long payload = 0;
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i++)
+        {
+            long start = System.nanoTime();
+            int baselineCount;
+            try (URLClassLoader cl = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getPlatformClassLoader()))
+            {
+                baselineCount = loadAll(cl, classNames);
+            }
+            long baselineTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int payloadCount;
+            try (PayloadClassLoader cl = new PayloadClassLoader(ClassLoader.getPlatformClassLoader()))
+            {
+                cl.extendUrls(urls.get(0), urls.subList(1, urls.size()).toArray(new URL[0]));
+                payloadCount = loadAll(cl, classNames);
+            }
+            long payloadTime = System.nanoTime() - start;
+
+            Assert.assertEquals("both class loaders should load the same classes", baselineCount, payloadCount);
+            if (i >= WARMUP_ROUNDS)
+            {
+                baseline += baselineTime;
+                payload += payloadTime;
+            }
+        }
+
+        double ratio = (double) payload / baseline;
+        System.out.println(String.format(
+                "Loading %d classes from %d jars, mean over %d launches: URLClassLoader %dms, PayloadClassLoader %dms (ratio %.2f)",
+                classNames.size(), urls.size(), ROUNDS, baseline / ROUNDS / 1000000, payload / ROUNDS / 1000000, ratio));
+        Assert.assertTrue("payload class loader is " + ratio + " times slower than the baseline", ratio <= maxRatio);
+    }
+
+    private static void listClasses(File jar, List<String> classNames) throws Exception
+    {
+        try (JarFile jf = new JarFile(jar))
+        {
+            Enumeration<JarEntry> entries = jf.entries();
+            while (entries.hasMoreElements())
+            {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class")
+                        && !name.endsWith("package-info.class"))
+                {
+                    classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        }
+    }
+
+    private static int loadAll(ClassLoader cl, List<String> classNames)
+    {
+        int res = 0;
+        for (String name : classNames)
+        {
+            try
+            {
+                Class.forName(name, false, cl);
+                res++;
+            }
+            catch (ClassNotFoundException | LinkageError e)
+            {
+                // Optional dependencies of the libraries are not all there. Same for both class loaders.
+            }
+        }
+        return res;
+    }
+}
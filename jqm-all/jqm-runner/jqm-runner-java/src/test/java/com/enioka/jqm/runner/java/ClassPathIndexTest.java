@@ -0,0 +1,154 @@
+package com.enioka.jqm.runner.java;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassPathIndexTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testDirectory() throws Exception
+    {
+        File dir = tmp.newFolder();
+        touch(new File(dir, "a/b/C.class"));
+        touch(new File(dir, "D.class"));
+        touch(new File(dir, "e/readme.txt"));
+
+        ClassPathIndex index = new ClassPathIndex();
+        index.add(dir.toURI().toURL());
+
+        Assert.assertTrue(index.mayContain("a.b"));
+        Assert.assertTrue(index.mayContain(""));
+        Assert.assertFalse(index.mayContain("a"));
+        Assert.assertFalse(index.mayContain("e"));
+        Assert.assertFalse(index.mayContain("x.y"));
+    }
+
+    @Test
+    public void testJar() throws Exception
+    {
+        File jar = tmp.newFile("test.jar");
+        writeJar(jar, null, "a/b/C.class", "META-INF/versions/11/p/q/R.class", "res/file.txt");
+
+        ClassPathIndex index = new ClassPathIndex();
+        index.add(jar.toURI().toURL());
+
+        Assert.assertTrue(index.mayContain("a.b"));
+        Assert.assertTrue(index.mayContain("p.q"));
+        Assert.assertFalse(index.mayContain("META-INF.versions.11.p.q"));
+        Assert.assertFalse(index.mayContain("res"));
+    }
+
+    @Test
+    public void testJarChangeIsSeen() throws Exception
+    {
+        File jar = tmp.newFile("test.jar");
+        writeJar(jar, null, "a/C.class");
+        ClassPathIndex index = new ClassPathIndex();
+        index.add(jar.toURI().toURL());
+        Assert.assertFalse(index.mayContain("b.c"));
+
+        writeJar(jar, null, "a/C.class", "b/c/D.class", "b/c/E.class");
+        jar.setLastModified(jar.lastModified() + 2000);
+        index = new ClassPathIndex();
+        index.add(jar.toURI().toURL());
+        Assert.assertTrue(index.mayContain("a"));
+        Assert.assertTrue(index.mayContain("b.c"));
+    }
+
+    @Test
+    public void testJarWithManifestClassPathIsIncomplete() throws Exception
+    {
+        File jar = tmp.newFile("test.jar");
+        writeJar(jar, "other.jar", "a/C.class");
+
+        ClassPathIndex index = new ClassPathIndex();
+        index.add(jar.toURI().toURL());
+
+        Assert.assertTrue(index.mayContain("x.y"));
+    }
+
+    @Test
+    public void testNonFileUrlIsIncomplete() throws Exception
+    {
+        ClassPathIndex index = new ClassPathIndex();
+        index.add(new URL("http://localhost/test.jar"));
+
+        Assert.assertTrue(index.mayContain("x.y"));
+    }
+
+    @Test
+    public void testMissingElementIsIgnored() throws Exception
+    {
+        ClassPathIndex index = new ClassPathIndex();
+        index.add(new File(tmp.getRoot(), "missing.jar").toURI().toURL());
+
+        Assert.assertFalse(index.mayContain("x.y"));
+    }
+
+    @Test
+    public void testParent() throws Exception
+    {
+        File dir = tmp.newFolder();
+        touch(new File(dir, "a/b/C.class"));
+
+        try (URLClassLoader parent = new URLClassLoader(new URL[] { dir.toURI().toURL() }, ClassLoader.getPlatformClassLoader()))
+        {
+            ClassPathIndex index = ClassPathIndex.forParent(parent);
+            Assert.assertTrue(index.mayContain("a.b"));
+            Assert.assertTrue(index.mayContain("java.lang"));
+            Assert.assertFalse(index.mayContain("x.y"));
+            Assert.assertSame(index, ClassPathIndex.forParent(parent));
+        }
+    }
+
+    @Test
+    public void testUnknownParentIsIncomplete() throws Exception
+    {
+        ClassLoader parent = new ClassLoader(ClassLoader.getPlatformClassLoader())
+        {
+        };
+
+        Assert.assertTrue(ClassPathIndex.forParent(parent).mayContain("x.y"));
+    }
+
+    private static void touch(File f) throws IOException
+    {
+        f.getParentFile().mkdirs();
+        f.createNewFile();
+    }
+
+    private static void writeJar(File jar, String manifestClassPath, String... entries) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (manifestClassPath != null)
+        {
+            manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, manifestClassPath);
+        }
+
+        try (JarOutputStream os = new JarOutputStream(new FileOutputStream(jar), manifest))
+        {
+            for (String entry : entries)
+            {
+                os.putNextEntry(new JarEntry(entry));
+                os.write(new byte[] { 0 });
+                os.closeEntry();
+            }
+        }
+    }
+}
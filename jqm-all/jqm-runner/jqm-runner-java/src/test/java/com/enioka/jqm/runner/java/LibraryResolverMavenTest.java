@@ -0,0 +1,37 @@
+package com.enioka.jqm.runner.java;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Versions whose resolved class path must expire.
+ */
+public class LibraryResolverMavenTest
+{
+    @Test
+    public void testReleaseIsNotVolatile()
+    {
+        Assert.assertFalse(LibraryResolverMaven.isVolatileVersion("com.enioka.jqm:jqm-test-pyl-nodep:1.3.2"));
+        Assert.assertFalse(LibraryResolverMaven.isVolatileVersion("com.enioka.jqm:jqm-test-pyl-nodep:jar:1.3.2"));
+    }
+
+    @Test
+    public void testSnapshotIsVolatile()
+    {
+        Assert.assertTrue(LibraryResolverMaven.isVolatileVersion("com.enioka.jqm:jqm-test-pyl-nodep:1.3.2-SNAPSHOT"));
+    }
+
+    @Test
+    public void testMetaVersionIsVolatile()
+    {
+        Assert.assertTrue(LibraryResolverMaven.isVolatileVersion("com.enioka.jqm:jqm-test-pyl-nodep:LATEST"));
+        Assert.assertTrue(LibraryResolverMaven.isVolatileVersion("com.enioka.jqm:jqm-test-pyl-nodep:RELEASE"));
+    }
+
+    @Test
+    public void testRangeIsVolatile()
+    {
+        Assert.assertTrue(LibraryResolverMaven.isVolatileVersion("com.enioka.jqm:jqm-test-pyl-nodep:[1.0,2.0)"));
+        Assert.assertTrue(LibraryResolverMaven.isVolatileVersion("com.enioka.jqm:jqm-test-pyl-nodep:(,2.0]"));
+    }
+}
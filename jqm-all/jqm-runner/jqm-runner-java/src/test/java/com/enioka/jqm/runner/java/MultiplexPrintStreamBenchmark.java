@@ -0,0 +1,117 @@
+package com.enioka.jqm.runner.java;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Not a functional test: measures the time needed by many job instances logging at the same time through the {@link MultiplexPrintStream}
+ * (each thread has its own log file), with the default per-thread buffer, and compares it to the same stream without buffer, which writes
+ * every line to its file at once (the baseline).<br>
+ * It is not run during the normal build, as timings depend on the machine. Run it with <code>mvn test -Pbenchmark</code> inside this
+ * module. The benchmark fails if the buffered stream is slower than the baseline by more than the ratio given by the
+ * <code>jqm.benchmark.maxRatio</code> system property (default 1.0), or if a line is lost.
+ */
+public class MultiplexPrintStreamBenchmark
+{
+    private static final int THREADS = 100;
+    private static final int LINES_PER_THREAD = 5000;
+    private static final int WARMUP_ROUNDS = 1;
+    private static final int ROUNDS = 3;
+    private static final String LINE = "Payload log line with some text, as written by a job instance - number ";
+
+    private static final OutputStream NULL_STREAM = new OutputStream()
+    {
+        @Override
+        public void write(int b)
+        {
+            // Only used by threads which are not job instances.
+        }
+    };
+
+    @Test
+    public void benchmarkConcurrentLogging() throws Exception
+    {
+        double maxRatio = Double.parseDouble(System.getProperty("jqm.benchmark.maxRatio", "1.0"));
+        File root = new File("./target/multiplex-benchmark");
+
+        long baseline = 0;
+        long buffered = 0;
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i++)
+        {
+            long baselineTime = run(new File(root, "unbuffered"), 0);
+            long bufferedTime = run(new File(root, "buffered"), 8192); // logFileBufferSize default.
+            if (i >= WARMUP_ROUNDS)
+            {
+                baseline += baselineTime;
+                buffered += bufferedTime;
+            }
+        }
+        FileUtils.deleteDirectory(root);
+
+        double ratio = (double) buffered / baseline;
+        System.out.println(String.format(
+                "%d threads logging %d lines each, mean over %d rounds: unbuffered %dms, buffered %dms (ratio %.2f)", THREADS, LINES_PER_THREAD, ROUNDS, baseline / ROUNDS / 1000000, buffered / ROUNDS / 1000000, ratio));
+        Assert.assertTrue("buffered stream is " + ratio + " times slower than the baseline", ratio <= maxRatio);
+    }
+
+    /**
+     * @return the time needed by all the threads to write and close their logs, in nanoseconds.
+     */
+    private static long run(File logDir, int bufferSize) throws Exception
+    {
+        FileUtils.deleteDirectory(logDir);
+        logDir.getParentFile().mkdirs();
+        MultiplexPrintStream stream = new MultiplexPrintStream(NULL_STREAM, logDir.getPath(), false, bufferSize, 1000);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++)
+        {
+            String fileName = "ji-" + t + ".log";
+            Thread thread = new Thread(() -> {
+                stream.registerThread(fileName);
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                for (int l = 0; l < LINES_PER_THREAD; l++)
+                {
+                    stream.println(LINE + l);
+                }
+                stream.unregisterThread();
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        long res = System.nanoTime() - begin;
+        stream.stop();
+
+        for (int t = 0; t < THREADS; t++)
+        {
+            List<String> lines = Files.readAllLines(new File(logDir, "ji-" + t + ".log").toPath(), Charset.defaultCharset());
+            Assert.assertEquals("lines were lost", LINES_PER_THREAD, lines.size());
+            Assert.assertEquals(LINE + (LINES_PER_THREAD - 1), lines.get(LINES_PER_THREAD - 1));
+        }
+        return res;
+    }
+}
@@ -0,0 +1,92 @@
+package com.enioka.jqm.runner.java;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Hidden classes, whose decision is cached per package when the patterns allow it.
+ */
+public class PayloadClassLoaderTest
+{
+    @Test
+    public void testHiddenPrefixPattern() throws Exception
+    {
+        try (PayloadClassLoader cl = newClassLoader("org.junit.*"))
+        {
+            assertHidden(cl, "org.junit.Assert");
+            assertHidden(cl, "org.junit.Test");
+            assertHidden(cl, "org.junit.runner.Description");
+            assertVisible(cl, "org.hamcrest.Matcher");
+        }
+    }
+
+    @Test
+    public void testHiddenPrefixLongerThanPackage() throws Exception
+    {
+        // The decision for package org.junit depends on the class name, so it must not be cached.
+        try (PayloadClassLoader cl = newClassLoader("org.junit.Assert.*"))
+        {
+            assertHidden(cl, "org.junit.Assert");
+            assertVisible(cl, "org.junit.Test");
+            assertHidden(cl, "org.junit.Assert");
+        }
+    }
+
+    @Test
+    public void testHiddenNonPrefixPattern() throws Exception
+    {
+        try (PayloadClassLoader cl = newClassLoader(".*Assert"))
+        {
+            assertHidden(cl, "org.junit.Assert");
+            assertVisible(cl, "org.junit.Test");
+            assertVisible(cl, "org.junit.Assume");
+        }
+    }
+
+    @Test
+    public void testHiddenPatternsChange() throws Exception
+    {
+        try (PayloadClassLoader cl = newClassLoader("org.hamcrest.*"))
+        {
+            assertVisible(cl, "org.junit.Test");
+
+            // The package was known as not hidden, it must not be anymore.
+            cl.setHiddenJavaClasses("org.junit.*");
+            assertHidden(cl, "org.junit.Assume");
+        }
+    }
+
+    @Test
+    public void testNoHiddenPattern() throws Exception
+    {
+        try (PayloadClassLoader cl = newClassLoader(null))
+        {
+            assertVisible(cl, "org.junit.Test");
+        }
+    }
+
+    private PayloadClassLoader newClassLoader(String hiddenClasses)
+    {
+        PayloadClassLoader res = new PayloadClassLoader(PayloadClassLoaderTest.class.getClassLoader());
+        res.setHiddenJavaClasses(hiddenClasses);
+        return res;
+    }
+
+    private static void assertHidden(ClassLoader cl, String className)
+    {
+        try
+        {
+            cl.loadClass(className);
+            Assert.fail("class " + className + " should be hidden");
+        }
+        catch (ClassNotFoundException e)
+        {
+            // Expected - the payload class loader has no class path of its own.
+        }
+    }
+
+    private static void assertVisible(ClassLoader cl, String className) throws ClassNotFoundException
+    {
+        Assert.assertSame(Class.forName(className, false, PayloadClassLoaderTest.class.getClassLoader()), cl.loadClass(className));
+    }
+}
@@ -16,7 +16,7 @@ import com.enioka.jqm.api.JobManager;
 import com.enioka.jqm.api.JobRunnerException;
 import com.enioka.jqm.cl.ExtClassLoader;
 import com.enioka.jqm.jdbc.DbConn;
-import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.GlobalParameterCache;
 import com.enioka.jqm.model.Instruction;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.State;
@@ -58,7 +58,7 @@ class ShellJobInstanceTracker implements JobInstanceTracker, ShellJobInstanceTra
         url = this.cb.getWebApiLocalUrl(cnx);
 
         // Global parameter
-        logFilePerLaunch = GlobalParameter.getParameter(cnx, "logFilePerLaunch", "true");
+        logFilePerLaunch = GlobalParameterCache.getParameter(cnx, "logFilePerLaunch", "true");
 
         // JMX
         if (cb != null && cb.isJmxEnabled())
@@ -129,6 +129,7 @@ public class TestHelpers
         cnx.runUpdate("ji_delete_all");
         cnx.runUpdate("node_delete_all");
         cnx.runUpdate("jd_delete_all");
+        cnx.runUpdate("qv_delete_all");
         cnx.runUpdate("q_delete_all");
         cnx.runUpdate("jndiprm_delete_all");
         cnx.runUpdate("jndi_delete_all");
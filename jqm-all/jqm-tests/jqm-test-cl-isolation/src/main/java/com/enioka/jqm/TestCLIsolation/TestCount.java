@@ -0,0 +1,15 @@
+package com.enioka.jqm.TestCLIsolation;
+
+public class TestCount
+{
+    private static int runCount = 0;
+
+    public static void main(String[] args)
+    {
+        runCount++;
+        if (runCount != Integer.parseInt(args[0]))
+        {
+            throw new RuntimeException("This class was used by " + runCount + " runs, expected " + args[0]);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.enioka.jqm.TestCLIsolation;
+
+public class TestSetSwapContext
+{
+    public static void main(String[] args)
+    {
+        TestStatic.setStaticVariable(1);
+
+        // Some libraries change the context class loader and do not restore it.
+        Thread.currentThread().setContextClassLoader(ClassLoader.getSystemClassLoader());
+    }
+}
@@ -0,0 +1,34 @@
+package pyl;
+
+public class PrintALot
+{
+    public static void main(String[] args)
+    {
+        int lines = 10000;
+        if (args.length == 1)
+        {
+            lines = Integer.parseInt(args[0]);
+        }
+
+        for (int i = 0; i < lines; i++)
+        {
+            switch (i % 4)
+            {
+            case 0:
+                System.out.println("line " + i);
+                break;
+            case 1:
+                System.out.print("line ");
+                System.out.println(i);
+                break;
+            case 2:
+                System.out.printf("line %d%n", i);
+                break;
+            default:
+                byte[] b = ("line " + i + System.lineSeparator()).getBytes();
+                System.out.write(b, 0, b.length);
+            }
+        }
+        System.err.println("done");
+    }
+}
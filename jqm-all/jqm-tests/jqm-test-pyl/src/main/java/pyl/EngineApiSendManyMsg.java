@@ -0,0 +1,18 @@
+package pyl;
+
+import com.enioka.jqm.api.JobManager;
+
+public class EngineApiSendManyMsg implements Runnable
+{
+    JobManager jm;
+
+    @Override
+    public void run()
+    {
+        for (int i = 0; i < 500; i++)
+        {
+            jm.sendMsg("message " + i);
+            jm.sendProgress(i);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pyl;
+
+/**
+ * Fails if its thread group contains other threads, then leaves behind a thread which ignores interruptions for a few seconds.
+ */
+public class ThreadLeftBehind
+{
+    public static void main(String[] args)
+    {
+        if (Thread.currentThread().getThreadGroup().activeCount() > 1)
+        {
+            throw new RuntimeException("thread group is shared with other threads");
+        }
+
+        final long end = System.currentTimeMillis() + 3000;
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (System.currentTimeMillis() < end)
+                {
+                    try
+                    {
+                        Thread.sleep(100);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // Ignored on purpose.
+                    }
+                }
+            }
+        }).start();
+    }
+}
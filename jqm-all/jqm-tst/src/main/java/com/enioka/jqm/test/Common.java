@@ -115,10 +115,12 @@ final class Common
         cleanupAllJobDefinitions(cnx);
 
         cnx.runUpdate("dp_delete_all");
+        cnx.runUpdate("qv_delete_all");
         cnx.runUpdate("q_delete_all");
         cnx.runUpdate("node_delete_all");
 
         DefaultConfigurationService.updateConfiguration(cnx);
+        cnx.runUpdate("qv_delete_all");
         cnx.runUpdate("q_delete_all"); // remove default queue created by DefaultConfigurationService
         GlobalParameter.setParameter(cnx, "defaultConnection", "");
         GlobalParameter.setParameter(cnx, "disableWsApi", "true");
@@ -22,6 +22,7 @@ import java.net.Inet4Address;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Properties;
@@ -30,10 +31,11 @@ import com.enioka.jqm.client.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.enioka.jqm.client.shared.ByteRange;
 import com.enioka.jqm.client.shared.JobRequestBaseImpl;
 import com.enioka.jqm.client.shared.JqmClientQuerySubmitCallback;
 import com.enioka.jqm.client.shared.QueryBaseImpl;
-import com.enioka.jqm.client.shared.SelfDestructFileStream;
+import com.enioka.jqm.client.shared.RemoteFileStream;
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.DbManager;
@@ -45,18 +47,23 @@ import com.enioka.jqm.shared.misc.StandaloneHelpers;
 import com.enioka.jqm.ws.plumbing.HttpCache;
 
 import jakarta.servlet.ServletContext;
-import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.NotSupportedException;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
 import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
 
 import static com.enioka.jqm.shared.misc.StandaloneHelpers.ipFromId;
 
@@ -100,6 +107,34 @@ public class ServiceClient
     @Consumes({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
     public JobInstance enqueueObject(JobRequestBaseImpl jd)
+    {
+        long i = toClientRequest(jd).enqueue();
+        return toEnqueuedJobInstance(jd, i);
+    }
+
+    @POST
+    @Path("ji/batch")
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+    public List<JobInstance> enqueueBatch(List<JobRequestBaseImpl> jds)
+    {
+        List<JobRequest> targets = new ArrayList<>(jds.size());
+        for (JobRequestBaseImpl jd : jds)
+        {
+            targets.add(toClientRequest(jd));
+        }
+
+        List<Long> ids = Helpers.getClient().enqueueBatch(targets);
+
+        List<JobInstance> res = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++)
+        {
+            res.add(toEnqueuedJobInstance(jds.get(i), ids.get(i)));
+        }
+        return res;
+    }
+
+    private JobRequest toClientRequest(JobRequestBaseImpl jd)
     {
         JobRequest target = Helpers.getClient().newJobRequest(jd.getApplicationName(), jd.getUser());
 
@@ -121,9 +156,11 @@ public class ServiceClient
         {
             target.startHeld();
         }
+        return target;
+    }
 
-        long i = target.enqueue();
-
+    private JobInstance toEnqueuedJobInstance(JobRequestBaseImpl jd, long i)
+    {
         JobInstance ji = new JobInstance();
         ji.setId(i);
         ji.setKeyword1(jd.getKeyword1());
@@ -392,41 +429,96 @@ public class ServiceClient
     @Consumes({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
     @Produces("application/octet-stream")
     @POST
-    public InputStream getDeliverableContent(Deliverable file, @Context HttpServletResponse res)
+    public Response getDeliverableContent(Deliverable file)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) Helpers.getClient().getDeliverableContent(file);
-        res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
-        return fs;
+        return toFileResponse(Helpers.getClient().getDeliverableContent(file));
     }
 
     @Path("ji/files/{id}")
     @Produces("application/octet-stream")
     @GET
-    public InputStream getDeliverableContent(@PathParam("id") long delId, @Context HttpServletResponse res)
+    public Response getDeliverableContent(@PathParam("id") long delId)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) Helpers.getClient().getDeliverableContent(delId);
-        res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
-        return fs;
+        return toFileResponse(Helpers.getClient().getDeliverableContent(delId));
     }
 
     @Path("ji/{jobId}/stderr")
     @Produces("application/octet-stream")
     @GET
-    public InputStream getJobLogStdErr(@PathParam("jobId") long jobId, @Context HttpServletResponse res)
+    public Response getJobLogStdErr(@PathParam("jobId") long jobId, @HeaderParam("Range") String range)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) Helpers.getClient().getJobLogStdErr(jobId);
-        res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
-        return fs;
+        ByteRange r = ByteRange.fromHeader(range);
+        return toFileResponse(
+                r == null ? Helpers.getClient().getJobLogStdErr(jobId) : Helpers.getClient().getJobLogStdErr(jobId, r.offset, r.length));
     }
 
     @Path("ji/{jobId}/stdout")
     @Produces("application/octet-stream")
     @GET
-    public InputStream getJobLogStdOut(@PathParam("jobId") long jobId, @Context HttpServletResponse res)
+    public Response getJobLogStdOut(@PathParam("jobId") long jobId, @HeaderParam("Range") String range)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) Helpers.getClient().getJobLogStdOut(jobId);
-        res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
-        return fs;
+        ByteRange r = ByteRange.fromHeader(range);
+        return toFileResponse(
+                r == null ? Helpers.getClient().getJobLogStdOut(jobId) : Helpers.getClient().getJobLogStdOut(jobId, r.offset, r.length));
+    }
+
+    @Path("ji/{jobId}/stdout/follow")
+    @Produces("application/octet-stream")
+    @GET
+    public Response followJobLogStdOut(@PathParam("jobId") long jobId, @QueryParam("offset") @DefaultValue("0") long offset)
+    {
+        return toFollowResponse(Helpers.getClient().followJobLogStdOut(jobId, offset));
+    }
+
+    @Path("ji/{jobId}/stderr/follow")
+    @Produces("application/octet-stream")
+    @GET
+    public Response followJobLogStdErr(@PathParam("jobId") long jobId, @QueryParam("offset") @DefaultValue("0") long offset)
+    {
+        return toFollowResponse(Helpers.getClient().followJobLogStdErr(jobId, offset));
+    }
+
+    /**
+     * Relays a followed log coming from a node. Unlike a plain file, each received chunk is flushed at once.
+     */
+    private Response toFollowResponse(InputStream is)
+    {
+        RemoteFileStream fs = (RemoteFileStream) is;
+        StreamingOutput body = os -> {
+            try (InputStream in = fs)
+            {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                {
+                    os.write(buffer, 0, read);
+                    os.flush();
+                }
+            }
+        };
+        return Response.ok(body).header("Content-Disposition", "attachment; filename=" + fs.nameHint).build();
+    }
+
+    /**
+     * Relays a file stream coming from a node (see {@link RemoteFileStream}) as is, including its partial content status if any.
+     */
+    private Response toFileResponse(InputStream is)
+    {
+        RemoteFileStream fs = (RemoteFileStream) is;
+        ResponseBuilder rb;
+        if (fs.contentRange == null)
+        {
+            rb = Response.ok(fs);
+        }
+        else if (fs.contentRange.startsWith("bytes */"))
+        {
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", fs.contentRange).build();
+        }
+        else
+        {
+            rb = Response.status(Status.PARTIAL_CONTENT).entity(fs).header("Content-Range", fs.contentRange);
+        }
+        return rb.header("Content-Disposition", "attachment; filename=" + fs.nameHint).build();
     }
 
     @Path("q")
@@ -0,0 +1,304 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.ws.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.NoResultException;
+import com.enioka.jqm.model.Node;
+
+import jakarta.servlet.ServletContext;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+
+/**
+ * Metrics of the local node in the Prometheus text exposition format. They are read from the JMX beans of the engine, which are in-memory
+ * counters: a scrape never queries the database (except the very first one, which needs the node name). As the health API, this is only
+ * available when the web app runs on top of a JQM node with JMX enabled.
+ */
+@Path("/metrics")
+public class ServiceMetrics
+{
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static Map<Long, String> nodeNames = new ConcurrentHashMap<>();
+
+    private Long jqmNodeId = null;
+
+    public ServiceMetrics(@Context ServletContext context)
+    {
+        String id = context.getInitParameter("jqmnodeid");
+        jqmNodeId = id == null ? null : Long.parseLong(id);
+    }
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getMetrics()
+    {
+        String nodeName = getLocalNodeName();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Metrics m = new Metrics();
+
+        try
+        {
+            ObjectName engine = new ObjectName("com.enioka.jqm:type=Node,name=" + nodeName);
+            if (!server.isRegistered(engine))
+            {
+                throw new ErrorDto("could not find the JMX Mbean of the local JQM node - JMX is not enabled on this server", "", 8,
+                        Status.BAD_REQUEST);
+            }
+
+            // Engine
+            String[] labels = { "node", nodeName };
+            m.gauge("jqm_engine_uptime_seconds", "Seconds since engine start", labels, server.getAttribute(engine, "Uptime"));
+            m.gauge("jqm_engine_running_job_instances", "Currently running job instances", labels,
+                    server.getAttribute(engine, "CurrentlyRunningJobCount"));
+            m.gauge("jqm_engine_late_job_instances", "Running job instances which have exceeded their max running time", labels,
+                    server.getAttribute(engine, "LateJobs"));
+            m.gauge("jqm_engine_pollers_polling", "1 if all pollers have looped during their last polling period", labels,
+                    server.getAttribute(engine, "AllPollersPolling"));
+            m.counter("jqm_engine_ended_job_instances_total", "Job instances ended since engine start", labels,
+                    server.getAttribute(engine, "CumulativeJobInstancesCount"));
+            m.histogram("jqm_engine_wait_time_seconds", "Time between enqueue and launch", labels,
+                    server.getAttribute(engine, "WaitTimeHistogram"));
+            m.histogram("jqm_engine_run_time_seconds", "Job instance run time", labels, server.getAttribute(engine, "RunTimeHistogram"));
+            m.histogram("jqm_engine_end_of_run_persistence_seconds", "Time between the end of a job instance and the commit of its results",
+                    labels, server.getAttribute(engine, "EndOfRunPersistenceHistogram"));
+            m.histogram("jqm_engine_db_connection_acquisition_seconds", "Time needed to get a database connection from the pool", labels,
+                    server.getAttribute(engine, "DbConnectionAcquisitionHistogram"));
+
+            // Pollers
+            for (ObjectName poller : server.queryNames(new ObjectName("com.enioka.jqm:type=Node.Queue,Node=" + nodeName + ",*"), null))
+            {
+                labels = new String[] { "node", nodeName, "queue", poller.getKeyProperty("name") };
+                int running = ((Number) server.getAttribute(poller, "CurrentActiveThreadCount")).intValue();
+                int max = ((Number) server.getAttribute(poller, "MaxConcurrentJobInstanceCount")).intValue();
+                m.gauge("jqm_queue_running_job_instances", "Currently running job instances", labels, running);
+                m.gauge("jqm_queue_max_job_instances", "Max number of simultaneously running job instances", labels, max);
+                m.gauge("jqm_queue_free_slots", "Job instances which could still be launched", labels, Math.max(max - running, 0));
+                m.gauge("jqm_queue_late_job_instances", "Running job instances which have exceeded their max running time", labels,
+                        server.getAttribute(poller, "LateJobs"));
+                m.gauge("jqm_queue_polling", "1 if the poller has looped during its last polling period", labels,
+                        server.getAttribute(poller, "ActuallyPolling"));
+                m.counter("jqm_queue_ended_job_instances_total",
+                        "Job instances ended since the poller start, plus those found in history at this time", labels,
+                        server.getAttribute(poller, "CumulativeJobInstancesCount"));
+                m.counter("jqm_queue_poll_loops_total", "Poller loops since engine start", labels,
+                        server.getAttribute(poller, "PollLoopCount"));
+                m.counter("jqm_queue_attributed_job_instances_total", "Job instances attributed since engine start", labels,
+                        server.getAttribute(poller, "AttributedJobInstancesCount"));
+                m.gauge("jqm_queue_last_attribution_batch_size", "Job instances attributed during the last poller loop", labels,
+                        server.getAttribute(poller, "LastAttributionBatchSize"));
+                m.histogram("jqm_queue_poll_duration_seconds", "Duration of a poller loop", labels,
+                        server.getAttribute(poller, "PollDurationHistogram"));
+                m.histogram("jqm_queue_wait_time_seconds", "Time between enqueue and launch", labels,
+                        server.getAttribute(poller, "WaitTimeHistogram"));
+                m.histogram("jqm_queue_run_time_seconds", "Job instance run time", labels, server.getAttribute(poller, "RunTimeHistogram"));
+
+                for (Map.Entry<String, Number> e : tabularToMap(server.getAttribute(poller, "ResourceManagerSlotsAvailable")).entrySet())
+                {
+                    // Integer.MAX_VALUE means the RM does not limit launches.
+                    int slots = e.getValue().intValue();
+                    Object value = slots == Integer.MAX_VALUE ? (Object) Double.POSITIVE_INFINITY : (Object) slots;
+                    m.gauge("jqm_resource_manager_slots_available", "Job instances a resource manager would allow to launch",
+                            new String[] { "node", nodeName, "queue", poller.getKeyProperty("name"), "resource_manager", e.getKey() },
+                            value);
+                }
+            }
+
+            // Java runner (its bean only exists after the first launch of a Java job instance)
+            ObjectName javaRunner = new ObjectName("com.enioka.jqm:type=Node.JavaRunner,Node=" + nodeName);
+            if (server.isRegistered(javaRunner))
+            {
+                labels = new String[] { "node", nodeName };
+                m.gauge("jqm_java_shared_class_loaders", "Class loaders shared by job instances currently kept", labels,
+                        server.getAttribute(javaRunner, "SharedClassLoaderCount"));
+                m.counter("jqm_java_shared_class_loader_evictions_total", "Shared class loaders closed as they were not used anymore",
+                        labels,
+                        server.getAttribute(javaRunner, "SharedClassLoaderEvictions"));
+                m.gauge("jqm_java_idle_recycled_class_loaders", "Class loaders of recycled contexts waiting for a launch", labels,
+                        server.getAttribute(javaRunner, "IdleRecycledClassLoaderCount"));
+                m.gauge("jqm_jvm_metaspace_used_bytes", "Memory used by class metadata inside the JVM", labels,
+                        server.getAttribute(javaRunner, "MetaspaceUsedBytes"));
+                m.gauge("jqm_jvm_loaded_classes", "Classes currently loaded inside the JVM", labels,
+                        server.getAttribute(javaRunner, "LoadedClassCount"));
+                m.counter("jqm_jvm_unloaded_classes_total", "Classes unloaded since JVM start", labels,
+                        server.getAttribute(javaRunner, "UnloadedClassCount"));
+            }
+        }
+        catch (JMException e)
+        {
+            throw new ErrorDto("Issue when querying JMX server", 12, e, Status.INTERNAL_SERVER_ERROR);
+        }
+
+        return Response.ok(m.toString()).type(CONTENT_TYPE).build();
+    }
+
+    private String getLocalNodeName()
+    {
+        if (jqmNodeId == null)
+        {
+            // Local service only - not enabled when running on top of Tomcat & co.
+            throw new ErrorDto("can only retrieve local node metrics when the web app runs on top of JQM", "", 7, Status.BAD_REQUEST);
+        }
+
+        return nodeNames.computeIfAbsent(jqmNodeId, id -> {
+            try (DbConn cnx = Helpers.getDbSession())
+            {
+                return Node.select_single(cnx, "node_select_by_id", id).getName();
+            }
+            catch (NoResultException e)
+            {
+                throw new RuntimeException("invalid configuration: no node of ID " + id);
+            }
+        });
+    }
+
+    private static Map<String, Number> tabularToMap(Object attribute)
+    {
+        Map<String, Number> res = new LinkedHashMap<>();
+        for (Object row : ((TabularData) attribute).values())
+        {
+            CompositeData cd = (CompositeData) row;
+            res.put((String) cd.get("key"), (Number) cd.get("value"));
+        }
+        return res;
+    }
+
+    /**
+     * The metric families, as the exposition format requires all the samples of a family to be written together.
+     */
+    private static class Metrics
+    {
+        private Map<String, List<String>> families = new LinkedHashMap<>();
+
+        private void gauge(String name, String help, String[] labels, Object value)
+        {
+            sample(name, "gauge", help, name, labels, value);
+        }
+
+        private void counter(String name, String help, String[] labels, Object value)
+        {
+            sample(name, "counter", help, name, labels, value);
+        }
+
+        /**
+         * Histograms are exposed by the beans in milliseconds (see the engine MBean interfaces), and converted to seconds here.
+         */
+        private void histogram(String name, String help, String[] labels, Object attribute)
+        {
+            Map<String, Number> values = tabularToMap(attribute);
+            Map<Double, Number> buckets = new TreeMap<>();
+            for (Map.Entry<String, Number> e : values.entrySet())
+            {
+                if (e.getKey().equals("+Inf"))
+                {
+                    buckets.put(Double.POSITIVE_INFINITY, e.getValue());
+                }
+                else if (!e.getKey().equals("sum"))
+                {
+                    buckets.put(Double.parseDouble(e.getKey()) / 1000, e.getValue());
+                }
+            }
+
+            String[] bucketLabels = new String[labels.length + 2];
+            System.arraycopy(labels, 0, bucketLabels, 0, labels.length);
+            bucketLabels[labels.length] = "le";
+            for (Map.Entry<Double, Number> e : buckets.entrySet())
+            {
+                bucketLabels[labels.length + 1] = format(e.getKey());
+                sample(name, "histogram", help, name + "_bucket", bucketLabels, e.getValue());
+            }
+            sample(name, "histogram", help, name + "_sum", labels, values.get("sum").doubleValue() / 1000);
+            sample(name, "histogram", help, name + "_count", labels, buckets.get(Double.POSITIVE_INFINITY));
+        }
+
+        private void sample(String family, String type, String help, String name, String[] labels, Object value)
+        {
+            List<String> lines = families.get(family);
+            if (lines == null)
+            {
+                lines = new ArrayList<>();
+                lines.add("# HELP " + family + " " + help);
+                lines.add("# TYPE " + family + " " + type);
+                families.put(family, lines);
+            }
+
+            StringBuilder sb = new StringBuilder(name);
+            sb.append('{');
+            for (int i = 0; i < labels.length; i += 2)
+            {
+                sb.append(i > 0 ? "," : "").append(labels[i]).append("=\"");
+                sb.append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+            }
+            sb.append("} ");
+            if (value instanceof Boolean)
+            {
+                sb.append((Boolean) value ? "1" : "0");
+            }
+            else if (value instanceof Double || value instanceof Float)
+            {
+                sb.append(format(((Number) value).doubleValue()));
+            }
+            else
+            {
+                sb.append(value);
+            }
+            lines.add(sb.toString());
+        }
+
+        private static String format(double d)
+        {
+            if (Double.isInfinite(d))
+            {
+                return d > 0 ? "+Inf" : "-Inf";
+            }
+            return Double.toString(d);
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            for (List<String> lines : families.values())
+            {
+                for (String line : lines)
+                {
+                    sb.append(line).append('\n');
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
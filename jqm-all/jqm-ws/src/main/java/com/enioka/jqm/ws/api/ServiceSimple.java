@@ -16,13 +16,15 @@
 package com.enioka.jqm.ws.api;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Set;
 
@@ -37,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.enioka.jqm.client.api.JobRequest;
+import com.enioka.jqm.client.shared.ByteRange;
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.jdbc.DbManager;
 import com.enioka.jqm.jdbc.NoResultException;
@@ -45,18 +48,22 @@ import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.Node;
 
 import jakarta.servlet.ServletContext;
-import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.FormParam;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.ResponseBuilder;
 import jakarta.ws.rs.core.Response.Status;
 import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.StreamingOutput;
 
 /**
  * A minimal API designed to interact well with CLI tools such as schedulers. Some of its methods (file retrieval) are also used by the two
@@ -68,6 +75,11 @@ public class ServiceSimple
 {
     private static Logger log = LoggerFactory.getLogger(ServiceSimple.class);
 
+    /**
+     * How often a followed log file is checked for new content.
+     */
+    private static final int FOLLOW_PERIOD_MS = 500;
+
     private Long jqmNodeId = null;
 
     public ServiceSimple(@Context ServletContext context)
@@ -118,25 +130,45 @@ public class ServiceSimple
     @GET
     @Path("stdout")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream getLogOut(@QueryParam("id") long id, @Context HttpServletResponse res, @Context SecurityContext security)
+    public Response getLogOut(@QueryParam("id") long id, @HeaderParam("Range") String range, @Context SecurityContext security)
     {
-        res.setHeader("Content-Disposition", "attachment; filename=" + id + ".stdout.txt");
-        return getFile(FilenameUtils.concat("./logs", StringUtils.leftPad("" + id, 10, "0") + ".stdout.log"), security);
+        String path = FilenameUtils.concat(getLogDirectory(), StringUtils.leftPad("" + id, 10, "0") + ".stdout.log");
+        return getFile(path, id + ".stdout.txt", range, security);
     }
 
     @GET
     @Path("stderr")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream getLogErr(@QueryParam("id") long id, @Context HttpServletResponse res, @Context SecurityContext security)
+    public Response getLogErr(@QueryParam("id") long id, @HeaderParam("Range") String range, @Context SecurityContext security)
+    {
+        String path = FilenameUtils.concat(getLogDirectory(), StringUtils.leftPad("" + id, 10, "0") + ".stderr.log");
+        return getFile(path, id + ".stderr.txt", range, security);
+    }
+
+    @GET
+    @Path("stdout/follow")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response followLogOut(@QueryParam("id") long id, @QueryParam("offset") @DefaultValue("0") long offset,
+            @Context SecurityContext security)
     {
-        res.setHeader("Content-Disposition", "attachment; filename=" + id + ".stderr.txt");
-        return getFile(FilenameUtils.concat("./logs", StringUtils.leftPad("" + id, 10, "0") + ".stderr.log"), security);
+        String path = FilenameUtils.concat(getLogDirectory(), StringUtils.leftPad("" + id, 10, "0") + ".stdout.log");
+        return followFile(id, path, id + ".stdout.txt", offset, security);
+    }
+
+    @GET
+    @Path("stderr/follow")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response followLogErr(@QueryParam("id") long id, @QueryParam("offset") @DefaultValue("0") long offset,
+            @Context SecurityContext security)
+    {
+        String path = FilenameUtils.concat(getLogDirectory(), StringUtils.leftPad("" + id, 10, "0") + ".stderr.log");
+        return followFile(id, path, id + ".stderr.txt", offset, security);
     }
 
     @GET
     @Path("file")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream getDeliverableStream(@QueryParam("id") String randomId, @Context HttpServletResponse res,
+    public Response getDeliverableStream(@QueryParam("id") String randomId, @HeaderParam("Range") String range,
             @Context SecurityContext security)
     {
         Node n = getLocalNodeIfRunningOnJqm();
@@ -166,20 +198,169 @@ public class ServiceSimple
         }
 
         String ext = FilenameUtils.getExtension(d.getOriginalFileName());
-        res.setHeader("Content-Disposition", "attachment; filename=" + d.getFileFamily() + "." + d.getId() + "." + ext);
-        return getFile(FilenameUtils.concat(n.getDlRepo(), d.getFilePath()), security);
+        return getFile(FilenameUtils.concat(n.getDlRepo(), d.getFilePath()), d.getFileFamily() + "." + d.getId() + "." + ext, range,
+                security);
     }
 
-    private InputStream getFile(String path, @Context SecurityContext security)
+    /**
+     * The directory where engines write job instance logs, that is JQM_ROOT/logs.
+     */
+    private static String getLogDirectory()
     {
-        try
+        String rootPath = System.getProperty("com.enioka.jqm.alternateJqmRoot", null);
+        if (rootPath == null || rootPath.isEmpty())
+        {
+            rootPath = ".";
+        }
+        return FilenameUtils.concat(rootPath, "logs");
+    }
+
+    /**
+     * Streams a file (or the part of it given by a single-range HTTP Range header) directly from disk to the response, without any
+     * intermediate copy in memory. Log files may still be growing: the size used is the one at the time of the call.
+     */
+    private Response getFile(String path, String fileName, String rangeHeader, SecurityContext security)
+    {
+        log.debug("file retrieval service called by user " + getUserName(security) + " for file " + path);
+        File f = new File(path);
+        if (!f.isFile())
+        {
+            throw new ErrorDto("Could not find the desired file", 8, new FileNotFoundException(path), Status.NO_CONTENT);
+        }
+
+        long size = f.length();
+        long first = 0;
+        long count = size;
+        ResponseBuilder rb;
+        ByteRange range = ByteRange.fromHeader(rangeHeader); // null if absent or not supported: whole file.
+        if (range == null)
+        {
+            rb = Response.ok();
+        }
+        else
+        {
+            long[] bounds = range.resolve(size);
+            if (bounds == null)
+            {
+                return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", "bytes */" + size).build();
+            }
+            first = bounds[0];
+            count = bounds[1] - bounds[0] + 1;
+            rb = Response.status(Status.PARTIAL_CONTENT).header("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+        }
+
+        final long start = first;
+        final long length = count;
+        StreamingOutput body = os -> {
+            try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+            {
+                WritableByteChannel target = Channels.newChannel(os);
+                long position = start;
+                long remaining = length;
+                while (remaining > 0)
+                {
+                    long sent = channel.transferTo(position, remaining, target);
+                    if (sent <= 0)
+                    {
+                        break; // File was truncated (purged?) meanwhile.
+                    }
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+        };
+
+        return rb.entity(body).header("Accept-Ranges", "bytes").header("Content-Length", length)
+                .header("Content-Disposition", "attachment; filename=" + fileName).build();
+    }
+
+    /**
+     * Streams a log file while it is being written, like <code>tail -f</code>: the file is kept open and only the bytes appended since the
+     * last look are sent, and the response is flushed after each of them. The response ends once the job instance has left the
+     * JOB_INSTANCE table (it has ended) and the end of the file was sent.
+     */
+    private Response followFile(final long id, String path, String fileName, final long offset, SecurityContext security)
+    {
+        log.debug("log follow service called by user " + getUserName(security) + " for file " + path);
+        final File f = new File(path);
+        if (!f.isFile() && isEnded(id))
         {
-            log.debug("file retrieval service called by user " + getUserName(security) + " for file " + path);
-            return new FileInputStream(path);
+            throw new ErrorDto("Could not find the desired file", 8, new FileNotFoundException(path), Status.NO_CONTENT);
         }
-        catch (FileNotFoundException e)
+
+        StreamingOutput body = os -> {
+            WritableByteChannel target = Channels.newChannel(os);
+            FileChannel channel = null;
+            long position = 0;
+            boolean ended = false;
+            try
+            {
+                while (true)
+                {
+                    // The file may only be created once the job instance actually starts.
+                    if (channel == null && f.isFile())
+                    {
+                        channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+                        long size = channel.size();
+                        position = offset >= 0 ? Math.min(offset, size) : Math.max(size + offset, 0);
+                    }
+
+                    if (channel != null)
+                    {
+                        long size = channel.size();
+                        while (position < size)
+                        {
+                            long sent = channel.transferTo(position, size - position, target);
+                            if (sent <= 0)
+                            {
+                                break;
+                            }
+                            position += sent;
+                        }
+                        os.flush();
+                    }
+
+                    if (ended)
+                    {
+                        break; // The last loop was only there to send what was written just before the end.
+                    }
+                    ended = isEnded(id);
+                    if (!ended)
+                    {
+                        Thread.sleep(FOLLOW_PERIOD_MS);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                if (channel != null)
+                {
+                    channel.close();
+                }
+            }
+        };
+
+        return Response.ok(body).header("Content-Disposition", "attachment; filename=" + fileName).build();
+    }
+
+    /**
+     * A job instance has ended once it is no longer inside the JOB_INSTANCE table (history insertion and removal from this table are done
+     * inside the same transaction).
+     */
+    private static boolean isEnded(long id)
+    {
+        try (DbConn cnx = Helpers.getDbSession())
+        {
+            cnx.runSelectSingle("ji_select_instruction_by_id", String.class, id);
+            return false;
+        }
+        catch (NoResultException e)
         {
-            throw new ErrorDto("Could not find the desired file", 8, e, Status.NO_CONTENT);
+            return true;
         }
     }
 
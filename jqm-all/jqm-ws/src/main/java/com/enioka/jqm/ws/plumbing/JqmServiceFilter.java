@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import com.enioka.jqm.ws.api.ServiceAdmin;
 import com.enioka.jqm.ws.api.ServiceClient;
+import com.enioka.jqm.ws.api.ServiceMetrics;
 import com.enioka.jqm.ws.api.ServiceSimple;
 
 import jakarta.servlet.ServletContext;
@@ -43,7 +44,7 @@ public class JqmServiceFilter implements ContainerRequestFilter
         }
 
         var clazz = resourceInfo.getResourceClass();
-        if (clazz.isAssignableFrom(ServiceSimple.class))
+        if (clazz.isAssignableFrom(ServiceSimple.class) || clazz.isAssignableFrom(ServiceMetrics.class))
         {
             enabled = Boolean.parseBoolean(this.context.getInitParameter("startSimple"));
         }
@@ -33,6 +33,7 @@ const ClassLoadersPage: React.FC = () => {
     const [allowedRunners, setAllowedRunners] = useState<string>("");
 
     const nameInputRef = useRef(null);
+    const recycledRunsInputRef = useRef(null);
 
     const { classLoaders, fetchClassLoaders, createClassLoader, updateClassLoader, deleteClassLoaders } =
         useClassLoaderAPI();
@@ -60,6 +61,7 @@ const ClassLoadersPage: React.FC = () => {
         (tableMeta: MUIDataTableMeta) => {
             const [classLoaderId] = tableMeta.rowData;
             const { value: name } = nameInputRef.current!;
+            const { value: recycledRuns } = recycledRunsInputRef.current!;
 
             if (name) {
                 updateClassLoader({
@@ -70,6 +72,7 @@ const ClassLoadersPage: React.FC = () => {
                     tracingEnabled,
                     persistent,
                     allowedRunners,
+                    recycledRuns: +recycledRuns,
                 }).then(() => setEditingRowId(null));
             }
         },
@@ -180,6 +183,21 @@ const ClassLoadersPage: React.FC = () => {
                 ),
             },
         },
+        {
+            name: "recycledRuns",
+            label: "Recycled Runs",
+            options: {
+                hint: 'Only used when not persistent. When greater than 1, a class loader is reused by up to this number of successive job instances of the same job definition (never at the same time) before being thrown out. 0 means a new class loader for each job instance.',
+                filter: true,
+                sort: true,
+                customBodyRender: renderInputCell(
+                    recycledRunsInputRef,
+                    editingRowId,
+                    false,
+                    "number"
+                ),
+            },
+        },
         {
             name: "",
             label: "Actions",
@@ -34,6 +34,7 @@ export const CreateClassLoaderDialog: React.FC<{
     const [tracingEnabled, setTracingEnabled] = useState<boolean>(false);
     const [persistent, setPersistent] = useState<boolean>(false);
     const [allowedRunners, setAllowedRunners] = useState<string>("");
+    const [recycledRuns, setRecycledRuns] = useState<string>("0");
 
     const classes = useStyles();
     return (
@@ -128,6 +129,17 @@ export const CreateClassLoaderDialog: React.FC<{
                     fullWidth
                     variant="standard"
                 />
+                <TextField
+                    className={classes.TextField}
+                    label="Recycled runs"
+                    value={recycledRuns}
+                    onChange={(event: React.ChangeEvent<HTMLInputElement>) => {
+                        setRecycledRuns(event.target.value);
+                    }}
+                    type="number"
+                    fullWidth
+                    variant="standard"
+                />
             </DialogContent>
             <DialogActions>
                 <Button
@@ -151,6 +163,7 @@ export const CreateClassLoaderDialog: React.FC<{
                             tracingEnabled: tracingEnabled,
                             persistent: persistent,
                             allowedRunners: allowedRunners,
+                            recycledRuns: +recycledRuns,
                         });
                         closeDialog();
                         setName("");
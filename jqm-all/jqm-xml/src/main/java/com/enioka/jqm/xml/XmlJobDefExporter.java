@@ -215,6 +215,10 @@ public class XmlJobDefExporter
         addTextElementToParentElement(res, "tracingEnabled", cl.isTracingEnabled());
         addTextElementToParentElement(res, "persistent", cl.isPersistent());
         addTextElementToParentElement(res, "runners", cl.getAllowedRunners());
+        if (cl.getRecycledRuns() > 0)
+        {
+            addTextElementToParentElement(res, "recycledRuns", String.valueOf(cl.getRecycledRuns()));
+        }
 
         Element handlers = new Element("eventHandlers");
         res.addContent(handlers);
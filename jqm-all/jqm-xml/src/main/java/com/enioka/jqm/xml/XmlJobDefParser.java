@@ -190,6 +190,14 @@ public class XmlJobDefParser
                 {
                     cl.setAllowedRunners(null);
                 }
+                if (clElement.getElementsByTagName("recycledRuns").getLength() > 0)
+                {
+                    cl.setRecycledRuns(Integer.parseInt(clElement.getElementsByTagName("recycledRuns").item(0).getTextContent().trim()));
+                }
+                else
+                {
+                    cl.setRecycledRuns(0);
+                }
                 cl.update(cnx);
 
                 if (clElement.getElementsByTagName("eventHandlers").getLength() > 0)